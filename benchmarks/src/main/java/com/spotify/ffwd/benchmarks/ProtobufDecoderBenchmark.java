@@ -0,0 +1,92 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.model.MetricInterner;
+import com.spotify.ffwd.protobuf.Protocol0Reader;
+import com.spotify.ffwd.protocol0.Protocol0;
+
+/**
+ * Compares decoding protobuf metrics with {@link Protocol0Reader} against parsing a {@code Protocol0.Message} from
+ * an input stream over the buffer, which is how the decoder used to work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ProtobufDecoderBenchmark {
+    private final MetricInterner interner = new MetricInterner();
+    private final Protocol0Reader reader = new Protocol0Reader(interner);
+
+    @Param({ "false", "true" })
+    private boolean direct;
+
+    private ByteBuf buffer;
+
+    @Setup
+    public void setup() {
+        final Protocol0.Metric metric = Protocol0.Metric.newBuilder().setKey("system.cpu").setValue(42.0d)
+                .setTime(System.currentTimeMillis()).setHost("database.example.com").addTags("production")
+                .addAttributes(attribute("site", "lon")).addAttributes(attribute("role", "database"))
+                .addAttributes(attribute("what", "cpu-usage")).build();
+
+        final byte[] message = Protocol0.Message.newBuilder().setMetric(metric).build().toByteArray();
+
+        buffer = direct ? Unpooled.directBuffer(message.length) : Unpooled.buffer(message.length);
+        buffer.writeBytes(message);
+    }
+
+    @Benchmark
+    public Object inputStream() throws Exception {
+        final Protocol0.Message message = Protocol0.Message.parseFrom(new ByteBufInputStream(buffer.duplicate()));
+        final Protocol0.Metric metric = message.getMetric();
+
+        final Map<String, String> attributes = new HashMap<>();
+
+        for (final Protocol0.Attribute a : metric.getAttributesList())
+            attributes.put(a.getKey(), a.getValue());
+
+        return interner.metric(metric.getKey(), metric.getValue(), metric.hasTime() ? metric.getTime()
+                : Metric.NO_TIME, metric.getHost(), metric.getTagsList(), attributes, null);
+    }
+
+    @Benchmark
+    public Object reader() throws Exception {
+        return reader.read(buffer, buffer.readerIndex(), buffer.readableBytes());
+    }
+
+    private static Protocol0.Attribute attribute(final String key, final String value) {
+        return Protocol0.Attribute.newBuilder().setKey(key).setValue(value).build();
+    }
+}
@@ -0,0 +1,126 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.name.Names;
+import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.serializer.Spotify100Serializer;
+
+/**
+ * Compares the streaming {@link Spotify100Serializer} with serializing an intermediate object through databind, which
+ * is how the serializer used to work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class Spotify100SerializerBenchmark {
+    private static final int BATCH_SIZE = 1000;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Spotify100Serializer serializer = new Spotify100Serializer();
+
+    private List<Metric> metrics;
+
+    @Data
+    public static class Spotify100Metric {
+        private final String version = Spotify100Serializer.SCHEMA_VERSION;
+        private final String key;
+        private final String host;
+        private final Long time;
+        private final Map<String, String> attributes;
+        private final Double value;
+    }
+
+    @Setup
+    public void setup() {
+        Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ObjectMapper.class).annotatedWith(Names.named("application/json")).toInstance(mapper);
+            }
+        }).injectMembers(serializer);
+
+        metrics = new ArrayList<>();
+
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            metrics.add(new Metric("system.cpu-" + i, i, System.currentTimeMillis(), "database.example.com",
+                    ImmutableSet.<String> of(), ImmutableMap.of("site", "lon", "role", "database", "what",
+                            "cpu-usage"), null));
+        }
+    }
+
+    @Benchmark
+    public int databind() throws Exception {
+        int size = 0;
+
+        for (final Metric source : metrics) {
+            final Spotify100Metric m = new Spotify100Metric(source.getKey(), source.getHost(), source.getTimestamp(),
+                    source.getTags(), source.getValue());
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            mapper.writeValue(outputStream, m);
+            size += outputStream.toByteArray().length;
+        }
+
+        return size;
+    }
+
+    @Benchmark
+    public int streaming() throws Exception {
+        int size = 0;
+
+        for (final Metric m : metrics)
+            size += serializer.serialize(m).length;
+
+        return size;
+    }
+
+    @Benchmark
+    public int streamingBatch() throws Exception {
+        final ByteBuf buffer = PooledByteBufAllocator.DEFAULT.heapBuffer();
+
+        try {
+            serializer.serializeMetrics(metrics, buffer);
+            return buffer.readableBytes();
+        } finally {
+            buffer.release();
+        }
+    }
+}
@@ -20,19 +20,24 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import com.spotify.ffwd.debug.DebugServer;
 import com.spotify.ffwd.filter.Filter;
+import com.spotify.ffwd.model.CompactTags;
 import com.spotify.ffwd.model.Event;
 import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.model.MetricInterner;
+import com.spotify.ffwd.model.SeriesKey;
 import com.spotify.ffwd.statistics.OutputManagerStatistics;
 
 import eu.toolchain.async.AsyncFramework;
 import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.LazyTransform;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -66,10 +71,37 @@ public class CoreOutputManager implements OutputManager {
     @Inject
     private Filter filter;
 
+    /**
+     * Write-ahead buffer, only available if the on-disk queue is configured.
+     */
+    @Inject(optional = true)
+    private QLogOutputBuffer buffer = null;
+
+    private final MetricInterner interner = MetricInterner.get();
+
+    /**
+     * Interned merge of the global tags with the tags of a series, keyed by the identity of the series tags.
+     *
+     * All samples of a series then carry the same tags instance, which sinks use to cache per series encodings.
+     */
+    private final ConcurrentMap<Map<String, String>, CompactTags> mergedTags = CacheBuilder.newBuilder().weakKeys()
+            .maximumSize(MetricInterner.DEFAULT_MAX_SERIES).<Map<String, String>, CompactTags> build().asMap();
+
+    /**
+     * Interned series with merged tags, keyed by the identity of the original series.
+     *
+     * Completed samples then share the series of all other samples, instead of computing their own on first access.
+     */
+    private final ConcurrentMap<SeriesKey, SeriesKey> mergedSeries = CacheBuilder.newBuilder().weakKeys()
+            .maximumSize(MetricInterner.DEFAULT_MAX_SERIES).<SeriesKey, SeriesKey> build().asMap();
+
     @Override
     public void init() {
         log.info("Initializing (filter: {})", filter);
 
+        // global tags are the base layer of all merged tags, interning protects them from modification.
+        tags = interner.tags(tags);
+
         for (final PluginSink s : sinks) {
             s.init();
         }
@@ -88,6 +120,11 @@ public class CoreOutputManager implements OutputManager {
 
         debug.inspectEvent(DEBUG_ID, filtered);
 
+        if (buffer != null) {
+            buffer.sendEvent(filtered);
+            return;
+        }
+
         for (final PluginSink s : sinks)
             if (s.isReady())
                 s.sendEvent(filtered);
@@ -106,6 +143,11 @@ public class CoreOutputManager implements OutputManager {
 
         debug.inspectMetric(DEBUG_ID, filtered);
 
+        if (buffer != null) {
+            buffer.sendMetric(filtered);
+            return;
+        }
+
         for (final PluginSink s : sinks)
             if (s.isReady())
                 s.sendMetric(filtered);
@@ -118,11 +160,33 @@ public class CoreOutputManager implements OutputManager {
         for (final PluginSink s : sinks)
             futures.add(s.start());
 
-        return async.collectAndDiscard(futures);
+        final AsyncFuture<Void> started = async.collectAndDiscard(futures);
+
+        if (buffer == null)
+            return started;
+
+        return started.lazyTransform(new LazyTransform<Void, Void>() {
+            @Override
+            public AsyncFuture<Void> transform(Void result) throws Exception {
+                return buffer.start();
+            }
+        });
     }
 
     @Override
     public AsyncFuture<Void> stop() {
+        if (buffer == null)
+            return stopSinks();
+
+        return buffer.stop().lazyTransform(new LazyTransform<Void, Void>() {
+            @Override
+            public AsyncFuture<Void> transform(Void result) throws Exception {
+                return stopSinks();
+            }
+        });
+    }
+
+    private AsyncFuture<Void> stopSinks() {
         final ArrayList<AsyncFuture<Void>> futures = Lists.newArrayList();
 
         for (final PluginSink s : sinks)
@@ -138,15 +202,16 @@ public class CoreOutputManager implements OutputManager {
         if (tags.isEmpty() && ttl == 0)
             return event;
 
-        final String host = event.getHost() != null ? event.getHost() : this.host;
-        final Map<String, String> merged_tags = Maps.newHashMap(tags);
-        merged_tags.putAll(event.getTags());
+        if (event.getHost() != null && event.getTime() != null && event.getTtl() != 0
+                && hasTags(event.getTags()))
+            return event;
 
+        final String host = event.getHost() != null ? event.getHost() : this.host;
         final Date time = event.getTime() != null ? event.getTime() : new Date();
         final Long ttl = event.getTtl() != 0 ? event.getTtl() : this.ttl;
 
         return new Event(event.getKey(), event.getValue(), time, ttl, event.getState(),
-                event.getDescription(), host, event.getRiemann_tags(), merged_tags);
+                event.getDescription(), host, event.getRiemann_tags(), mergeTags(event.getTags()));
     }
 
     /**
@@ -156,13 +221,72 @@ public class CoreOutputManager implements OutputManager {
         if (tags.isEmpty())
             return metric;
 
+        if (metric.getHost() != null && metric.hasTime() && hasTags(metric.getTags()))
+            return metric;
+
         final String host = metric.getHost() != null ? metric.getHost() : this.host;
+        final long time = metric.hasTime() ? metric.getTimestamp() : System.currentTimeMillis();
+        final Map<String, String> tags = mergeTags(metric.getTags());
+
+        if (!(metric.getTags() instanceof CompactTags) || !(tags instanceof CompactTags))
+            return new Metric(metric.getKey(), metric.getValue(), time, host, metric.getRiemann_tags(), tags,
+                    metric.getProc());
+
+        return new Metric(mergeSeries(metric, (CompactTags) tags), metric.getValue(), time, host, metric.getProc());
+    }
+
+    /**
+     * Get the interned series of the given metric with merged tags, which is looked up once per series.
+     */
+    private SeriesKey mergeSeries(final Metric metric, final CompactTags tags) {
+        final SeriesKey series = metric.getSeries();
+        final SeriesKey cached = mergedSeries.get(series);
+
+        if (cached != null)
+            return cached;
+
+        final SeriesKey merged = interner.series(metric.getKey(), metric.getRiemann_tags(), tags);
+        mergedSeries.put(series, merged);
+        return merged;
+    }
+
+    /**
+     * Check if the given tags already override all global tags, in which case merging would not change them.
+     */
+    private boolean hasTags(final Map<String, String> tags) {
+        if (tags.size() < this.tags.size())
+            return false;
+
+        for (final String key : this.tags.keySet()) {
+            if (!tags.containsKey(key))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Merge the given tags with the global tags.
+     *
+     * Interned series tags are merged once per series, other tags are merged into a view without copying either.
+     */
+    private Map<String, String> mergeTags(final Map<String, String> tags) {
+        if (tags.isEmpty())
+            return this.tags;
+
+        if (this.tags.isEmpty() || hasTags(tags))
+            return tags;
+
+        if (!(tags instanceof CompactTags))
+            return new MergedTags(this.tags, tags);
 
-        final Map<String, String> merged_tags = Maps.newHashMap(tags);
-        merged_tags.putAll(metric.getTags());
+        final CompactTags cached = mergedTags.get(tags);
 
-        final Date time = metric.getTime() != null ? metric.getTime() : new Date();
+        if (cached != null)
+            return cached;
 
-        return new Metric(metric.getKey(), metric.getValue(), time, host, metric.getRiemann_tags(), merged_tags, metric.getProc());
+        final CompactTags merged = interner.tags(new MergedTags(this.tags, tags));
+        mergedTags.put(tags, merged);
+        return merged;
     }
 }
@@ -0,0 +1,138 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.output;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only view of a set of tags layered on top of a set of base tags, where tags in the top layer take precedence.
+ *
+ * Avoids copying the base tags into a new map for every merge. Neither layer may be modified while the view is in
+ * use.
+ */
+class MergedTags extends AbstractMap<String, String> {
+    private final Map<String, String> base;
+    private final Map<String, String> top;
+
+    private final Set<Map.Entry<String, String>> entries = new Entries();
+
+    // lazily computed, since it requires a lookup for each base tag.
+    private int size = -1;
+
+    public MergedTags(final Map<String, String> base, final Map<String, String> top) {
+        this.base = base;
+        this.top = top;
+    }
+
+    @Override
+    public String get(final Object key) {
+        final String value = top.get(key);
+
+        if (value != null || top.containsKey(key))
+            return value;
+
+        return base.get(key);
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return top.containsKey(key) || base.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        if (size < 0) {
+            int size = top.size();
+
+            for (final String key : base.keySet()) {
+                if (!top.containsKey(key))
+                    size++;
+            }
+
+            this.size = size;
+        }
+
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return top.isEmpty() && base.isEmpty();
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return entries;
+    }
+
+    private class Entries extends AbstractSet<Map.Entry<String, String>> {
+        @Override
+        public int size() {
+            return MergedTags.this.size();
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, String>> iterator() {
+            return new Iterator<Map.Entry<String, String>>() {
+                private final Iterator<Map.Entry<String, String>> topIterator = top.entrySet().iterator();
+                private final Iterator<Map.Entry<String, String>> baseIterator = base.entrySet().iterator();
+
+                private Map.Entry<String, String> next = advance();
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Map.Entry<String, String> next() {
+                    if (next == null)
+                        throw new NoSuchElementException();
+
+                    final Map.Entry<String, String> current = next;
+                    next = advance();
+                    return current;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+
+                private Map.Entry<String, String> advance() {
+                    if (topIterator.hasNext())
+                        return topIterator.next();
+
+                    while (baseIterator.hasNext()) {
+                        final Map.Entry<String, String> e = baseIterator.next();
+
+                        // overridden by the top layer.
+                        if (!top.containsKey(e.getKey()))
+                            return e;
+                    }
+
+                    return null;
+                }
+            };
+        }
+    }
+}
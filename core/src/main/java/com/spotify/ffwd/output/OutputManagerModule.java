@@ -16,40 +16,57 @@
  **/
 package com.spotify.ffwd.output;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import lombok.Data;
+
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
 import com.google.common.collect.Lists;
+import com.google.inject.Inject;
 import com.google.inject.Key;
 import com.google.inject.Module;
 import com.google.inject.PrivateModule;
+import com.google.inject.Provider;
 import com.google.inject.Provides;
 import com.google.inject.Scopes;
 import com.google.inject.Singleton;
+import com.google.inject.multibindings.MapBinder;
 import com.google.inject.multibindings.Multibinder;
 import com.google.inject.name.Named;
 import com.google.inject.name.Names;
 import com.spotify.ffwd.AgentConfig;
 import com.spotify.ffwd.filter.Filter;
 import com.spotify.ffwd.filter.TrueFilter;
+import com.spotify.ffwd.qlog.Compression;
+import com.spotify.ffwd.qlog.QLogManager;
+import com.spotify.ffwd.qlog.QLogManagerImpl;
+import com.spotify.ffwd.qlog.SyncPolicy;
 import com.spotify.ffwd.statistics.CoreStatistics;
 import com.spotify.ffwd.statistics.OutputManagerStatistics;
 
+import eu.toolchain.async.AsyncFramework;
+
 public class OutputManagerModule {
     private final List<OutputPlugin> DEFAULT_PLUGINS = Lists.newArrayList();
 
     private final List<OutputPlugin> plugins;
     private final Filter filter;
+    private final Optional<QLog> qlog;
 
     @JsonCreator
-    public OutputManagerModule(@JsonProperty("plugins") List<OutputPlugin> plugins, @JsonProperty("filter") Filter filter) {
+    public OutputManagerModule(@JsonProperty("plugins") List<OutputPlugin> plugins, @JsonProperty("filter") Filter filter,
+            @JsonProperty("qlog") QLog qlog) {
         this.plugins = Optional.fromNullable(plugins).or(DEFAULT_PLUGINS);
         this.filter = Optional.fromNullable(filter).or(new TrueFilter());
+        this.qlog = Optional.fromNullable(qlog);
     }
 
     public Module module() {
@@ -99,10 +116,43 @@ public class OutputManagerModule {
                 expose(OutputManager.class);
 
                 bindPlugins();
+
+                if (qlog.isPresent())
+                    bindQLog(qlog.get());
+            }
+
+            private void bindQLog(final QLog config) {
+                bind(QLogSerialization.class).in(Scopes.SINGLETON);
+                bind(QLogOutputBuffer.class).toInstance(
+                        new QLogOutputBuffer(config.getReplayInterval(), config.getReplayBatchSize()));
+
+                bind(QLogManager.class).toProvider(new Provider<QLogManager>() {
+                    @Inject
+                    private AgentConfig agent;
+
+                    @Inject
+                    private AsyncFramework async;
+
+                    @Override
+                    public QLogManager get() {
+                        final Path path = agent.getQlog();
+
+                        try {
+                            Files.createDirectories(path);
+                        } catch (final IOException e) {
+                            throw new RuntimeException("Failed to create qlog directory: " + path, e);
+                        }
+
+                        final SyncPolicy sync = new SyncPolicy(config.getFsyncEntries(), config.getFsyncInterval());
+                        return new QLogManagerImpl(path, async, config.getMaxLogSize(), sync, config.getCompression());
+                    }
+                }).in(Scopes.SINGLETON);
             }
 
             private void bindPlugins() {
                 final Multibinder<PluginSink> sinks = Multibinder.newSetBinder(binder(), PluginSink.class);
+                final MapBinder<String, PluginSink> sinksById = MapBinder.newMapBinder(binder(), String.class,
+                        PluginSink.class);
 
                 int i = 0;
 
@@ -111,6 +161,7 @@ public class OutputManagerModule {
                     final Key<PluginSink> k = Key.get(PluginSink.class, Names.named(id));
                     install(p.module(k, id));
                     sinks.addBinding().to(k);
+                    sinksById.addBinding(id).to(k);
                 }
             }
         };
@@ -120,8 +171,52 @@ public class OutputManagerModule {
         return new Supplier<OutputManagerModule>() {
             @Override
             public OutputManagerModule get() {
-                return new OutputManagerModule(null, null);
+                return new OutputManagerModule(null, null, null);
             }
         };
     }
+
+    /**
+     * Configuration for buffering all output through the on-disk queue.
+     */
+    @Data
+    public static class QLog {
+        public static final long DEFAULT_REPLAY_INTERVAL = 1000;
+        public static final int DEFAULT_REPLAY_BATCH_SIZE = 1000;
+
+        private final int maxLogSize;
+        private final long replayInterval;
+        private final int replayBatchSize;
+        private final int fsyncEntries;
+        private final long fsyncInterval;
+        private final Compression compression;
+
+        @JsonCreator
+        public QLog(@JsonProperty("maxLogSize") Integer maxLogSize,
+                @JsonProperty("replayInterval") Long replayInterval,
+                @JsonProperty("replayBatchSize") Integer replayBatchSize,
+                @JsonProperty("fsyncEntries") Integer fsyncEntries, @JsonProperty("fsyncInterval") Long fsyncInterval,
+                @JsonProperty("compression") String compression) {
+            this.maxLogSize = Optional.fromNullable(maxLogSize).or(QLogManagerImpl.DEFAULT_MAX_LOG_SIZE);
+            this.replayInterval = Optional.fromNullable(replayInterval).or(DEFAULT_REPLAY_INTERVAL);
+            this.replayBatchSize = Optional.fromNullable(replayBatchSize).or(DEFAULT_REPLAY_BATCH_SIZE);
+            this.fsyncEntries = Optional.fromNullable(fsyncEntries).or(SyncPolicy.NONE.getEntries());
+            this.fsyncInterval = Optional.fromNullable(fsyncInterval).or(SyncPolicy.NONE.getInterval());
+            this.compression = parseCompression(compression);
+        }
+
+        private Compression parseCompression(String compression) {
+            if (compression == null)
+                return Compression.NONE;
+
+            compression = compression.toUpperCase();
+
+            for (final Compression c : Compression.values()) {
+                if (c.name().equals(compression))
+                    return c;
+            }
+
+            throw new IllegalArgumentException("Invalid compression: " + compression);
+        }
+    }
 }
@@ -0,0 +1,585 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.output;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+
+import com.google.common.base.Optional;
+import com.google.inject.Inject;
+import com.spotify.ffwd.model.Event;
+import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.qlog.QLogCursor;
+import com.spotify.ffwd.qlog.QLogManager;
+
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.FutureDone;
+import eu.toolchain.async.FutureFinished;
+import eu.toolchain.async.LazyTransform;
+import eu.toolchain.async.ResolvableFuture;
+import eu.toolchain.async.Transform;
+
+/**
+ * Write-ahead buffer that appends all metrics and events to the on-disk queue, and hands them to plugin sinks.
+ *
+ * Each sink is tracked by a consumer. As long as a sink is ready, entries are handed to it immediately, while they are
+ * appended to the queue by its group-commit writer. When a sink is not ready, its consumer falls behind and the
+ * entries are replayed from the queue once the sink becomes ready again.
+ * Replaying is at-least-once, entries in flight while a consumer switches between replaying and live might be
+ * delivered twice.
+ *
+ * The position of every consumer is registered with the queue at regular intervals, which allows the queue to trim
+ * segments that have been consumed by all sinks. If a sink can acknowledge what has been handed to it (see
+ * {@link AcknowledgingPluginSink}), the position of its consumer only moves forward once the sink has been flushed
+ * successfully. If the flush fails, the consumer falls behind to the last acknowledged position and the entries are
+ * replayed.
+ *
+ * @author udoprog
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class QLogOutputBuffer {
+    /**
+     * Marker position indicating that a consumer is live.
+     */
+    static final long LIVE = Long.MAX_VALUE;
+
+    @Inject
+    QLogManager qlog;
+
+    @Inject
+    Map<String, PluginSink> sinks;
+
+    @Inject
+    ScheduledExecutorService scheduler;
+
+    @Inject
+    AsyncFramework async;
+
+    @Inject
+    QLogSerialization serialization;
+
+    /**
+     * Interval in milliseconds at which lagging consumers are replayed, and positions are registered.
+     */
+    final long replayInterval;
+
+    /**
+     * Number of entries to read from the queue at a time while replaying.
+     */
+    final int replayBatchSize;
+
+    final List<Consumer> consumers = new ArrayList<>();
+
+    final AtomicReference<ScheduledFuture<?>> nextReplay = new AtomicReference<>();
+
+    /**
+     * Appends which have not been handed to all consumers yet, only tracked if any sink acknowledges entries.
+     */
+    final Set<AsyncFuture<Void>> appending = Collections.newSetFromMap(
+            new ConcurrentHashMap<AsyncFuture<Void>, Boolean>());
+
+    volatile boolean acknowledging = false;
+
+    volatile boolean started = false;
+
+    public void sendMetric(final Metric metric) {
+        if (!started) {
+            sendDirect(metric);
+            return;
+        }
+
+        append(metric, serialization.encode(metric));
+    }
+
+    public void sendEvent(final Event event) {
+        if (!started) {
+            sendDirect(event);
+            return;
+        }
+
+        append(event, serialization.encode(event));
+    }
+
+    public AsyncFuture<Void> start() {
+        for (final Map.Entry<String, PluginSink> e : sinks.entrySet()) {
+            consumers.add(new Consumer(e.getKey(), e.getValue()));
+            acknowledging |= e.getValue() instanceof AcknowledgingPluginSink;
+        }
+
+        return qlog.start().transform(new Transform<Void, Void>() {
+            @Override
+            public Void transform(Void result) throws Exception {
+                final long position = qlog.position();
+
+                for (final Consumer c : consumers) {
+                    final Optional<Long> last = qlog.position(c.id);
+
+                    if (last.isPresent() && last.get() < position) {
+                        log.info("{}: Replaying {} entries from {}", c.id, position - last.get(), last.get());
+                        c.replayFrom.set(last.get());
+                        c.acknowledged = last.get();
+                        continue;
+                    }
+
+                    c.acknowledged = position;
+                }
+
+                started = true;
+                scheduleNext();
+                return null;
+            }
+        });
+    }
+
+    public AsyncFuture<Void> stop() {
+        started = false;
+
+        final ScheduledFuture<?> next = nextReplay.getAndSet(null);
+
+        if (next != null)
+            next.cancel(false);
+
+        return acknowledge().lazyTransform(new LazyTransform<Void, Void>() {
+            @Override
+            public AsyncFuture<Void> transform(Void result) throws Exception {
+                update();
+                return qlog.stop();
+            }
+        });
+    }
+
+    /**
+     * Append the given entry to the queue, and hand it to all live consumers.
+     *
+     * The entry is appended by the group-commit writer of the queue, so that callers are not serialized on the queue.
+     * Consumers that are not live are handed the entry once its offset is known, which decides if they fall behind.
+     */
+    void append(final Object entry, final ByteBuffer encoded) {
+        List<Consumer> lagging = null;
+
+        for (final Consumer c : consumers) {
+            if (c.isLive()) {
+                c.send(entry);
+                continue;
+            }
+
+            if (lagging == null)
+                lagging = new ArrayList<>(consumers.size());
+
+            lagging.add(c);
+        }
+
+        final List<Consumer> deferred = lagging;
+
+        final ResolvableFuture<Void> appended;
+
+        // tracked before the entry is appended, so that it is known to anyone who observes its position.
+        if (acknowledging) {
+            appended = async.future();
+            appending.add(appended);
+        } else {
+            appended = null;
+        }
+
+        final AsyncFuture<Long> append = qlog.append(encoded, false);
+
+        append.on(new FutureDone<Long>() {
+            @Override
+            public void resolved(Long position) throws Exception {
+                if (deferred == null)
+                    return;
+
+                for (final Consumer c : deferred) {
+                    if (c.isLive(position - 1))
+                        c.send(entry);
+                }
+            }
+
+            @Override
+            public void failed(Throwable cause) throws Exception {
+                log.error("Failed to write entry to queue, sending directly", cause);
+
+                if (deferred == null)
+                    return;
+
+                for (final Consumer c : deferred)
+                    c.sendDirect(entry);
+            }
+
+            @Override
+            public void cancelled() throws Exception {
+            }
+        });
+
+        if (appended == null)
+            return;
+
+        append.on(new FutureFinished() {
+            @Override
+            public void finished() throws Exception {
+                appending.remove(appended);
+                appended.resolve(null);
+            }
+        });
+    }
+
+    /**
+     * Get a future that is resolved once all entries being appended have been handed to all consumers.
+     */
+    AsyncFuture<Void> appended() {
+        return async.collectAndDiscard(new ArrayList<>(appending));
+    }
+
+    void sendDirect(final Object entry) {
+        for (final Consumer c : consumers)
+            c.sendDirect(entry);
+    }
+
+    void scheduleNext() {
+        if (!started)
+            return;
+
+        final ScheduledFuture<?> next = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    replayAndCommit();
+                } catch (final Exception e) {
+                    log.error("Failed to replay queue", e);
+                }
+
+                scheduleNext();
+            }
+        }, replayInterval, TimeUnit.MILLISECONDS);
+
+        nextReplay.set(next);
+    }
+
+    void replayAndCommit() throws Exception {
+        for (final Consumer c : consumers)
+            c.replay();
+
+        commit();
+        qlog.trim();
+    }
+
+    /**
+     * Acknowledge what has been handed to all consumers, and register their positions with the queue.
+     *
+     * Positions which are acknowledged asynchronously are registered on the next commit.
+     */
+    void commit() {
+        acknowledge();
+        update();
+    }
+
+    /**
+     * Acknowledge everything that has been handed to all consumers.
+     *
+     * @return A future that is resolved when all consumers have been acknowledged, failed acknowledgements cause
+     *         consumers to fall behind and are not reported.
+     */
+    AsyncFuture<Void> acknowledge() {
+        final long position = qlog.position();
+        final List<AsyncFuture<Void>> futures = new ArrayList<>(consumers.size());
+
+        for (final Consumer c : consumers)
+            futures.add(c.acknowledge(position));
+
+        return async.collectAndDiscard(futures);
+    }
+
+    /**
+     * Register the acknowledged position of all consumers with the queue.
+     */
+    void update() {
+        for (final Consumer c : consumers)
+            qlog.update(c.id, c.acknowledged);
+    }
+
+    @ToString(of = { "id", "replayFrom" })
+    class Consumer {
+        final String id;
+        final PluginSink sink;
+
+        /**
+         * The position to replay from, or {@link #LIVE} if all entries have been handed to the sink.
+         */
+        final AtomicLong replayFrom = new AtomicLong(LIVE);
+
+        /**
+         * The position up until which all entries have been acknowledged by the sink.
+         */
+        volatile long acknowledged;
+
+        /**
+         * If the sink is currently being flushed to acknowledge entries.
+         */
+        final AtomicBoolean flushing = new AtomicBoolean();
+
+        /**
+         * Cursor of the last replay, only accessed by the replay task.
+         */
+        QLogCursor cursor;
+
+        Consumer(final String id, final PluginSink sink) {
+            this.id = id;
+            this.sink = sink;
+        }
+
+        /**
+         * Check if entries should be handed to the sink immediately.
+         */
+        boolean isLive() {
+            return replayFrom.get() == LIVE && sink.isReady();
+        }
+
+        /**
+         * Check if the entry at the given offset should be handed to the sink immediately.
+         *
+         * If not, the consumer will fall behind to the given offset, unless it is already behind it.
+         */
+        boolean isLive(final long offset) {
+            if (isLive())
+                return true;
+
+            fallBehind(offset);
+            return false;
+        }
+
+        /**
+         * Fall behind to the given offset, unless already behind it.
+         */
+        void fallBehind(final long offset) {
+            while (true) {
+                final long current = replayFrom.get();
+
+                if (current <= offset)
+                    return;
+
+                if (replayFrom.compareAndSet(current, offset))
+                    return;
+            }
+        }
+
+        void sendDirect(final Object entry) {
+            if (sink.isReady())
+                send(entry);
+        }
+
+        /**
+         * Get the position up until which all entries have been handed to the sink.
+         */
+        long committed(final long position) {
+            final long from = replayFrom.get();
+            return from == LIVE ? position : from;
+        }
+
+        /**
+         * Acknowledge all entries that have been handed to the sink.
+         *
+         * If the sink can not acknowledge entries, they are considered acknowledged as soon as they have been handed to
+         * it. Otherwise the sink is flushed, and the consumer falls behind to the last acknowledged position if the
+         * flush fails.
+         *
+         * @param position The current position of the queue.
+         * @return A future that is resolved when the acknowledgement has finished.
+         */
+        AsyncFuture<Void> acknowledge(final long position) {
+            if (!(sink instanceof AcknowledgingPluginSink)) {
+                acknowledged = committed(position);
+                return async.resolved();
+            }
+
+            // a previous flush is still in progress, entries will be acknowledged on the next attempt.
+            if (!flushing.compareAndSet(false, true))
+                return async.resolved();
+
+            final AcknowledgingPluginSink acknowledging = (AcknowledgingPluginSink) sink;
+
+            // entries before the given position might still be on their way to the sink.
+            final AsyncFuture<Long> flush = appended().lazyTransform(new LazyTransform<Void, Long>() {
+                @Override
+                public AsyncFuture<Long> transform(Void result) throws Exception {
+                    final long handed = committed(position);
+
+                    return acknowledging.flush().transform(new Transform<Void, Long>() {
+                        @Override
+                        public Long transform(Void result) throws Exception {
+                            return handed;
+                        }
+                    });
+                }
+            });
+
+            flush.on(new FutureDone<Long>() {
+                @Override
+                public void resolved(Long handed) throws Exception {
+                    acknowledged = Math.max(acknowledged, handed);
+                    flushing.set(false);
+                }
+
+                @Override
+                public void failed(Throwable cause) throws Exception {
+                    log.warn("{}: Failed to acknowledge entries, replaying from {}", id, acknowledged, cause);
+
+                    // entries handed to the sink before it failed might still be on their way to the queue.
+                    appended().on(new FutureFinished() {
+                        @Override
+                        public void finished() throws Exception {
+                            fallBehind(acknowledged);
+                            flushing.set(false);
+                        }
+                    });
+                }
+
+                @Override
+                public void cancelled() throws Exception {
+                    flushing.set(false);
+                }
+            });
+
+            return flush.transform(new Transform<Long, Void>() {
+                @Override
+                public Void transform(Long handed) throws Exception {
+                    return null;
+                }
+            }).catchFailed(new Transform<Throwable, Void>() {
+                @Override
+                public Void transform(Throwable cause) throws Exception {
+                    return null;
+                }
+            });
+        }
+
+        /**
+         * Replay entries until caught up with the queue, then switch to live.
+         */
+        void replay() throws Exception {
+            long from = replayFrom.get();
+
+            while (from != LIVE && sink.isReady()) {
+                final QLogCursor cursor;
+
+                try {
+                    cursor = cursor(from);
+                } catch (final IllegalArgumentException e) {
+                    log.error("{}: Position {} no longer available, dropping backlog", id, from, e);
+                    replayFrom.compareAndSet(from, LIVE);
+                    return;
+                }
+
+                final int sent = sendFrom(cursor, replayBatchSize);
+                final long next = cursor.position();
+
+                // position was lowered while we were replaying, start over from the new position.
+                if (!replayFrom.compareAndSet(from, next)) {
+                    from = replayFrom.get();
+                    continue;
+                }
+
+                from = next;
+
+                if (sent >= replayBatchSize)
+                    continue;
+
+                if (!replayFrom.compareAndSet(from, LIVE)) {
+                    from = replayFrom.get();
+                    continue;
+                }
+
+                // entries written between the last read and going live were not handed to the sink.
+                final long end = qlog.position();
+
+                while (cursor.position() < end) {
+                    if (sendFrom(cursor, (int) Math.min(end - cursor.position(), replayBatchSize)) == 0)
+                        break;
+                }
+
+                this.cursor = null;
+                log.info("{}: Caught up at {}", id, end);
+                return;
+            }
+        }
+
+        /**
+         * Get a cursor at the given position, re-using the cursor from the last replay if possible.
+         */
+        private QLogCursor cursor(final long from) throws IOException {
+            if (cursor == null || cursor.position() != from)
+                cursor = qlog.cursor(from);
+
+            return cursor;
+        }
+
+        private int sendFrom(final QLogCursor cursor, final int limit) throws IOException {
+            int sent = 0;
+
+            while (sent < limit) {
+                final ByteBuffer entry = cursor.next();
+
+                if (entry == null)
+                    break;
+
+                sent++;
+
+                final Object decoded;
+
+                try {
+                    decoded = serialization.decode(entry);
+                } catch (final IllegalArgumentException e) {
+                    log.error("{}: Skipping invalid entry", id, e);
+                    continue;
+                }
+
+                send(decoded);
+            }
+
+            return sent;
+        }
+
+        void send(final Object entry) {
+            if (entry instanceof Metric) {
+                sink.sendMetric((Metric) entry);
+                return;
+            }
+
+            if (entry instanceof Event) {
+                sink.sendEvent((Event) entry);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.output;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.spotify.ffwd.model.Event;
+import com.spotify.ffwd.model.Metric;
+
+/**
+ * Binary serialization of metrics and events, as they are stored in the on-disk queue.
+ *
+ * Strings are length-prefixed UTF-8, where a length of {@code -1} indicates a missing value.
+ *
+ * @author udoprog
+ */
+public class QLogSerialization {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte METRIC = 0;
+    private static final byte EVENT = 1;
+
+    private static final int INITIAL_SIZE = 256;
+
+    public ByteBuffer encode(final Metric metric) {
+        final Writer w = new Writer();
+
+        w.putByte(METRIC);
+        w.putString(metric.getKey());
+        w.putDouble(metric.getValue());
+        w.putTimestamp(metric.getTimestamp());
+        w.putString(metric.getHost());
+        w.putTags(metric.getRiemann_tags());
+        w.putAttributes(metric.getTags());
+        w.putString(metric.getProc());
+
+        return w.result();
+    }
+
+    public ByteBuffer encode(final Event event) {
+        final Writer w = new Writer();
+
+        w.putByte(EVENT);
+        w.putString(event.getKey());
+        w.putDouble(event.getValue());
+        w.putTime(event.getTime());
+        w.putLong(event.getTtl());
+        w.putString(event.getState());
+        w.putString(event.getDescription());
+        w.putString(event.getHost());
+        w.putTags(event.getRiemann_tags());
+        w.putAttributes(event.getTags());
+
+        return w.result();
+    }
+
+    /**
+     * Decode a single entry.
+     *
+     * @return A {@link Metric} or an {@link Event}.
+     * @throws IllegalArgumentException If the entry is not valid.
+     */
+    public Object decode(final ByteBuffer entry) {
+        final ByteBuffer b = entry.slice();
+
+        try {
+            final byte type = b.get();
+
+            if (type == METRIC)
+                return decodeMetric(b);
+
+            if (type == EVENT)
+                return decodeEvent(b);
+
+            throw new IllegalArgumentException("Invalid entry type: " + type);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Entry too short", e);
+        }
+    }
+
+    private Metric decodeMetric(final ByteBuffer b) {
+        final String key = getString(b);
+        final double value = b.getDouble();
+        final long time = getTimestamp(b);
+        final String host = getString(b);
+        final Set<String> riemann_tags = getTags(b);
+        final Map<String, String> tags = getAttributes(b);
+        final String proc = getString(b);
+
+        return new Metric(key, value, time, host, riemann_tags, tags, proc);
+    }
+
+    private Event decodeEvent(final ByteBuffer b) {
+        final String key = getString(b);
+        final double value = b.getDouble();
+        final Date time = getTime(b);
+        final long ttl = b.getLong();
+        final String state = getString(b);
+        final String description = getString(b);
+        final String host = getString(b);
+        final Set<String> riemann_tags = getTags(b);
+        final Map<String, String> tags = getAttributes(b);
+
+        return new Event(key, value, time, ttl, state, description, host, riemann_tags, tags);
+    }
+
+    private String getString(final ByteBuffer b) {
+        final int length = b.getInt();
+
+        if (length < 0)
+            return null;
+
+        if (length > b.remaining())
+            throw new IllegalArgumentException("String length out of bounds: " + length);
+
+        final byte[] bytes = new byte[length];
+        b.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private Date getTime(final ByteBuffer b) {
+        if (b.get() == 0)
+            return null;
+
+        return new Date(b.getLong());
+    }
+
+    private long getTimestamp(final ByteBuffer b) {
+        if (b.get() == 0)
+            return Metric.NO_TIME;
+
+        return b.getLong();
+    }
+
+    private Set<String> getTags(final ByteBuffer b) {
+        final int size = b.getInt();
+        final Set<String> tags = new HashSet<>(size);
+
+        for (int i = 0; i < size; i++)
+            tags.add(getString(b));
+
+        return tags;
+    }
+
+    private Map<String, String> getAttributes(final ByteBuffer b) {
+        final int size = b.getInt();
+        final Map<String, String> attributes = new HashMap<>(size);
+
+        for (int i = 0; i < size; i++)
+            attributes.put(getString(b), getString(b));
+
+        return attributes;
+    }
+
+    /**
+     * Growable buffer used while encoding.
+     */
+    private static class Writer {
+        private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_SIZE);
+
+        void putByte(final byte value) {
+            ensure(1).put(value);
+        }
+
+        void putDouble(final double value) {
+            ensure(8).putDouble(value);
+        }
+
+        void putLong(final long value) {
+            ensure(8).putLong(value);
+        }
+
+        void putTime(final Date time) {
+            if (time == null) {
+                putByte((byte) 0);
+                return;
+            }
+
+            putByte((byte) 1);
+            putLong(time.getTime());
+        }
+
+        void putTimestamp(final long timestamp) {
+            if (timestamp == Metric.NO_TIME) {
+                putByte((byte) 0);
+                return;
+            }
+
+            putByte((byte) 1);
+            putLong(timestamp);
+        }
+
+        void putString(final String value) {
+            if (value == null) {
+                ensure(4).putInt(-1);
+                return;
+            }
+
+            final byte[] bytes = value.getBytes(UTF8);
+            ensure(4 + bytes.length).putInt(bytes.length).put(bytes);
+        }
+
+        void putTags(final Set<String> tags) {
+            if (tags == null) {
+                ensure(4).putInt(0);
+                return;
+            }
+
+            ensure(4).putInt(tags.size());
+
+            for (final String tag : tags)
+                putString(tag);
+        }
+
+        void putAttributes(final Map<String, String> attributes) {
+            if (attributes == null) {
+                ensure(4).putInt(0);
+                return;
+            }
+
+            ensure(4).putInt(attributes.size());
+
+            for (final Map.Entry<String, String> e : attributes.entrySet()) {
+                putString(e.getKey());
+                putString(e.getValue());
+            }
+        }
+
+        ByteBuffer result() {
+            buffer.flip();
+            return buffer;
+        }
+
+        private ByteBuffer ensure(final int size) {
+            if (buffer.remaining() >= size)
+                return buffer;
+
+            final ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+            return buffer;
+        }
+    }
+}
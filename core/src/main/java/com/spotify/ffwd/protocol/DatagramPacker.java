@@ -0,0 +1,133 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.protocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.spotify.ffwd.statistics.OutputPluginStatistics;
+
+/**
+ * Packs encoded messages into as few datagrams as possible.
+ *
+ * Messages are appended to the current datagram until the next one would not fit, or until the channel is flushed. The
+ * messages are concatenated, so this is only suitable for clients with a self-delimiting encoding, like line-based
+ * protocols. Each message completes when the datagram it is part of has been written.
+ */
+public class DatagramPacker extends ChannelDuplexHandler {
+    private final int maxDatagramSize;
+    private final OutputPluginStatistics statistics;
+
+    private final List<ChannelPromise> promises = new ArrayList<>();
+    private ByteBuf datagram;
+
+    public DatagramPacker(int maxDatagramSize, OutputPluginStatistics statistics) {
+        this.maxDatagramSize = maxDatagramSize;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            ctx.write(msg, promise);
+            return;
+        }
+
+        final ByteBuf buf = (ByteBuf) msg;
+        final int size = buf.readableBytes();
+
+        if (size > maxDatagramSize) {
+            buf.release();
+            statistics.reportDroppedBySize(1);
+            promise.tryFailure(new IOException(String.format(
+                    "Message of %d bytes does not fit in a datagram of %d bytes", size, maxDatagramSize)));
+            return;
+        }
+
+        if (datagram != null && datagram.readableBytes() + size > maxDatagramSize)
+            writeDatagram(ctx);
+
+        if (datagram == null)
+            datagram = ctx.alloc().ioBuffer(maxDatagramSize);
+
+        try {
+            datagram.writeBytes(buf);
+        } finally {
+            buf.release();
+        }
+
+        promises.add(promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        if (datagram != null)
+            writeDatagram(ctx);
+
+        ctx.flush();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (datagram != null) {
+            datagram.release();
+            datagram = null;
+        }
+
+        final ClosedChannelException cause = new ClosedChannelException();
+
+        for (final ChannelPromise promise : promises)
+            promise.tryFailure(cause);
+
+        promises.clear();
+        ctx.fireChannelInactive();
+    }
+
+    private void writeDatagram(final ChannelHandlerContext ctx) {
+        final List<ChannelPromise> written = new ArrayList<>(promises);
+
+        final ByteBuf d = datagram;
+        datagram = null;
+        promises.clear();
+
+        ctx.write(d).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (future.isSuccess()) {
+                    for (final ChannelPromise promise : written)
+                        promise.trySuccess();
+
+                    return;
+                }
+
+                statistics.reportDropped(written.size());
+
+                for (final ChannelPromise promise : written)
+                    promise.tryFailure(future.cause());
+            }
+        });
+    }
+}
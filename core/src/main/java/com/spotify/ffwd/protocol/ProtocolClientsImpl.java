@@ -17,21 +17,35 @@
 package com.spotify.ffwd.protocol;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.Timer;
 
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+
 import org.slf4j.Logger;
 
+import com.google.common.base.Optional;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
+import com.spotify.ffwd.statistics.OutputPluginStatistics;
 
 import eu.toolchain.async.AsyncFramework;
 import eu.toolchain.async.AsyncFuture;
 
 public class ProtocolClientsImpl implements ProtocolClients {
+    public static final int DEFAULT_MTU = 1500;
+
+    private static final int IPV4_UDP_HEADER = 20 + 8;
+    private static final int IPV6_UDP_HEADER = 40 + 8;
+    private static final int MAX_DATAGRAM_SIZE = 65507;
+
     private final long TIMEOUT_BASE = 1;
 
     @Inject
@@ -46,18 +60,24 @@ public class ProtocolClientsImpl implements ProtocolClients {
 
     @Override
     public AsyncFuture<ProtocolConnection> connect(Logger log, Protocol protocol, ProtocolClient client,
-            RetryPolicy policy) {
+            RetryPolicy policy, OutputPluginStatistics statistics) {
+        return connect(log, protocol, client, policy, statistics, true);
+    }
+
+    @Override
+    public AsyncFuture<ProtocolConnection> connect(Logger log, Protocol protocol, ProtocolClient client,
+            RetryPolicy policy, OutputPluginStatistics statistics, boolean retryInFlight) {
         if (protocol.getType() == ProtocolType.UDP)
-            return connectUDP(protocol, client, policy);
+            return connectUDP(log, protocol, client, policy, statistics, retryInFlight);
 
         if (protocol.getType() == ProtocolType.TCP)
-            return connectTCP(log, protocol, client, policy);
+            return connectTCP(log, protocol, client, policy, retryInFlight);
 
         throw new IllegalArgumentException("Unsupported protocol: " + protocol);
     }
 
     private AsyncFuture<ProtocolConnection> connectTCP(Logger log, Protocol protocol, ProtocolClient client,
-            RetryPolicy policy) {
+            RetryPolicy policy, boolean retryInFlight) {
         final Bootstrap b = new Bootstrap();
 
         b.group(worker);
@@ -80,12 +100,65 @@ public class ProtocolClientsImpl implements ProtocolClients {
                     public String toString() {
                         return String.format("connect tcp://%s:%d", host, port);
                     }
-                });
+                }, retryInFlight);
 
         return async.resolved(connection);
     }
 
-    private AsyncFuture<ProtocolConnection> connectUDP(Protocol protocol, ProtocolClient client, RetryPolicy policy) {
-        return async.failed(new RuntimeException("not implemented"));
+    private AsyncFuture<ProtocolConnection> connectUDP(Logger log, Protocol protocol, final ProtocolClient client,
+            RetryPolicy policy, final OutputPluginStatistics statistics, boolean retryInFlight) {
+        final int maxDatagramSize;
+
+        try {
+            maxDatagramSize = maxDatagramSize(protocol);
+        } catch (final IllegalArgumentException e) {
+            return async.failed(e);
+        }
+
+        final Bootstrap b = new Bootstrap();
+
+        b.group(worker);
+        b.channel(NioDatagramChannel.class);
+        b.handler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) throws Exception {
+                // the packer is closest to the socket, so it receives messages after they have been encoded.
+                ch.pipeline().addLast(new DatagramPacker(maxDatagramSize, statistics), client.initializer());
+            }
+        });
+
+        final String host = protocol.getAddress().getHostString();
+        final int port = protocol.getAddress().getPort();
+
+        final ProtocolConnection connection = new RetryingProtocolConnection(async, timer, log, policy,
+                new ProtocolChannelSetup() {
+                    @Override
+                    public ChannelFuture setup() {
+                        return b.connect(host, port);
+                    }
+
+                    @Override
+                    public String toString() {
+                        return String.format("connect udp://%s:%d (max datagram size: %d)", host, port,
+                                maxDatagramSize);
+                    }
+                }, retryInFlight);
+
+        return async.resolved(connection);
+    }
+
+    /**
+     * Largest datagram payload that fits in the MTU of the protocol, after IP and UDP headers.
+     */
+    private int maxDatagramSize(Protocol protocol) {
+        final int mtu = Optional.fromNullable(protocol.getMtu()).or(DEFAULT_MTU);
+        final InetSocketAddress address = protocol.getAddress();
+
+        final int header = address.getAddress() instanceof Inet6Address ? IPV6_UDP_HEADER : IPV4_UDP_HEADER;
+
+        if (mtu <= header)
+            throw new IllegalArgumentException("MTU must be larger than " + header + ": " + mtu);
+
+        return Math.min(mtu - header, MAX_DATAGRAM_SIZE);
     }
 }
\ No newline at end of file
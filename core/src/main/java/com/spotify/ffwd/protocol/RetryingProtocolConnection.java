@@ -23,7 +23,10 @@ import io.netty.util.Timeout;
 import io.netty.util.Timer;
 import io.netty.util.TimerTask;
 
+import java.nio.channels.ClosedChannelException;
 import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -34,8 +37,21 @@ import org.slf4j.Logger;
 import eu.toolchain.async.AsyncFramework;
 import eu.toolchain.async.AsyncFuture;
 import eu.toolchain.async.ResolvableFuture;
+import lombok.Data;
 
+/**
+ * A connection that reconnects when the channel is lost.
+ *
+ * Batches that were in flight when the channel was closed, and that have therefore failed with a
+ * {@link ClosedChannelException}, are sent again once a new channel has been set up. Clients that only complete a
+ * write once it has been acknowledged by the remote end therefore get at-least-once delivery of batches.
+ *
+ * Members of a pool fail such batches right away instead, so that the pool can send them through another member
+ * rather than waiting for this one to reconnect.
+ */
 public class RetryingProtocolConnection implements ProtocolConnection {
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
     private final AtomicBoolean stopped = new AtomicBoolean(false);
     private final AtomicReference<Channel> channel = new AtomicReference<>();
     private final Object $lock = new Object();
@@ -45,16 +61,29 @@ public class RetryingProtocolConnection implements ProtocolConnection {
     private final Logger log;
     private final RetryPolicy policy;
     private final ProtocolChannelSetup action;
+    private final boolean retryInFlight;
 
     private final ResolvableFuture<ProtocolConnection> initialFuture;
 
+    // batches that are waiting for a new channel.
+    private final Queue<Retry> retries = new ConcurrentLinkedQueue<>();
+
     public RetryingProtocolConnection(AsyncFramework async, Timer timer, Logger log, RetryPolicy policy,
             ProtocolChannelSetup action) {
+        this(async, timer, log, policy, action, true);
+    }
+
+    /**
+     * @param retryInFlight If batches lost with the channel should be sent again once reconnected.
+     */
+    public RetryingProtocolConnection(AsyncFramework async, Timer timer, Logger log, RetryPolicy policy,
+            ProtocolChannelSetup action, boolean retryInFlight) {
         this.async = async;
         this.timer = timer;
         this.log = log;
         this.policy = policy;
         this.action = action;
+        this.retryInFlight = retryInFlight;
 
         this.initialFuture = async.<ProtocolConnection> future();
 
@@ -103,15 +132,20 @@ public class RetryingProtocolConnection implements ProtocolConnection {
                 return;
             }
 
+            channel.set(c);
+
             if (!initialFuture.isDone())
                 initialFuture.resolve(this);
-
-            channel.set(c);
         }
 
+        retryPending(c);
+
         c.closeFuture().addListener(new ChannelFutureListener() {
             @Override
             public void operationComplete(ChannelFuture future) throws Exception {
+                if (stopped.get())
+                    return;
+
                 log.info("Lost {}, retrying", action);
                 channel.set(null);
                 trySetup(0);
@@ -127,11 +161,13 @@ public class RetryingProtocolConnection implements ProtocolConnection {
             stopped.set(true);
 
             c = channel.getAndSet(null);
-
-            if (c == null)
-                return async.resolved(null);
         }
 
+        failPending();
+
+        if (c == null)
+            return async.resolved(null);
+
         final ResolvableFuture<Void> future = async.future();
 
         c.close().addListener(new ChannelFutureListener() {
@@ -172,19 +208,56 @@ public class RetryingProtocolConnection implements ProtocolConnection {
             return async.failed(new IllegalStateException("not connected"));
 
         final ResolvableFuture<Void> future = async.future();
+        write(c, new Retry(batch, future, 0));
+        return future;
+    }
 
-        c.writeAndFlush(batch).addListener(new ChannelFutureListener() {
+    private void write(final Channel c, final Retry retry) {
+        c.writeAndFlush(retry.getBatch()).addListener(new ChannelFutureListener() {
             @Override
             public void operationComplete(ChannelFuture f) throws Exception {
-                try {
-                    future.resolve(f.get());
-                } catch (ExecutionException e) {
-                    future.fail(e);
+                if (f.isSuccess()) {
+                    retry.getFuture().resolve(null);
+                    return;
+                }
+
+                if (!retryInFlight || !(f.cause() instanceof ClosedChannelException)
+                        || retry.getAttempt() >= DEFAULT_MAX_RETRIES) {
+                    retry.getFuture().fail(f.cause());
+                    return;
                 }
+
+                log.warn("Lost batch of {} in flight to {} (attempt: {}), retrying when reconnected",
+                        retry.getBatch().size(), action, retry.getAttempt() + 1);
+
+                retries.add(new Retry(retry.getBatch(), retry.getFuture(), retry.getAttempt() + 1));
+
+                if (stopped.get()) {
+                    failPending();
+                    return;
+                }
+
+                // might have reconnected before the batch was queued.
+                final Channel current = channel.get();
+
+                if (current != null && current.isActive())
+                    retryPending(current);
             }
         });
+    }
 
-        return future;
+    private void retryPending(final Channel c) {
+        Retry retry;
+
+        while ((retry = retries.poll()) != null)
+            write(c, retry);
+    }
+
+    private void failPending() {
+        Retry retry;
+
+        while ((retry = retries.poll()) != null)
+            retry.getFuture().fail(new IllegalStateException("connection stopped"));
     }
 
     @Override
@@ -203,4 +276,11 @@ public class RetryingProtocolConnection implements ProtocolConnection {
     public AsyncFuture<ProtocolConnection> getInitialFuture() {
         return initialFuture;
     }
+
+    @Data
+    private static class Retry {
+        private final Collection<? extends Object> batch;
+        private final ResolvableFuture<Void> future;
+        private final int attempt;
+    }
 }
@@ -0,0 +1,38 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.qlog;
+
+import java.io.IOException;
+
+/**
+ * Codec used to compress blocks of entries.
+ */
+interface BlockCodec {
+    public int maxCompressedLength(int length);
+
+    /**
+     * Compress the given source.
+     *
+     * @return The number of bytes written to the target.
+     */
+    public int compress(byte[] source, int length, byte[] target) throws IOException;
+
+    /**
+     * Decompress the given source into the target, which must be sized to the exact decompressed length.
+     */
+    public void decompress(byte[] source, int length, byte[] target) throws IOException;
+}
@@ -0,0 +1,62 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.qlog;
+
+/**
+ * Compression of entries in the on-disk log.
+ *
+ * Compressed segments group several entries into blocks, which are compressed as a whole.
+ */
+public enum Compression {
+    NONE(0), LZ4(1), SNAPPY(2);
+
+    private final int id;
+
+    private Compression(final int id) {
+        this.id = id;
+    }
+
+    /**
+     * Identifier stored in the header of compressed segments.
+     */
+    public int id() {
+        return id;
+    }
+
+    public static Compression fromId(final int id) {
+        for (final Compression c : values()) {
+            if (c.id == id)
+                return c;
+        }
+
+        throw new IllegalArgumentException("Unsupported compression: " + id);
+    }
+
+    /**
+     * Codec for compressed blocks, codecs are loaded lazily to avoid loading compression libraries unless used.
+     */
+    BlockCodec codec() {
+        switch (this) {
+        case LZ4:
+            return new Lz4BlockCodec();
+        case SNAPPY:
+            return new SnappyBlockCodec();
+        default:
+            throw new IllegalStateException("No codec for compression: " + this);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.qlog;
+
+import java.nio.ByteBuffer;
+
+/**
+ * CRC32C (Castagnoli) checksum, operating directly on buffers to avoid copying mapped entries.
+ *
+ * Uses a slicing-by-8 lookup table.
+ */
+final class Crc32c {
+    private static final int POLYNOMIAL = 0x82f63b78;
+
+    private static final int[][] TABLE = new int[8][256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+
+            for (int k = 0; k < 8; k++)
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+
+            TABLE[0][i] = crc;
+        }
+
+        for (int i = 0; i < 256; i++) {
+            for (int t = 1; t < 8; t++)
+                TABLE[t][i] = (TABLE[t - 1][i] >>> 8) ^ TABLE[0][TABLE[t - 1][i] & 0xff];
+        }
+    }
+
+    private Crc32c() {
+    }
+
+    /**
+     * Update the checksum with the four bytes of the given integer, in big-endian order.
+     */
+    public static int update(int crc, final int value) {
+        crc = ~crc;
+        crc = (crc >>> 8) ^ TABLE[0][(crc ^ (value >>> 24)) & 0xff];
+        crc = (crc >>> 8) ^ TABLE[0][(crc ^ (value >>> 16)) & 0xff];
+        crc = (crc >>> 8) ^ TABLE[0][(crc ^ (value >>> 8)) & 0xff];
+        crc = (crc >>> 8) ^ TABLE[0][(crc ^ value) & 0xff];
+        return ~crc;
+    }
+
+    /**
+     * Update the checksum with the remaining bytes of the given buffer, without modifying its position.
+     */
+    public static int update(int crc, final ByteBuffer buffer) {
+        crc = ~crc;
+
+        int i = buffer.position();
+        final int end = buffer.limit();
+
+        while (end - i >= 8) {
+            final int a = crc ^ ((buffer.get(i) & 0xff) | (buffer.get(i + 1) & 0xff) << 8
+                    | (buffer.get(i + 2) & 0xff) << 16 | (buffer.get(i + 3) & 0xff) << 24);
+            final int b = (buffer.get(i + 4) & 0xff) | (buffer.get(i + 5) & 0xff) << 8
+                    | (buffer.get(i + 6) & 0xff) << 16 | (buffer.get(i + 7) & 0xff) << 24;
+
+            crc = TABLE[7][a & 0xff] ^ TABLE[6][(a >>> 8) & 0xff] ^ TABLE[5][(a >>> 16) & 0xff]
+                    ^ TABLE[4][a >>> 24] ^ TABLE[3][b & 0xff] ^ TABLE[2][(b >>> 8) & 0xff]
+                    ^ TABLE[1][(b >>> 16) & 0xff] ^ TABLE[0][b >>> 24];
+
+            i += 8;
+        }
+
+        while (i < end)
+            crc = (crc >>> 8) ^ TABLE[0][(crc ^ buffer.get(i++)) & 0xff];
+
+        return ~crc;
+    }
+}
@@ -0,0 +1,59 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.qlog;
+
+import java.io.IOException;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+class Lz4BlockCodec implements BlockCodec {
+    private final LZ4Compressor compressor;
+    private final LZ4SafeDecompressor decompressor;
+
+    public Lz4BlockCodec() {
+        final LZ4Factory factory = LZ4Factory.fastestInstance();
+        this.compressor = factory.fastCompressor();
+        this.decompressor = factory.safeDecompressor();
+    }
+
+    @Override
+    public int maxCompressedLength(final int length) {
+        return compressor.maxCompressedLength(length);
+    }
+
+    @Override
+    public int compress(final byte[] source, final int length, final byte[] target) {
+        return compressor.compress(source, 0, length, target, 0, target.length);
+    }
+
+    @Override
+    public void decompress(final byte[] source, final int length, final byte[] target) throws IOException {
+        final int actual;
+
+        try {
+            actual = decompressor.decompress(source, 0, length, target, 0, target.length);
+        } catch (final LZ4Exception e) {
+            throw new IOException("corrupt block", e);
+        }
+
+        if (actual != target.length)
+            throw new IOException("corrupt block, expected " + target.length + " bytes but got " + actual);
+    }
+}
@@ -0,0 +1,109 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.qlog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+/**
+ * A segment file which is memory-mapped in its entirety.
+ *
+ * Segments are pre-allocated to their maximum size when opened, and truncated to the written size when closed. The
+ * position of the mapped buffer is the position at which the next entry will be written.
+ */
+@RequiredArgsConstructor
+@ToString(of = { "path" })
+class MappedSegment {
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Open, or create the given segment for writing.
+     *
+     * @param path Path of the segment.
+     * @param size Size to map, the segment will be mapped in its entirety if it is larger than this.
+     */
+    public static MappedSegment open(final Path path, final int size) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        final MappedByteBuffer buffer;
+
+        try {
+            final long actual = Math.max(channel.size(), size);
+
+            if (actual > Integer.MAX_VALUE)
+                throw new IOException("segment too large: " + path);
+
+            buffer = channel.map(MapMode.READ_WRITE, 0, actual);
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        return new MappedSegment(path, channel, buffer);
+    }
+
+    /**
+     * Map the given segment for reading.
+     *
+     * The mapping stays valid after the segment has been unlinked.
+     */
+    public static ByteBuffer map(final Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(MapMode.READ_ONLY, 0, channel.size()).asReadOnlyBuffer();
+        }
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Force all written entries to the storage device.
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    /**
+     * Force all written entries, and truncate the segment to the written size.
+     *
+     * The mapped buffer is still valid up to its current position after the segment has been closed.
+     */
+    public void close() throws IOException {
+        try {
+            buffer.force();
+            channel.truncate(buffer.position());
+        } finally {
+            channel.close();
+        }
+    }
+}
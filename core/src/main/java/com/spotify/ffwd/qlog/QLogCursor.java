@@ -0,0 +1,47 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.qlog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A cursor reading entries from the log, across segment boundaries.
+ *
+ * Entries are read-only slices of the memory-mapped segments, no data is copied. Slices stay valid after the segment
+ * they belong to has been trimmed.
+ *
+ * Cursors are not thread-safe.
+ */
+public interface QLogCursor {
+    /**
+     * The position of the next entry to read.
+     */
+    public long position();
+
+    /**
+     * Read the next entry.
+     *
+     * Once the cursor has caught up with the tail of the log, this returns {@code null}. It can be called again to read
+     * entries which have been written since.
+     *
+     * Segments which have been trimmed while the cursor was reading are skipped.
+     *
+     * @return The next entry, or {@code null} if no more entries are available.
+     */
+    public ByteBuffer next() throws IOException;
+}
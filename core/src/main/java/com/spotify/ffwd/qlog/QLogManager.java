@@ -18,12 +18,23 @@ package com.spotify.ffwd.qlog;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.google.common.base.Optional;
 
 import eu.toolchain.async.AsyncFuture;
 
 public interface QLogManager {
     public long position();
 
+    /**
+     * Get the last position registered for the given consumer.
+     *
+     * @param id Id of the consumer.
+     * @return The registered position, or absent if the consumer is not known.
+     */
+    public Optional<Long> position(String id);
+
     /**
      * Trim the head of the on-disk log (if necessary).
      *
@@ -33,8 +44,54 @@ public interface QLogManager {
 
     public void trim();
 
+    /**
+     * Write a single entry to the tail of the log.
+     *
+     * @param buffer The entry to write, its remaining bytes will be used as the entry.
+     * @return The position following the written entry.
+     */
     public long write(ByteBuffer buffer) throws IOException;
 
+    /**
+     * Append a single entry to the tail of the log, and make it durable.
+     *
+     * Concurrent appends are written and synced to disk in groups, which is considerably cheaper than syncing for each
+     * entry.
+     *
+     * @param buffer The entry to write, its remaining bytes will be used as the entry.
+     * @return A future resolved with the position following the written entry once it has been synced to disk.
+     */
+    public AsyncFuture<Long> append(ByteBuffer buffer);
+
+    /**
+     * Append a single entry to the tail of the log through the group-commit writer.
+     *
+     * @param buffer The entry to write, its remaining bytes will be used as the entry.
+     * @param durable If the entry should be synced to disk before the returned future is resolved, otherwise it is
+     *            synced according to the sync policy of the log.
+     * @return A future resolved with the position following the written entry.
+     */
+    public AsyncFuture<Long> append(ByteBuffer buffer, boolean durable);
+
+    /**
+     * Read entries starting at the given position.
+     *
+     * @param position The position to start reading at.
+     * @param limit The maximum number of entries to read.
+     * @return One read-only buffer for each read entry, or an empty list if no entries are available at the given
+     *         position.
+     * @throws IllegalArgumentException If the given position has been trimmed from the log, or is beyond its end.
+     */
+    public List<ByteBuffer> read(long position, int limit) throws IOException;
+
+    /**
+     * Open a cursor reading entries starting at the given position.
+     *
+     * @param position The position of the first entry to read.
+     * @throws IllegalArgumentException If the given position has been trimmed from the log, or is beyond its end.
+     */
+    public QLogCursor cursor(long position) throws IOException;
+
     public void update(String id, long position);
 
     public AsyncFuture<Void> start();
@@ -26,42 +26,71 @@ import java.nio.charset.Charset;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
 
 import lombok.RequiredArgsConstructor;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 
 import eu.toolchain.async.AsyncFramework;
 import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.ResolvableFuture;
 
 @Slf4j
 public class QLogManagerImpl implements QLogManager {
     private static final Charset UTF8 = Charset.forName("UTF-8");
     private static final int MINIMUM_MAX_LOG_SIZE = 10000;
-    private static final int DEFAULT_MAX_LOG_SIZE = 100000000;
+    public static final int DEFAULT_MAX_LOG_SIZE = 100000000;
     private static final String QLOG_FORMAT = "%016x";
     private static final String INDEX = "index";
 
     // 'FFLG'
     private static final byte[] MAGIC = new byte[] { 0x46, 0x46, 0x4c, 0x47 };
-    private static final int HEADER_BASE_SIZE = MAGIC.length + 8;
-    private static final int BUFFER_SIZE = 4096;
-    private static final int CURRENT_VERSION = 0;
+    // magic, version, and base offset.
+    private static final int HEADER_SIZE = MAGIC.length + 4 + 8;
+    private static final int CURRENT_VERSION = 1;
+    private static final int COMPRESSED_VERSION = 2;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("[0-9a-f]{16}");
+
+    // number of bytes between checkpoints in the sparse index of version 1 and 2 segments.
+    private static final int CHECKPOINT_INTERVAL = 1024 * 1024;
+    // number of uncompressed bytes after which a block is compressed and written.
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    // maximum number of entries appended by the writer thread for each sync.
+    private static final int MAX_GROUP_SIZE = 10000;
+    // maximum number of appends waiting for the writer thread before new appends are rejected.
+    private static final int MAX_PENDING_APPENDS = 100000;
 
     private final Path path;
     private final AsyncFramework async;
     private final int maxLogSize;
+    private final SyncPolicy sync;
+    private final Compression compression;
 
     private final Object $lock = new Object();
     private volatile boolean setup = false;
@@ -70,7 +99,22 @@ public class QLogManagerImpl implements QLogManager {
     private List<Header> headers;
     private Map<String, Long> offsets;
     private long position;
-    private ByteBuffer tail;
+    private MappedSegment tail;
+
+    // entries written since the tail was last synced, and when that happened.
+    private long unsynced;
+    private long lastSync;
+
+    // runs the group-commit writer, and syncs the tail at the interval of the sync policy.
+    private ScheduledExecutorService executor;
+    private Future<?> writer;
+
+    // appends waiting for the group-commit writer.
+    private final BlockingQueue<Append> appends = new LinkedBlockingQueue<>(MAX_PENDING_APPENDS);
+
+    // appends are offered under the read lock, and rejected once stopping has taken the write lock.
+    private final ReadWriteLock appendLock = new ReentrantReadWriteLock();
+    private boolean accepting = false;
 
     @Inject
     public QLogManagerImpl(@Named("path") final Path path, final AsyncFramework async) {
@@ -78,12 +122,23 @@ public class QLogManagerImpl implements QLogManager {
     }
 
     public QLogManagerImpl(final Path path, final AsyncFramework async, int maxLogSize) {
+        this(path, async, maxLogSize, SyncPolicy.NONE);
+    }
+
+    public QLogManagerImpl(final Path path, final AsyncFramework async, int maxLogSize, final SyncPolicy sync) {
+        this(path, async, maxLogSize, sync, Compression.NONE);
+    }
+
+    public QLogManagerImpl(final Path path, final AsyncFramework async, int maxLogSize, final SyncPolicy sync,
+            final Compression compression) {
         if (maxLogSize < MINIMUM_MAX_LOG_SIZE)
             throw new IllegalArgumentException("maxLogSize");
 
         this.path = path;
         this.async = async;
         this.maxLogSize = maxLogSize;
+        this.sync = sync;
+        this.compression = compression;
     }
 
     /**
@@ -120,6 +175,7 @@ public class QLogManagerImpl implements QLogManager {
 
                 try {
                     Files.delete(m.path());
+                    Files.deleteIfExists(SparseIndex.path(m.path()));
                 } catch (IOException e) {
                     log.error("Failed to unlink {}", m, e);
                 }
@@ -133,6 +189,13 @@ public class QLogManagerImpl implements QLogManager {
             throw new IllegalStateException("not setup");
 
         synchronized ($lock) {
+            try {
+                flushTail();
+            } catch (final IOException e) {
+                log.error("Failed to flush tail", e);
+            }
+
+            syncIfNeeded();
             trim(maxOffset());
         }
     }
@@ -147,6 +210,16 @@ public class QLogManagerImpl implements QLogManager {
         }
     }
 
+    @Override
+    public Optional<Long> position(String id) {
+        if (!setup)
+            throw new IllegalStateException("not setup");
+
+        synchronized ($lock) {
+            return Optional.fromNullable(offsets.get(id));
+        }
+    }
+
     /**
      * Return the current offset of the log.
      */
@@ -174,12 +247,95 @@ public class QLogManagerImpl implements QLogManager {
         if (!setup)
             throw new IllegalStateException("not setup");
 
+        // a zero size marks the end of written entries in a pre-allocated segment.
+        if (!input.hasRemaining())
+            throw new IllegalArgumentException("empty entry");
+
         synchronized ($lock) {
-            writeEntry(position++, input.asReadOnlyBuffer());
+            writeEntry(position, input.asReadOnlyBuffer());
+            position++;
+            unsynced++;
+            syncIfNeeded();
             return position;
         }
     }
 
+    /**
+     * Append a buffer through the group-commit writer.
+     *
+     * Appends from all callers are written in groups by a single writer thread, which syncs the tail segment once for
+     * each group.
+     */
+    @Override
+    public AsyncFuture<Long> append(final ByteBuffer input) {
+        return append(input, true);
+    }
+
+    @Override
+    public AsyncFuture<Long> append(final ByteBuffer input, final boolean durable) {
+        if (!input.hasRemaining())
+            return async.failed(new IllegalArgumentException("empty entry"));
+
+        final Append append = new Append(input.asReadOnlyBuffer(), durable, async.<Long> future());
+
+        final Lock lock = appendLock.readLock();
+
+        lock.lock();
+
+        try {
+            if (!accepting)
+                return async.failed(new IllegalStateException("not setup"));
+
+            if (!appends.offer(append))
+                return async.failed(new IllegalStateException("too many pending appends"));
+        } finally {
+            lock.unlock();
+        }
+
+        return append.future;
+    }
+
+    /**
+     * Read entries starting at the given position.
+     *
+     * Entries are read-only slices of the memory-mapped segments, they stay valid after the segment has been trimmed.
+     */
+    @Override
+    public List<ByteBuffer> read(final long position, final int limit) throws IOException {
+        final QLogCursor cursor = cursor(position);
+        final List<ByteBuffer> entries = new ArrayList<>();
+
+        while (entries.size() < limit) {
+            final ByteBuffer entry = cursor.next();
+
+            if (entry == null)
+                break;
+
+            entries.add(entry);
+        }
+
+        return entries;
+    }
+
+    @Override
+    public QLogCursor cursor(final long position) throws IOException {
+        if (!setup)
+            throw new IllegalStateException("not setup");
+
+        final Cursor cursor = new Cursor(position);
+
+        synchronized ($lock) {
+            if (position > this.position)
+                throw new IllegalArgumentException("position is beyond the end of the log: " + position);
+
+            // make all entries up until the current position readable.
+            flushTail();
+            cursor.open(findHeader(position));
+        }
+
+        return cursor;
+    }
+
     @Override
     public AsyncFuture<Void> start() {
         if (setup)
@@ -199,6 +355,7 @@ public class QLogManagerImpl implements QLogManager {
                     setup = true;
                 }
 
+                startExecutor();
                 return null;
             }
         });
@@ -212,6 +369,9 @@ public class QLogManagerImpl implements QLogManager {
         return async.call(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
+                // the writer needs the lock to write its last group.
+                stopExecutor();
+
                 synchronized ($lock) {
                     if (!setup)
                         return null;
@@ -225,6 +385,156 @@ public class QLogManagerImpl implements QLogManager {
         });
     }
 
+    private void startExecutor() {
+        final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder()
+                .setNameFormat("ffwd-qlog-%d").setDaemon(true).build());
+
+        this.writer = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        });
+
+        final long interval = sync.getInterval();
+
+        if (interval > 0) {
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        synchronized ($lock) {
+                            if (!setup)
+                                return;
+
+                            syncIfNeeded();
+                        }
+                    } catch (final Exception e) {
+                        // an exception would cancel all future syncs.
+                        log.error("Failed to sync tail", e);
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+
+        this.executor = executor;
+
+        final Lock lock = appendLock.writeLock();
+
+        lock.lock();
+
+        try {
+            accepting = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void stopExecutor() throws InterruptedException, ExecutionException {
+        final Lock lock = appendLock.writeLock();
+
+        lock.lock();
+
+        try {
+            if (!accepting)
+                return;
+
+            accepting = false;
+        } finally {
+            lock.unlock();
+        }
+
+        // no appends can be offered after this point, so the writer commits all of them before it stops.
+        appends.put(Append.STOP);
+        writer.get();
+
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        writer = null;
+        executor = null;
+    }
+
+    private void runWriter() {
+        final List<Append> group = new ArrayList<>();
+
+        while (true) {
+            group.clear();
+
+            try {
+                group.add(appends.take());
+            } catch (final InterruptedException e) {
+                log.error("Writer interrupted", e);
+                return;
+            }
+
+            appends.drainTo(group, MAX_GROUP_SIZE - 1);
+
+            final boolean stop = group.remove(Append.STOP);
+
+            if (!group.isEmpty())
+                commitGroup(group);
+
+            if (stop)
+                return;
+        }
+    }
+
+    /**
+     * Write a group of appends, sync them if any of them is durable, and resolve their futures.
+     */
+    private void commitGroup(final List<Append> group) {
+        try {
+            synchronized ($lock) {
+                boolean durable = false;
+
+                for (final Append a : group) {
+                    try {
+                        writeEntry(position, a.entry);
+                        position++;
+                        unsynced++;
+                        a.position = position;
+                        durable |= a.durable;
+                    } catch (final Exception e) {
+                        a.error = e;
+                    }
+                }
+
+                if (durable) {
+                    flushTail();
+                    forceTail();
+                    unsynced = 0;
+                    lastSync = System.currentTimeMillis();
+                } else {
+                    syncIfNeeded();
+                }
+            }
+        } catch (final Exception e) {
+            for (final Append a : group)
+                a.future.fail(e);
+
+            return;
+        }
+
+        for (final Append a : group) {
+            if (a.error != null) {
+                a.future.fail(a.error);
+                continue;
+            }
+
+            a.future.resolve(a.position);
+        }
+    }
+
+    /**
+     * Number of entries written since the tail was last synced.
+     */
+    long unsynced() {
+        synchronized ($lock) {
+            return unsynced;
+        }
+    }
+
     private long maxOffset() {
         long offset = position();
 
@@ -242,30 +552,116 @@ public class QLogManagerImpl implements QLogManager {
 
         final Header writeTo;
 
-        // expand the log with another on-disk entry.
-        if (tail.position() + input.remaining() > tail.capacity()) {
-            flush(header);
-            tail.rewind();
+        final int size = input.remaining();
 
-            writeTo = appendHeader(position);
+        // expand the log with another on-disk entry.
+        if (header.required(size, true) > tail.buffer().remaining()) {
+            final Header empty = newHeader(null, position);
 
-            if (tail.position() + input.remaining() > tail.capacity())
+            if (empty.required(size, false) > maxLogSize - empty.start())
                 throw new IOException("entry too large");
+
+            closeTail();
+            writeTo = appendHeader(position);
         } else {
             writeTo = header;
         }
 
-        writeTo.writeEntry(tail, input);
+        writeTo.writeEntry(position, tail.buffer(), input);
     }
 
-    private void stop0() throws IOException {
+    /**
+     * Write any entries buffered by the tail segment.
+     */
+    private void flushTail() throws IOException {
         final Header header = tail();
 
-        if (header == null)
-            throw new IllegalStateException("header");
+        if (header.hasPending())
+            header.flush(tail.buffer());
+    }
+
+    private void syncIfNeeded() {
+        final long now = System.currentTimeMillis();
+
+        if (!sync.shouldSync(unsynced, now - lastSync))
+            return;
+
+        try {
+            flushTail();
+        } catch (final IOException e) {
+            log.error("Failed to flush tail", e);
+        }
+
+        try {
+            forceTail();
+        } catch (final IOException e) {
+            log.error("Failed to persist checkpoints", e);
+        }
+
+        unsynced = 0;
+        lastSync = now;
+    }
+
+    /**
+     * Sync the tail segment, and persist the checkpoints which are covered by the sync.
+     */
+    private void forceTail() throws IOException {
+        tail.force();
+        tail().index().persist();
+    }
+
+    private void closeTail() throws IOException {
+        log.info("Closing: {}", tail.path());
+        flushTail();
+        // closing syncs the segment.
+        tail.close();
+        tail().index().persist();
+        tail().close();
+        unsynced = 0;
+        lastSync = System.currentTimeMillis();
+    }
+
+    /**
+     * Find the segment containing the given position.
+     *
+     * Segments are named after, and sorted by their base offset, which allows for a binary search.
+     *
+     * @throws IllegalArgumentException If the given position has been trimmed.
+     */
+    private Header findHeader(final long position) {
+        final int index = findHeaderIndex(position);
+
+        if (index < 0)
+            throw new IllegalArgumentException("position has been trimmed: " + position);
+
+        return headers.get(index);
+    }
+
+    /**
+     * Find the index of the last segment with a base offset less than or equal to the given position.
+     *
+     * @return The index of the segment, or {@code -1} if all segments have a greater base offset.
+     */
+    private int findHeaderIndex(final long position) {
+        int low = 0;
+        int high = headers.size() - 1;
+
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+
+            if (headers.get(mid).offset() <= position) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return high;
+    }
 
+    private void stop0() throws IOException {
         flushIndex();
-        flush(header);
+        closeTail();
     }
 
     private Map<String, Long> readIndex() throws IOException {
@@ -318,26 +714,6 @@ public class QLogManagerImpl implements QLogManager {
         }
     }
 
-    private void flush(final Header header) throws IOException {
-        final ByteBuffer source = tail.asReadOnlyBuffer();
-        source.flip();
-
-        log.info("Saving: {}", header.path());
-
-        final byte[] buffer = new byte[BUFFER_SIZE];
-
-        final ByteBuffer segment = ByteBuffer.allocate(12);
-
-        // copy tail buffer into file.
-        try (final OutputStream output = Files.newOutputStream(header.path())) {
-            while (source.remaining() > 0) {
-                int size = Math.min(BUFFER_SIZE, source.remaining());
-                source.get(buffer, 0, size);
-                output.write(buffer, 0, size);
-            }
-        }
-    }
-
     private Header tail() {
         if (headers.isEmpty())
             return null;
@@ -350,11 +726,13 @@ public class QLogManagerImpl implements QLogManager {
 
         this.offsets = readIndex();
 
+        this.unsynced = 0;
+        this.lastSync = System.currentTimeMillis();
+
         // initializing
         if (headers.isEmpty()) {
             log.info("initializing {}", path);
 
-            this.tail = ByteBuffer.allocate(maxLogSize);
             this.position = 0;
             this.headers = headers;
 
@@ -363,15 +741,26 @@ public class QLogManagerImpl implements QLogManager {
         }
 
         final Header header = headers.get(headers.size() - 1);
+        final long size = Files.size(header.path());
 
-        final ByteBuffer tail = readPath(header.path());
-        final ByteBuffer source = tail.asReadOnlyBuffer();
+        MappedSegment tail = MappedSegment.open(header.path(), maxLogSize);
 
-        source.flip();
+        if (tail.buffer().capacity() > maxLogSize)
+            log.warn("grew max to {} since tail file larger than maximum {}", tail.buffer().capacity(), maxLogSize);
 
-        final long position = countEntries(header, source);
+        // scan the mapped segment for the end of valid entries.
+        final ByteBuffer source = tail.buffer().duplicate();
+        final long position = recoverEntries(header, source);
 
-        tail.position(source.position());
+        tail.buffer().position(source.position());
+
+        // segment was not closed, truncate it at the first invalid entry to get rid of any partially written data.
+        if (source.position() < size) {
+            log.info("Truncating {} at {} (was {} bytes)", header.path(), source.position(), size);
+            tail.close();
+            tail = MappedSegment.open(header.path(), maxLogSize);
+            tail.buffer().position(source.position());
+        }
 
         this.tail = tail;
         this.position = header.offset() + position;
@@ -379,13 +768,16 @@ public class QLogManagerImpl implements QLogManager {
     }
 
     private List<Header> readAllHeaders() throws IOException {
-        final List<Header> headers = Lists.newLinkedList();
+        final List<Header> headers = new ArrayList<>();
 
         try (final DirectoryStream<Path> files = Files.newDirectoryStream(path)) {
             for (final Path f : files) {
                 final String name = f.getFileName().toString();
                 final Path abs = f.toAbsolutePath();
 
+                if (!SEGMENT_NAME.matcher(name).matches())
+                    continue;
+
                 log.info("Loading metadata from: {}", abs);
 
                 try (final InputStream input = Files.newInputStream(abs)) {
@@ -401,67 +793,73 @@ public class QLogManagerImpl implements QLogManager {
         return headers;
     }
 
-    private long countEntries(final Header header, final ByteBuffer source) {
-        long offset = 0;
+    /**
+     * Find the end of valid entries in the given segment.
+     *
+     * Checkpoints are only persisted once the segment has been synced up to them, so all entries preceding the last
+     * checkpoint are known to be valid. Entries are verified from the last checkpoint, since without a sync, pages of
+     * the segment might have reached the disk out of order.
+     *
+     * @return The number of valid entries in the segment, the source will be positioned after the last valid entry.
+     */
+    private long recoverEntries(final Header header, final ByteBuffer source) throws IOException {
+        final SparseIndex index = header.index();
 
-        // skip header
-        source.position(HEADER_BASE_SIZE + header.size());
+        int valid = index.size();
 
-        while (source.remaining() > 0) {
-            // break on corrupt entry.
-            if (header.read(source) == null)
-                break;
+        // checkpoints beyond the end of the mapped segment can not be seeked to.
+        while (valid > 0 && index.position(valid - 1) > source.limit())
+            valid--;
 
-            offset += 1;
+        if (valid < index.size()) {
+            log.warn("{}: Dropping {} invalid checkpoint(s)", header, index.size() - valid);
+            index.truncate(valid);
         }
 
-        return offset;
-    }
-
-    private ByteBuffer readPath(final Path path) throws IOException {
-        final long logSize = Files.size(path);
-
-        if (logSize > Integer.MAX_VALUE)
-            throw new IllegalStateException("file too large: " + path);
-
-        final int actual = Math.max((int) logSize, maxLogSize);
-
-        if (actual > maxLogSize)
-            log.warn("grew max to {} since tail file larger than maximum {}", actual, maxLogSize);
-
-        final ByteBuffer buffer = ByteBuffer.allocate(actual);
-
-        try (final InputStream input = Files.newInputStream(path)) {
-            final byte[] local = new byte[4096];
+        long offset = 0;
 
-            while (true) {
-                final int read = input.read(local);
+        if (valid > 0) {
+            source.position(index.position(valid - 1));
+            offset = index.offset(valid - 1) - header.offset();
+        } else {
+            source.position(header.start());
+        }
 
-                if (read <= 0)
-                    break;
+        final EntryReader reader = header.reader(source);
 
-                buffer.put(local, 0, read);
-            }
-        }
+        // break on corrupt, or partially written entry.
+        while (reader.next() != null)
+            offset += 1;
 
-        return buffer;
+        return offset;
     }
 
     private Header appendHeader(final long offset) throws IOException {
         final Path path = this.path.resolve(String.format(QLOG_FORMAT, offset)).toAbsolutePath();
 
-        if (tail.position() != 0)
+        final MappedSegment tail = MappedSegment.open(path, maxLogSize);
+        final ByteBuffer buffer = tail.buffer();
+
+        if (buffer.position() != 0)
             throw new IllegalStateException("tail should be in position zero");
 
-        final Header0 header0 = new Header0(path, offset);
+        final Header header = newHeader(path, offset);
+
+        buffer.put(MAGIC);
+        buffer.putInt(header.version());
+        header.write(buffer);
+
+        this.tail = tail;
+        headers.add(header);
 
-        tail.put(MAGIC);
-        tail.putInt(CURRENT_VERSION);
-        header0.write(tail);
+        return header;
+    }
 
-        headers.add(header0);
+    private Header newHeader(final Path path, final long offset) {
+        if (compression == Compression.NONE)
+            return new Header1(path, offset);
 
-        return header0;
+        return new Header2(path, offset, compression);
     }
 
     private Header readHeader(String name, Path path, InputStream source) throws IOException {
@@ -478,6 +876,12 @@ public class QLogManagerImpl implements QLogManager {
             if (version == 0)
                 return readHeader0(name, path, d);
 
+            if (version == 1)
+                return readHeader1(name, path, d);
+
+            if (version == 2)
+                return readHeader2(name, path, d);
+
             throw new IllegalStateException("Unsupported log version: " + version);
         }
     }
@@ -487,23 +891,221 @@ public class QLogManagerImpl implements QLogManager {
         return new Header0(path, offset);
     }
 
+    private Header readHeader1(String name, Path path, DataInput source) throws IOException {
+        final long offset = source.readLong();
+        return new Header1(path, offset);
+    }
+
+    private Header readHeader2(String name, Path path, DataInput source) throws IOException {
+        final long offset = source.readLong();
+        final Compression compression = Compression.fromId(source.readInt());
+        return new Header2(path, offset, compression);
+    }
+
+    /**
+     * Cursor reading entries across segments.
+     *
+     * Segments which are no longer the tail are read without holding the log lock. The tail segment is read up to the
+     * last written entry, which is checked under the lock whenever the cursor catches up with it.
+     */
+    @ToString(of = { "position", "header" })
+    private class Cursor implements QLogCursor {
+        private long position;
+
+        private Header header;
+        private ByteBuffer source;
+        private EntryReader reader;
+        // the tail segment the cursor is reading, or null if the segment is complete.
+        private MappedSegment segment;
+
+        private Cursor(final long position) {
+            this.position = position;
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public ByteBuffer next() throws IOException {
+            while (true) {
+                final ByteBuffer entry = reader.next();
+
+                if (entry != null) {
+                    position++;
+                    return entry.asReadOnlyBuffer();
+                }
+
+                synchronized ($lock) {
+                    if (segment != null) {
+                        final int written = segment.buffer().position();
+                        final boolean complete = segment != tail;
+
+                        if (source.limit() < written) {
+                            source.limit(written);
+
+                            if (complete)
+                                segment = null;
+
+                            continue;
+                        }
+
+                        if (!complete) {
+                            // entries buffered by the tail, make them readable.
+                            if (header.hasPending()) {
+                                header.flush(segment.buffer());
+                                continue;
+                            }
+
+                            // caught up with the tail.
+                            return null;
+                        }
+
+                        segment = null;
+                    }
+
+                    final int index = findHeaderIndex(header.offset()) + 1;
+
+                    if (index >= headers.size())
+                        return null;
+
+                    final Header next = headers.get(index);
+
+                    // skip to the next segment if this one ended prematurely.
+                    if (position < next.offset()) {
+                        log.warn("Segment {} ended at {}, skipping to {}", header, position, next.offset());
+                        position = next.offset();
+                    }
+
+                    open(next);
+                }
+            }
+        }
+
+        /**
+         * Open the given segment, and position the cursor at the current position within it.
+         */
+        private void open(final Header header) throws IOException {
+            final ByteBuffer source;
+
+            if (header == tail()) {
+                source = tail.buffer().asReadOnlyBuffer();
+                source.flip();
+                segment = tail;
+            } else {
+                source = MappedSegment.map(header.path());
+                segment = null;
+            }
+
+            final SparseIndex index = header.index();
+            final int checkpoint = index.floor(position);
+
+            long o = header.offset();
+            source.position(header.start());
+
+            // skip ahead using the sparse index, if possible.
+            if (checkpoint >= 0 && index.position(checkpoint) <= source.limit()) {
+                o = index.offset(checkpoint);
+                source.position(index.position(checkpoint));
+            }
+
+            final EntryReader reader = header.reader(source);
+
+            for (; o < position; o++) {
+                if (reader.next() == null)
+                    break;
+            }
+
+            this.header = header;
+            this.source = source;
+            this.reader = reader;
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static class Append {
+        private static final Append STOP = new Append(null, false, null);
+
+        private final ByteBuffer entry;
+        private final boolean durable;
+        private final ResolvableFuture<Long> future;
+
+        // assigned by the writer thread.
+        private long position;
+        private Throwable error;
+    }
+
     private static interface Header extends Comparable<Header> {
         public Path path();
 
         public long offset();
 
-        public int size();
+        /**
+         * Version of the segment format.
+         */
+        public int version();
+
+        /**
+         * Position of the first entry in the segment.
+         */
+        public int start();
+
+        /**
+         * Number of bytes which must be available in the segment to write an entry of the given size.
+         *
+         * @param size Size of the entry.
+         * @param pending If entries buffered by the segment should be accounted for.
+         */
+        public int required(int size, boolean pending);
+
+        /**
+         * Sparse index of the segment, loaded on first access.
+         */
+        public SparseIndex index() throws IOException;
+
+        /**
+         * Create a reader for the entries of the given segment source, starting at its current position.
+         */
+        public EntryReader reader(ByteBuffer source);
+
+        public void writeEntry(long offset, ByteBuffer buffer, ByteBuffer input) throws IOException;
+
+        /**
+         * If the segment has buffered entries which have not been written yet.
+         */
+        public boolean hasPending();
+
+        /**
+         * Write any buffered entries.
+         */
+        public void flush(ByteBuffer buffer) throws IOException;
 
-        public ByteBuffer read(ByteBuffer source);
+        public void write(ByteBuffer target);
 
-        public void writeEntry(ByteBuffer buffer, ByteBuffer input);
+        /**
+         * Release any resources used while the segment was the tail.
+         */
+        public void close() throws IOException;
+    }
 
-        public void write(ByteBuffer target);
+    private static interface EntryReader {
+        /**
+         * Read the next entry.
+         *
+         * @return The next entry, or {@code null} if no more valid entries are available.
+         */
+        public ByteBuffer next() throws IOException;
     }
 
+    /**
+     * Version 0 segment, each entry is prefixed with its length.
+     */
     @RequiredArgsConstructor
     @ToString(of = { "path", "offset" })
     private static class Header0 implements Header {
+        private static final int OVERHEAD = 4;
+
         private final Path path;
         private final long offset;
 
@@ -518,21 +1120,49 @@ public class QLogManagerImpl implements QLogManager {
         }
 
         @Override
-        public int size() {
-            return 4;
+        public int version() {
+            return 0;
+        }
+
+        @Override
+        public int start() {
+            return HEADER_SIZE;
+        }
+
+        @Override
+        public int required(final int size, final boolean pending) {
+            return OVERHEAD + size;
         }
 
         @Override
-        public ByteBuffer read(ByteBuffer source) {
+        public SparseIndex index() {
+            return SparseIndex.empty();
+        }
+
+        @Override
+        public EntryReader reader(final ByteBuffer source) {
+            return new EntryReader() {
+                @Override
+                public ByteBuffer next() {
+                    return read(source);
+                }
+            };
+        }
+
+        private ByteBuffer read(ByteBuffer source) {
             final ByteBuffer slice = source.slice();
 
             // buffer to short.
-            if (slice.remaining() < size())
+            if (slice.remaining() < OVERHEAD)
                 return null;
 
             // each entry prefixed with its length.
             final int size = slice.getInt();
 
+            // end of written entries in a pre-allocated segment.
+            if (size <= 0)
+                return null;
+
             final ByteBuffer result = slice.slice();
 
             if (result.remaining() < size)
@@ -541,24 +1171,403 @@ public class QLogManagerImpl implements QLogManager {
             result.limit(size);
 
             // update source position
-            source.position(source.position() + 4 + size);
+            source.position(source.position() + OVERHEAD + size);
             return result;
         }
 
         @Override
-        public void writeEntry(final ByteBuffer buffer, final ByteBuffer input) {
+        public void writeEntry(final long offset, final ByteBuffer buffer, final ByteBuffer input) {
             buffer.putInt(input.remaining());
             buffer.put(input);
         }
 
+        @Override
+        public boolean hasPending() {
+            return false;
+        }
+
+        @Override
+        public void flush(final ByteBuffer buffer) {
+        }
+
         @Override
         public void write(ByteBuffer target) {
             target.putLong(offset);
         }
 
+        @Override
+        public void close() {
+        }
+
         @Override
         public int compareTo(Header o) {
             return Long.compare(offset, o.offset());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Version 1 segment, each entry is prefixed with its length and a CRC32C checksum of the length and the entry.
+     *
+     * Every {@link #CHECKPOINT_INTERVAL} bytes, the offset and position of an entry is added to the sparse index of the
+     * segment.
+     */
+    @RequiredArgsConstructor
+    @ToString(of = { "path", "offset" })
+    private static class Header1 implements Header {
+        private static final int OVERHEAD = 8;
+
+        private final Path path;
+        private final long offset;
+
+        private SparseIndex index;
+        private int lastCheckpoint;
+
+        @Override
+        public Path path() {
+            return path;
+        }
+
+        @Override
+        public long offset() {
+            return offset;
+        }
+
+        @Override
+        public int version() {
+            return 1;
+        }
+
+        @Override
+        public int start() {
+            return HEADER_SIZE;
+        }
+
+        @Override
+        public int required(final int size, final boolean pending) {
+            return OVERHEAD + size;
+        }
+
+        @Override
+        public SparseIndex index() throws IOException {
+            if (index == null) {
+                index = SparseIndex.load(path);
+                lastCheckpoint = index.size() > 0 ? index.position(index.size() - 1) : start();
+            }
+
+            return index;
+        }
+
+        @Override
+        public EntryReader reader(final ByteBuffer source) {
+            return new EntryReader() {
+                @Override
+                public ByteBuffer next() {
+                    return read(source);
+                }
+            };
+        }
+
+        private ByteBuffer read(ByteBuffer source) {
+            final ByteBuffer slice = source.slice();
+
+            // buffer to short.
+            if (slice.remaining() < OVERHEAD)
+                return null;
+
+            final int size = slice.getInt();
+            final int crc = slice.getInt();
+
+            // end of written entries in a pre-allocated segment.
+            if (size <= 0)
+                return null;
+
+            final ByteBuffer result = slice.slice();
+
+            if (result.remaining() < size)
+                return null;
+
+            result.limit(size);
+
+            // corrupt, or partially written entry.
+            if (checksum(size, result) != crc)
+                return null;
+
+            // update source position
+            source.position(source.position() + OVERHEAD + size);
+            return result;
+        }
+
+        @Override
+        public void writeEntry(final long offset, final ByteBuffer buffer, final ByteBuffer input) throws IOException {
+            final SparseIndex index = index();
+
+            if (buffer.position() - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+                index.add(offset, buffer.position());
+                lastCheckpoint = buffer.position();
+            }
+
+            final int size = input.remaining();
+
+            buffer.putInt(size);
+            buffer.putInt(checksum(size, input));
+            buffer.put(input);
+        }
+
+        @Override
+        public boolean hasPending() {
+            return false;
+        }
+
+        @Override
+        public void flush(final ByteBuffer buffer) {
+        }
+
+        @Override
+        public void write(ByteBuffer target) {
+            target.putLong(offset);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (index != null)
+                index.close();
+        }
+
+        @Override
+        public int compareTo(Header o) {
+            return Long.compare(offset, o.offset());
+        }
+
+        private static int checksum(final int size, final ByteBuffer entry) {
+            return Crc32c.update(Crc32c.update(0, size), entry);
+        }
+    }
+
+    /**
+     * Version 2 segment, entries are grouped in compressed blocks.
+     *
+     * Entries are buffered in memory until a block of {@link #BLOCK_SIZE} bytes has been collected, or until the block
+     * is flushed. Each block is prefixed with the number of entries in it, its decompressed size, its compressed size,
+     * and a CRC32C checksum of these and the compressed block. Within a decompressed block, each entry is prefixed
+     * with its length.
+     *
+     * Every {@link #CHECKPOINT_INTERVAL} bytes, the offset and position of the first entry of a block is added to the
+     * sparse index of the segment.
+     */
+    @ToString(of = { "path", "offset", "compression" })
+    private static class Header2 implements Header {
+        private static final int BLOCK_OVERHEAD = 16;
+        private static final int ENTRY_OVERHEAD = 4;
+
+        private final Path path;
+        private final long offset;
+        private final Compression compression;
+        private final BlockCodec codec;
+
+        private SparseIndex index;
+        private int lastCheckpoint;
+
+        // block being collected.
+        private byte[] block = new byte[0];
+        private int blockSize = 0;
+        private int blockCount = 0;
+        private long blockOffset;
+
+        private byte[] compressed = new byte[0];
+
+        public Header2(final Path path, final long offset, final Compression compression) {
+            this.path = path;
+            this.offset = offset;
+            this.compression = compression;
+            this.codec = compression.codec();
+        }
+
+        @Override
+        public Path path() {
+            return path;
+        }
+
+        @Override
+        public long offset() {
+            return offset;
+        }
+
+        @Override
+        public int version() {
+            return COMPRESSED_VERSION;
+        }
+
+        @Override
+        public int start() {
+            return HEADER_SIZE + 4;
+        }
+
+        @Override
+        public int required(final int size, final boolean pending) {
+            final int raw = (pending ? blockSize : 0) + ENTRY_OVERHEAD + size;
+            return BLOCK_OVERHEAD + codec.maxCompressedLength(raw);
+        }
+
+        @Override
+        public SparseIndex index() throws IOException {
+            if (index == null) {
+                index = SparseIndex.load(path);
+                lastCheckpoint = index.size() > 0 ? index.position(index.size() - 1) : start();
+            }
+
+            return index;
+        }
+
+        @Override
+        public EntryReader reader(final ByteBuffer source) {
+            return new EntryReader() {
+                private ByteBuffer current;
+
+                @Override
+                public ByteBuffer next() throws IOException {
+                    while (current == null || !current.hasRemaining()) {
+                        current = readBlock(source);
+
+                        if (current == null)
+                            return null;
+                    }
+
+                    final int size = current.getInt();
+                    final ByteBuffer entry = current.slice();
+                    entry.limit(size);
+                    current.position(current.position() + size);
+                    return entry;
+                }
+            };
+        }
+
+        /**
+         * Read and decompress the next block of the given source.
+         *
+         * @return The decompressed block, or {@code null} if no more valid blocks are available.
+         */
+        private ByteBuffer readBlock(final ByteBuffer source) {
+            final ByteBuffer slice = source.slice();
+
+            // buffer to short.
+            if (slice.remaining() < BLOCK_OVERHEAD)
+                return null;
+
+            final int count = slice.getInt();
+            final int raw = slice.getInt();
+            final int size = slice.getInt();
+            final int crc = slice.getInt();
+
+            // end of written blocks in a pre-allocated segment.
+            if (count <= 0 || raw <= 0 || size <= 0)
+                return null;
+
+            final ByteBuffer data = slice.slice();
+
+            if (data.remaining() < size)
+                return null;
+
+            data.limit(size);
+
+            // corrupt, or partially written block.
+            if (checksum(count, raw, size, data) != crc)
+                return null;
+
+            final byte[] input = new byte[size];
+            data.get(input);
+
+            final byte[] output = new byte[raw];
+
+            try {
+                codec.decompress(input, size, output);
+            } catch (final IOException e) {
+                log.error("{}: Failed to decompress block", this, e);
+                return null;
+            }
+
+            source.position(source.position() + BLOCK_OVERHEAD + size);
+            return ByteBuffer.wrap(output).asReadOnlyBuffer();
+        }
+
+        @Override
+        public void writeEntry(final long offset, final ByteBuffer buffer, final ByteBuffer input) throws IOException {
+            final int size = input.remaining();
+
+            if (blockCount == 0)
+                blockOffset = offset;
+
+            final int required = blockSize + ENTRY_OVERHEAD + size;
+
+            if (required > block.length)
+                block = Arrays.copyOf(block, Math.max(required, Math.max(BLOCK_SIZE, block.length * 2)));
+
+            block[blockSize] = (byte) (size >>> 24);
+            block[blockSize + 1] = (byte) (size >>> 16);
+            block[blockSize + 2] = (byte) (size >>> 8);
+            block[blockSize + 3] = (byte) size;
+            input.get(block, blockSize + ENTRY_OVERHEAD, size);
+
+            blockSize = required;
+            blockCount++;
+
+            if (blockSize >= BLOCK_SIZE)
+                flush(buffer);
+        }
+
+        @Override
+        public boolean hasPending() {
+            return blockCount > 0;
+        }
+
+        @Override
+        public void flush(final ByteBuffer buffer) throws IOException {
+            if (blockCount == 0)
+                return;
+
+            final SparseIndex index = index();
+
+            if (buffer.position() - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+                index.add(blockOffset, buffer.position());
+                lastCheckpoint = buffer.position();
+            }
+
+            final int max = codec.maxCompressedLength(blockSize);
+
+            if (max > compressed.length)
+                compressed = new byte[max];
+
+            final int size = codec.compress(block, blockSize, compressed);
+            final ByteBuffer data = ByteBuffer.wrap(compressed, 0, size);
+
+            buffer.putInt(blockCount);
+            buffer.putInt(blockSize);
+            buffer.putInt(size);
+            buffer.putInt(checksum(blockCount, blockSize, size, data));
+            buffer.put(data);
+
+            blockSize = 0;
+            blockCount = 0;
+        }
+
+        @Override
+        public void write(ByteBuffer target) {
+            target.putLong(offset);
+            target.putInt(compression.id());
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (index != null)
+                index.close();
+        }
+
+        @Override
+        public int compareTo(Header o) {
+            return Long.compare(offset, o.offset());
+        }
+
+        private static int checksum(final int count, final int raw, final int size, final ByteBuffer data) {
+            return Crc32c.update(Crc32c.update(Crc32c.update(Crc32c.update(0, count), raw), size), data);
+        }
+    }
+}
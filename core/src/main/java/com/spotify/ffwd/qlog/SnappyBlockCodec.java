@@ -0,0 +1,41 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.qlog;
+
+import java.io.IOException;
+
+import org.xerial.snappy.Snappy;
+
+class SnappyBlockCodec implements BlockCodec {
+    @Override
+    public int maxCompressedLength(final int length) {
+        return Snappy.maxCompressedLength(length);
+    }
+
+    @Override
+    public int compress(final byte[] source, final int length, final byte[] target) throws IOException {
+        return Snappy.compress(source, 0, length, target, 0);
+    }
+
+    @Override
+    public void decompress(final byte[] source, final int length, final byte[] target) throws IOException {
+        if (Snappy.uncompressedLength(source, 0, length) != target.length)
+            throw new IOException("corrupt block, unexpected decompressed length");
+
+        Snappy.uncompress(source, 0, length, target, 0);
+    }
+}
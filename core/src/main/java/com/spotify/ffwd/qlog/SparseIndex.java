@@ -0,0 +1,211 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.qlog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import lombok.ToString;
+
+/**
+ * Sparse index of a segment, mapping the offsets of some entries to their position within the segment.
+ *
+ * The index is stored next to its segment, as a sequence of 12 byte records (8 byte offset, 4 byte position), which
+ * are only ever appended to while the segment is the tail.
+ *
+ * Checkpoints are added in memory as entries are written, but only persisted once the segment has been synced up to
+ * them, so every persisted checkpoint is known to be followed by synced entries.
+ */
+@ToString(of = { "path", "size" })
+class SparseIndex {
+    public static final String SUFFIX = ".idx";
+
+    private static final int RECORD_SIZE = 12;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final SparseIndex EMPTY = new SparseIndex(null);
+
+    private final Path path;
+
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    private int[] positions = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    // number of checkpoints written to the index file.
+    private int persisted = 0;
+
+    // open while checkpoints are being added.
+    private FileChannel output;
+
+    private SparseIndex(final Path path) {
+        this.path = path;
+    }
+
+    /**
+     * An index without checkpoints, which can not be added to.
+     */
+    public static SparseIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Path of the index belonging to the given segment.
+     */
+    public static Path path(final Path segment) {
+        return Paths.get(segment.toString() + SUFFIX);
+    }
+
+    /**
+     * Load the index belonging to the given segment, a missing index is empty.
+     *
+     * A trailing partial record is ignored.
+     */
+    public static SparseIndex load(final Path segment) throws IOException {
+        final SparseIndex index = new SparseIndex(path(segment));
+
+        if (!Files.isReadable(index.path))
+            return index;
+
+        final ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(index.path));
+
+        while (records.remaining() >= RECORD_SIZE)
+            index.append(records.getLong(), records.getInt());
+
+        index.persisted = index.size;
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long offset(final int index) {
+        return offsets[index];
+    }
+
+    public int position(final int index) {
+        return positions[index];
+    }
+
+    /**
+     * Find the last checkpoint with an offset less than or equal to the given offset.
+     *
+     * @return The index of the checkpoint, or {@code -1} if there is no such checkpoint.
+     */
+    public int floor(final long offset) {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+
+            if (offsets[mid] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return high;
+    }
+
+    /**
+     * Add a checkpoint, it will be appended to the index file on the next call to {@link #persist()}.
+     */
+    public void add(final long offset, final int position) {
+        if (path == null)
+            throw new IllegalStateException("index is read-only");
+
+        append(offset, position);
+    }
+
+    /**
+     * Append all checkpoints which have been added since the last call to the index file.
+     *
+     * Must only be called once the segment has been synced up to the added checkpoints.
+     */
+    public void persist() throws IOException {
+        if (persisted == size)
+            return;
+
+        if (output == null) {
+            output = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            output.position(persisted * RECORD_SIZE);
+        }
+
+        final ByteBuffer records = ByteBuffer.allocate((size - persisted) * RECORD_SIZE);
+
+        for (int i = persisted; i < size; i++) {
+            records.putLong(offsets[i]);
+            records.putInt(positions[i]);
+        }
+
+        records.flip();
+
+        while (records.remaining() > 0)
+            output.write(records);
+
+        persisted = size;
+    }
+
+    /**
+     * Drop all checkpoints following the given number of checkpoints, both in memory and in the index file.
+     */
+    public void truncate(final int size) throws IOException {
+        if (size >= this.size)
+            return;
+
+        this.size = size;
+
+        if (size >= persisted)
+            return;
+
+        persisted = size;
+
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(size * RECORD_SIZE);
+        }
+
+        if (output != null)
+            output.position(size * RECORD_SIZE);
+    }
+
+    public void close() throws IOException {
+        if (output == null)
+            return;
+
+        output.close();
+        output = null;
+    }
+
+    private void append(final long offset, final int position) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            positions = Arrays.copyOf(positions, size * 2);
+        }
+
+        offsets[size] = offset;
+        positions[size] = position;
+        size++;
+    }
+}
@@ -0,0 +1,71 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.qlog;
+
+import lombok.Data;
+
+/**
+ * Policy for when the tail segment should be forced to the storage device.
+ *
+ * Entries are always written to the page cache immediately, and will survive a crash of the process. A sync policy
+ * guards against losing entries when the operating system crashes.
+ */
+@Data
+public class SyncPolicy {
+    /**
+     * Never sync explicitly, leave it to the operating system.
+     */
+    public static final SyncPolicy NONE = new SyncPolicy(0, 0);
+
+    /**
+     * Number of entries after which to sync, {@code 0} disables.
+     */
+    private final int entries;
+
+    /**
+     * Interval in milliseconds after which to sync, {@code 0} disables.
+     */
+    private final long interval;
+
+    public static SyncPolicy everyWrite() {
+        return new SyncPolicy(1, 0);
+    }
+
+    public static SyncPolicy everyEntries(final int entries) {
+        return new SyncPolicy(entries, 0);
+    }
+
+    public static SyncPolicy everyInterval(final long interval) {
+        return new SyncPolicy(0, interval);
+    }
+
+    /**
+     * Check if the tail segment should be synced.
+     *
+     * @param unsynced Number of entries written since the last sync.
+     * @param elapsed Milliseconds elapsed since the last sync.
+     */
+    public boolean shouldSync(final long unsynced, final long elapsed) {
+        if (unsynced == 0)
+            return false;
+
+        if (entries > 0 && unsynced >= entries)
+            return true;
+
+        return interval > 0 && elapsed >= interval;
+    }
+}
@@ -16,66 +16,182 @@
  **/
 package com.spotify.ffwd.serializer;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.Map;
 
-import lombok.Data;
-
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import com.spotify.ffwd.model.Event;
 import com.spotify.ffwd.model.Metric;
 
+/**
+ * Serializes samples as version 1.0.0 of the Spotify JSON schema.
+ *
+ * Documents are written field by field with a streaming generator, into buffers that are reused by the same thread.
+ */
 @JsonTypeName("spotify100")
-public class Spotify100Serializer implements Serializer {
+public class Spotify100Serializer implements BatchSerializer {
     public static final String SCHEMA_VERSION = "1.0.0";
 
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    // do not keep buffers around that have grown larger than this.
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<Buffer> buffers = new ThreadLocal<Buffer>() {
+        @Override
+        protected Buffer initialValue() {
+            return new Buffer();
+        }
+    };
+
     @Inject
     @Named("application/json")
     private ObjectMapper mapper;
 
-    @Data
-    public static class Spotify100Metric {
-        private final String version = SCHEMA_VERSION;
-        private final String key;
-        private final String host;
-        private final Long time;
-        private final Map<String, String> attributes;
-        private final Double value;
-    }
-
-    @Data
-    public static class Spotify100Event {
-        private final String version = SCHEMA_VERSION;
-        private final String key;
-        private final String host;
-        private final Long time;
-        private final Map<String, String> attributes;
-        private final Double value;
-    }
-
     @JsonCreator
     public Spotify100Serializer() {
     }
 
     @Override
     public byte[] serialize(Event source) throws Exception {
-        final Spotify100Event e = new Spotify100Event(source.getKey(), source.getHost(), source.getTime().getTime(),
-                source.getTags(), source.getValue());
-        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        mapper.writeValue(outputStream, e);
-        return outputStream.toByteArray();
+        final Buffer buffer = buffer();
+
+        try (final JsonGenerator g = generator(buffer)) {
+            writeEvent(g, source);
+        }
+
+        return buffer.toByteArray();
     }
 
     @Override
     public byte[] serialize(Metric source) throws Exception {
-        final Spotify100Metric m = new Spotify100Metric(source.getKey(), source.getHost(), source.getTime().getTime(),
-                source.getTags(), source.getValue());
-        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        mapper.writeValue(outputStream, m);
-        return outputStream.toByteArray();
+        final Buffer buffer = buffer();
+
+        try (final JsonGenerator g = generator(buffer)) {
+            writeMetric(g, source);
+        }
+
+        return buffer.toByteArray();
+    }
+
+    @Override
+    public int[] serializeEvents(Collection<Event> events, ByteBuf buffer) throws Exception {
+        final int[] offsets = new int[events.size()];
+        final OutputStream out = new ByteBufOutputStream(buffer);
+
+        int i = 0;
+
+        for (final Event e : events) {
+            try (final JsonGenerator g = generator(out)) {
+                writeEvent(g, e);
+            }
+
+            offsets[i++] = buffer.writerIndex();
+        }
+
+        return offsets;
+    }
+
+    @Override
+    public int[] serializeMetrics(Collection<Metric> metrics, ByteBuf buffer) throws Exception {
+        final int[] offsets = new int[metrics.size()];
+        final OutputStream out = new ByteBufOutputStream(buffer);
+
+        int i = 0;
+
+        for (final Metric m : metrics) {
+            try (final JsonGenerator g = generator(out)) {
+                writeMetric(g, m);
+            }
+
+            offsets[i++] = buffer.writerIndex();
+        }
+
+        return offsets;
+    }
+
+    private void writeMetric(final JsonGenerator g, final Metric m) throws IOException {
+        g.writeStartObject();
+        g.writeStringField("version", SCHEMA_VERSION);
+        g.writeStringField("key", m.getKey());
+        g.writeStringField("host", m.getHost());
+
+        if (m.hasTime()) {
+            g.writeNumberField("time", m.getTimestamp());
+        } else {
+            g.writeNullField("time");
+        }
+
+        writeAttributes(g, m.getTags());
+        g.writeNumberField("value", m.getValue());
+        g.writeEndObject();
+    }
+
+    private void writeEvent(final JsonGenerator g, final Event e) throws IOException {
+        g.writeStartObject();
+        g.writeStringField("version", SCHEMA_VERSION);
+        g.writeStringField("key", e.getKey());
+        g.writeStringField("host", e.getHost());
+        g.writeNumberField("time", e.getTime().getTime());
+        writeAttributes(g, e.getTags());
+        g.writeNumberField("value", e.getValue());
+        g.writeEndObject();
+    }
+
+    private void writeAttributes(final JsonGenerator g, final Map<String, String> attributes) throws IOException {
+        if (attributes == null) {
+            g.writeNullField("attributes");
+            return;
+        }
+
+        g.writeObjectFieldStart("attributes");
+
+        for (final Map.Entry<String, String> e : attributes.entrySet())
+            g.writeStringField(e.getKey(), e.getValue());
+
+        g.writeEndObject();
+    }
+
+    private JsonGenerator generator(final OutputStream out) throws IOException {
+        final JsonFactory factory = mapper.getFactory();
+        final JsonGenerator g = factory.createGenerator(out);
+        g.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return g;
+    }
+
+    private Buffer buffer() {
+        Buffer buffer = buffers.get();
+
+        if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            buffer = new Buffer();
+            buffers.set(buffer);
+        }
+
+        buffer.reset();
+        return buffer;
+    }
+
+    /**
+     * Output stream that exposes its capacity, so that oversized buffers can be released.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        public Buffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        public int capacity() {
+            return buf.length;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,112 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.output;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Names;
+import com.spotify.ffwd.debug.DebugServer;
+import com.spotify.ffwd.debug.NoopDebugServer;
+import com.spotify.ffwd.filter.Filter;
+import com.spotify.ffwd.filter.TrueFilter;
+import com.spotify.ffwd.model.CompactTags;
+import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.model.MetricInterner;
+import com.spotify.ffwd.statistics.NoopCoreStatistics;
+import com.spotify.ffwd.statistics.OutputManagerStatistics;
+
+import eu.toolchain.async.AsyncFramework;
+
+public class CoreOutputManagerTest {
+    private final PluginSink sink = mock(PluginSink.class);
+    private final MetricInterner interner = new MetricInterner();
+
+    private CoreOutputManager manager;
+
+    @Before
+    public void setup() {
+        doReturn(true).when(sink).isReady();
+
+        manager = new CoreOutputManager();
+
+        Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(new TypeLiteral<List<PluginSink>>() {
+                }).toInstance(ImmutableList.of(sink));
+                bind(AsyncFramework.class).toInstance(mock(AsyncFramework.class));
+                bind(new TypeLiteral<Map<String, String>>() {
+                }).annotatedWith(Names.named("tags")).toInstance(ImmutableMap.of("site", "lon"));
+                bind(String.class).annotatedWith(Names.named("host")).toInstance("host");
+                bind(Long.class).annotatedWith(Names.named("ttl")).toInstance(0L);
+                bind(DebugServer.class).toInstance(new NoopDebugServer());
+                bind(OutputManagerStatistics.class).toInstance(NoopCoreStatistics.get().newOutputManager());
+                bind(Filter.class).toInstance(new TrueFilter());
+            }
+        }).injectMembers(manager);
+
+        manager.init();
+    }
+
+    /**
+     * All samples of a series should carry the same merged tags and series, so that sinks can cache per series
+     * encodings.
+     */
+    @Test
+    public void testMergedTagsArePerSeries() {
+        manager.sendMetric(metric(1.0d));
+        manager.sendMetric(metric(2.0d));
+
+        final ArgumentCaptor<Metric> sent = ArgumentCaptor.forClass(Metric.class);
+        verify(sink, times(2)).sendMetric(sent.capture());
+
+        final Metric first = sent.getAllValues().get(0);
+        final Metric second = sent.getAllValues().get(1);
+
+        assertEquals(ImmutableMap.of("site", "lon", "what", "cpu"), first.getTags());
+        assertTrue(first.getTags() instanceof CompactTags);
+        assertSame(first.getTags(), second.getTags());
+
+        // the series is shared as well, so that partitioners do not hash the tags of every sample.
+        assertSame(first.getSeries(), second.getSeries());
+        assertSame(first.getTags(), first.getSeries().getTags());
+    }
+
+    private Metric metric(final double value) {
+        return interner.metric("a", value, 1000L, "host", ImmutableSet.<String> of(), ImmutableMap.of("what", "cpu"),
+                null);
+    }
+}
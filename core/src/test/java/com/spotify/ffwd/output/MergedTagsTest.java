@@ -0,0 +1,65 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.output;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class MergedTagsTest {
+    private final Map<String, String> base = ImmutableMap.of("site", "lon", "role", "ffwd", "host", "a");
+    private final Map<String, String> top = ImmutableMap.of("role", "database", "what", "cpu");
+
+    @Test
+    public void testEqualsCopiedMerge() {
+        final Map<String, String> expected = new HashMap<>(base);
+        expected.putAll(top);
+
+        final MergedTags merged = new MergedTags(base, top);
+
+        assertEquals(expected, merged);
+        assertEquals(merged, expected);
+        assertEquals(expected.hashCode(), merged.hashCode());
+        assertEquals(4, merged.size());
+        assertEquals(4, merged.entrySet().size());
+    }
+
+    @Test
+    public void testLookup() {
+        final MergedTags merged = new MergedTags(base, top);
+
+        assertEquals("database", merged.get("role"));
+        assertEquals("lon", merged.get("site"));
+        assertEquals("cpu", merged.get("what"));
+        assertNull(merged.get("missing"));
+        assertTrue(merged.containsKey("site"));
+        assertFalse(merged.containsKey("missing"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnly() {
+        new MergedTags(base, top).put("foo", "bar");
+    }
+}
@@ -0,0 +1,188 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.output;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.qlog.QLogManagerImpl;
+import com.spotify.ffwd.statistics.NoopCoreStatistics;
+
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.TinyAsync;
+
+public class QLogOutputBufferTest {
+    private static final long TIMEOUT = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private final PluginSink live = mock(PluginSink.class);
+    private final PluginSink lagging = mock(PluginSink.class);
+    private final BatchedPluginSink downstream = mock(BatchedPluginSink.class);
+
+    private AsyncFramework async;
+
+    private QLogOutputBuffer buffer;
+
+    @Before
+    public void setup() throws Exception {
+        async = TinyAsync.builder().executor(executor).build();
+
+        doReturn(true).when(live).isReady();
+        doReturn(false).when(lagging).isReady();
+        doReturn(true).when(downstream).isReady();
+        doReturn(async.resolved()).when(downstream).sendMetrics(anyCollectionOf(Metric.class));
+
+        // flushed by the buffer when acknowledging entries.
+        final FlushingPluginSink flushing = new FlushingPluginSink(0, 0, 0);
+        flushing.sink = downstream;
+        flushing.async = async;
+        flushing.scheduler = scheduler;
+        flushing.log = LoggerFactory.getLogger(FlushingPluginSink.class);
+        flushing.statistics = NoopCoreStatistics.get().newOutputPlugin("flushing");
+
+        // replaying is driven by the test.
+        buffer = new QLogOutputBuffer(TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS), 100);
+        buffer.qlog = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 1024);
+        buffer.sinks = ImmutableMap.of("live", live, "lagging", lagging, "flushing", flushing);
+        buffer.scheduler = scheduler;
+        buffer.async = async;
+        buffer.serialization = new QLogSerialization();
+
+        buffer.start().get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        buffer.stop().get(TIMEOUT, TimeUnit.SECONDS);
+        scheduler.shutdown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testReplayLagging() throws Exception {
+        for (int i = 0; i < 3; i++)
+            buffer.sendMetric(metric(i));
+
+        // live sinks do not wait for the entries to be appended.
+        verify(live, times(3)).sendMetric(any(Metric.class));
+
+        awaitBehind("lagging", 0);
+        verify(lagging, never()).sendMetric(any(Metric.class));
+
+        doReturn(true).when(lagging).isReady();
+        buffer.replayAndCommit();
+
+        verify(lagging, times(3)).sendMetric(any(Metric.class));
+        verify(live, times(3)).sendMetric(any(Metric.class));
+        assertEquals(3, buffer.qlog.position("lagging").get().longValue());
+    }
+
+    @Test
+    public void testReplayFailedFlush() throws Exception {
+        doReturn(async.failed(new RuntimeException("outage"))).when(downstream).sendMetrics(
+                anyCollectionOf(Metric.class));
+
+        for (int i = 0; i < 3; i++)
+            buffer.sendMetric(metric(i));
+
+        // the sink is still ready, but nothing it was handed has been acknowledged.
+        buffer.replayAndCommit();
+        awaitBehind("flushing", 0);
+        assertEquals(0, buffer.qlog.position("flushing").get().longValue());
+
+        doReturn(async.resolved()).when(downstream).sendMetrics(anyCollectionOf(Metric.class));
+
+        buffer.replayAndCommit();
+        awaitCommitted("flushing", 3);
+
+        // three sent live, then replayed once acknowledging them failed.
+        verify(downstream, times(2)).sendMetrics(anyCollectionOf(Metric.class));
+    }
+
+    /**
+     * Wait for the given consumer to fall behind to the given position, which happens once entries are appended.
+     */
+    private void awaitBehind(final String id, final long position) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.NANOSECONDS.convert(TIMEOUT, TimeUnit.SECONDS);
+
+        while (replayFrom(id) != position) {
+            if (System.nanoTime() > deadline)
+                throw new AssertionError(id + " did not fall behind");
+
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Wait for the given consumer to commit the given position, which happens once its sink has been flushed.
+     */
+    private void awaitCommitted(final String id, final long position) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.NANOSECONDS.convert(TIMEOUT, TimeUnit.SECONDS);
+
+        while (true) {
+            buffer.commit();
+
+            if (buffer.qlog.position(id).get() == position)
+                return;
+
+            if (System.nanoTime() > deadline)
+                throw new AssertionError(id + " did not commit");
+
+            Thread.sleep(10);
+        }
+    }
+
+    private long replayFrom(final String id) {
+        for (final QLogOutputBuffer.Consumer c : buffer.consumers) {
+            if (c.id.equals(id))
+                return c.replayFrom.get();
+        }
+
+        throw new IllegalArgumentException(id);
+    }
+
+    private Metric metric(int i) {
+        return new Metric("key", i, 1000L + i, "host", ImmutableSet.<String> of(), ImmutableMap.<String, String> of(),
+                null);
+    }
+}
@@ -0,0 +1,67 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.output;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.spotify.ffwd.model.Event;
+import com.spotify.ffwd.model.Metric;
+
+public class QLogSerializationTest {
+    private final QLogSerialization serialization = new QLogSerialization();
+
+    private final Set<String> riemannTags = ImmutableSet.of("a", "b");
+    private final Map<String, String> tags = ImmutableMap.of("foo", "bar", "baz", "");
+
+    @Test
+    public void testMetricRoundtrip() {
+        final Metric metric = new Metric("key", 42.0d, new Date(1000), "host", riemannTags, tags, "proc");
+        final Metric decoded = (Metric) serialization.decode(serialization.encode(metric));
+
+        assertEquals(metric, decoded);
+        assertEquals(metric.getValue(), decoded.getValue(), 0.0d);
+        assertEquals(metric.getTime(), decoded.getTime());
+        assertEquals(metric.getHost(), decoded.getHost());
+        assertEquals(metric.getProc(), decoded.getProc());
+    }
+
+    @Test
+    public void testEventRoundtrip() {
+        final Event event = new Event("key", 42.0d, null, 10L, "ok", null, "host", riemannTags, tags);
+        final Event decoded = (Event) serialization.decode(serialization.encode(event));
+
+        assertEquals(event, decoded);
+        assertEquals(event.getTime(), decoded.getTime());
+        assertEquals(event.getTtl(), decoded.getTtl());
+        assertEquals(event.getState(), decoded.getState());
+        assertEquals(event.getDescription(), decoded.getDescription());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidType() {
+        serialization.decode(ByteBuffer.wrap(new byte[] { 0x7f }));
+    }
+}
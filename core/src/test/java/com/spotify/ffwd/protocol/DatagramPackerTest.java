@@ -0,0 +1,122 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.spotify.ffwd.statistics.OutputPluginStatistics;
+
+public class DatagramPackerTest {
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final AtomicInteger droppedBySize = new AtomicInteger();
+
+    private final OutputPluginStatistics statistics = new OutputPluginStatistics() {
+        @Override
+        public void reportDropped(int d) {
+            dropped.addAndGet(d);
+        }
+
+        @Override
+        public void reportDroppedByOverflow(int d) {
+        }
+
+        @Override
+        public void reportDroppedBySize(int d) {
+            droppedBySize.addAndGet(d);
+        }
+    };
+
+    @Test
+    public void testPack() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(new DatagramPacker(8, statistics));
+
+        final ChannelFuture a = channel.write(message("aaa\n"));
+        final ChannelFuture b = channel.write(message("bbb\n"));
+        final ChannelFuture c = channel.write(message("cc\n"));
+
+        // the first datagram is written when it is full, but nothing is sent before the flush.
+        assertNull(channel.readOutbound());
+
+        channel.flush();
+
+        assertDatagram("aaa\nbbb\n", channel.readOutbound());
+        assertDatagram("cc\n", channel.readOutbound());
+        assertNull(channel.readOutbound());
+
+        assertTrue(a.isSuccess());
+        assertTrue(b.isSuccess());
+        assertTrue(c.isSuccess());
+    }
+
+    @Test
+    public void testOversized() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(new DatagramPacker(8, statistics));
+
+        final ChannelFuture a = channel.write(message("aaaaaaaaa\n"));
+        final ChannelFuture b = channel.write(message("b\n"));
+        channel.flush();
+
+        assertFalse(a.isSuccess());
+        assertTrue(a.cause() instanceof IOException);
+        assertTrue(b.isSuccess());
+        assertEquals(1, droppedBySize.get());
+        assertEquals(0, dropped.get());
+
+        assertDatagram("b\n", channel.readOutbound());
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void testClosed() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(new DatagramPacker(8, statistics));
+
+        final ChannelFuture a = channel.write(message("a\n"));
+        channel.close();
+
+        assertFalse(a.isSuccess());
+        assertNull(channel.readOutbound());
+    }
+
+    private ByteBuf message(String value) {
+        return Unpooled.copiedBuffer(value, StandardCharsets.UTF_8);
+    }
+
+    private void assertDatagram(String expected, Object outbound) {
+        assertTrue(outbound instanceof ByteBuf);
+
+        final ByteBuf datagram = (ByteBuf) outbound;
+
+        try {
+            assertEquals(expected, datagram.toString(StandardCharsets.UTF_8));
+        } finally {
+            datagram.release();
+        }
+    }
+}
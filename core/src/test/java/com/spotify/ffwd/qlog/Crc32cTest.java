@@ -0,0 +1,58 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.qlog;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class Crc32cTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testCheckValue() {
+        final ByteBuffer input = ByteBuffer.wrap("123456789".getBytes(UTF8));
+        assertEquals(0xe3069283, Crc32c.update(0, input));
+        assertEquals(0, input.position());
+    }
+
+    @Test
+    public void testIncremental() {
+        final ByteBuffer input = ByteBuffer.wrap("0123456789abcdefghijklmnopqrstuvwxyz".getBytes(UTF8));
+        final int expected = Crc32c.update(0, input);
+
+        final ByteBuffer head = input.duplicate();
+        head.limit(13);
+
+        final ByteBuffer rest = input.duplicate();
+        rest.position(13);
+
+        assertEquals(expected, Crc32c.update(Crc32c.update(0, head), rest));
+    }
+
+    @Test
+    public void testInt() {
+        final ByteBuffer input = ByteBuffer.allocate(4);
+        input.putInt(0x12345678);
+        input.flip();
+
+        assertEquals(Crc32c.update(0, input), Crc32c.update(0, 0x12345678));
+    }
+}
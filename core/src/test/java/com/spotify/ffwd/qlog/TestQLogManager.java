@@ -16,20 +16,44 @@
  **/
 package com.spotify.ffwd.qlog;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
 import eu.toolchain.async.TinyAsync;
 
 public class TestQLogManager {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     @Ignore
     public void testBasic() throws InterruptedException, ExecutionException, IOException {
@@ -60,4 +84,555 @@ public class TestQLogManager {
 
         executor.shutdown();
     }
+
+    @Test
+    public void testRead() throws InterruptedException, ExecutionException, IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(1);
+        final AsyncFramework async = TinyAsync.builder().executor(executor).build();
+
+        final QLogManager log = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 10);
+
+        log.start().get();
+
+        final long start = log.position();
+
+        // spans multiple segments.
+        for (int i = 0; i < 1000; i++)
+            assertEquals(start + i + 1, log.write(entry(i)));
+
+        final List<ByteBuffer> entries = log.read(start + 250, 500);
+        assertEquals(500, entries.size());
+
+        for (int i = 0; i < entries.size(); i++)
+            assertEquals(250 + i, entries.get(i).getInt());
+
+        assertEquals(10, log.read(start + 990, 100).size());
+        assertEquals(0, log.read(start + 1000, 10).size());
+        assertFalse(log.position("foo").isPresent());
+
+        log.update("foo", start + 42);
+        assertEquals(Long.valueOf(start + 42), log.position("foo").get());
+
+        log.stop().get();
+        executor.shutdown();
+    }
+
+    private ByteBuffer entry(int value) {
+        final ByteBuffer buffer = ByteBuffer.allocate(32);
+        buffer.putInt(value);
+        buffer.position(32);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void testRecover() throws InterruptedException, ExecutionException, IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(1);
+        final AsyncFramework async = TinyAsync.builder().executor(executor).build();
+
+        final QLogManager first = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 10,
+                SyncPolicy.everyEntries(10));
+
+        first.start().get();
+
+        for (int i = 0; i < 500; i++)
+            first.write(entry(i));
+
+        first.update("foo", 100);
+        first.stop().get();
+
+        final QLogManager second = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 10);
+
+        second.start().get();
+
+        assertEquals(500, second.position());
+        assertEquals(Long.valueOf(100), second.position("foo").get());
+        assertEquals(499, second.read(499, 10).get(0).getInt());
+        assertEquals(501, second.write(entry(500)));
+
+        final List<ByteBuffer> entries = second.read(490, 20);
+        assertEquals(11, entries.size());
+
+        for (int i = 0; i < entries.size(); i++)
+            assertEquals(490 + i, entries.get(i).getInt());
+
+        second.stop().get();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testCursor() throws InterruptedException, ExecutionException, IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(1);
+        final AsyncFramework async = TinyAsync.builder().executor(executor).build();
+
+        final QLogManager log = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 10);
+
+        log.start().get();
+
+        final QLogCursor cursor = log.cursor(0);
+        assertNull(cursor.next());
+
+        // fill the first segment, and continue with the tail while the cursor follows.
+        for (int i = 0; i < 200; i++)
+            log.write(entry(i));
+
+        for (int i = 0; i < 200; i++)
+            assertEquals(i, cursor.next().getInt());
+
+        assertNull(cursor.next());
+
+        // roll over to new segments while the cursor is reading the tail.
+        for (int i = 200; i < 1000; i++)
+            log.write(entry(i));
+
+        for (int i = 200; i < 1000; i++) {
+            assertEquals(i, cursor.position());
+            assertEquals(i, cursor.next().getInt());
+        }
+
+        assertNull(cursor.next());
+        assertEquals(1000, cursor.position());
+
+        final QLogCursor middle = log.cursor(567);
+        assertEquals(567, middle.next().getInt());
+
+        log.trim(500);
+
+        try {
+            log.cursor(0);
+            fail("expected trimmed position to be rejected");
+        } catch (final IllegalArgumentException e) {
+        }
+
+        try {
+            log.cursor(1001);
+            fail("expected position beyond end to be rejected");
+        } catch (final IllegalArgumentException e) {
+        }
+
+        log.stop().get();
+        executor.shutdown();
+    }
+
+    /**
+     * Segments which were not closed are pre-allocated, recovery should stop at the last written entry.
+     */
+    @Test
+    public void testRecoverUnclosed() throws InterruptedException, ExecutionException, IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(1);
+        final AsyncFramework async = TinyAsync.builder().executor(executor).build();
+
+        final QLogManager first = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 10);
+
+        first.start().get();
+
+        for (int i = 0; i < 100; i++)
+            first.write(entry(i));
+
+        final QLogManager second = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 10);
+
+        second.start().get();
+
+        assertEquals(100, second.position());
+        assertEquals(99, second.read(99, 10).get(0).getInt());
+
+        second.stop().get();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testAppend() throws InterruptedException, ExecutionException, IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final AsyncFramework async = TinyAsync.builder().executor(executor).build();
+
+        final QLogManager log = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 10);
+
+        log.start().get();
+
+        final List<Future<List<AsyncFuture<Long>>>> callers = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+
+            callers.add(executor.submit(new Callable<List<AsyncFuture<Long>>>() {
+                @Override
+                public List<AsyncFuture<Long>> call() throws Exception {
+                    final List<AsyncFuture<Long>> futures = new ArrayList<>();
+
+                    for (int i = 0; i < 250; i++)
+                        futures.add(log.append(entry(thread * 250 + i)));
+
+                    return futures;
+                }
+            }));
+        }
+
+        final Set<Long> positions = new HashSet<>();
+
+        for (final Future<List<AsyncFuture<Long>>> caller : callers) {
+            for (final AsyncFuture<Long> f : caller.get())
+                positions.add(f.get());
+        }
+
+        assertEquals(1000, positions.size());
+        assertEquals(1000, log.position());
+        assertEquals(1000, log.read(0, 2000).size());
+
+        log.stop().get();
+        executor.shutdown();
+    }
+
+    /**
+     * Appends racing with stopping the log should all complete, either written or rejected.
+     */
+    @Test
+    public void testAppendWhileStopping() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final AsyncFramework async = TinyAsync.builder().executor(executor).build();
+
+        final QLogManager log = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 1024);
+
+        log.start().get();
+
+        final List<Future<List<AsyncFuture<Long>>>> callers = new ArrayList<>();
+
+        for (int t = 0; t < 3; t++) {
+            callers.add(executor.submit(new Callable<List<AsyncFuture<Long>>>() {
+                @Override
+                public List<AsyncFuture<Long>> call() throws Exception {
+                    final List<AsyncFuture<Long>> futures = new ArrayList<>();
+
+                    for (int i = 0; i < 2000; i++)
+                        futures.add(log.append(entry(i), false));
+
+                    return futures;
+                }
+            }));
+        }
+
+        log.stop().get();
+
+        int written = 0;
+
+        for (final Future<List<AsyncFuture<Long>>> caller : callers) {
+            for (final AsyncFuture<Long> f : caller.get()) {
+                try {
+                    f.get(10, TimeUnit.SECONDS);
+                    written++;
+                } catch (final ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            }
+        }
+
+        assertTrue(log.append(entry(0)).isFailed());
+
+        final QLogManager second = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 1024);
+        second.start().get();
+        assertEquals(written, second.position());
+        second.stop().get();
+
+        executor.shutdown();
+    }
+
+    /**
+     * Entries should be synced at the interval of the sync policy, even if nothing else is written.
+     */
+    @Test
+    public void testSyncInterval() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(1);
+        final AsyncFramework async = TinyAsync.builder().executor(executor).build();
+
+        final QLogManagerImpl log = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 10,
+                SyncPolicy.everyInterval(200));
+
+        log.start().get();
+
+        for (int i = 0; i < 3; i++)
+            log.write(entry(i));
+
+        final long deadline = System.currentTimeMillis() + 10000;
+
+        while (log.unsynced() > 0) {
+            if (System.currentTimeMillis() > deadline)
+                fail("entries were not synced");
+
+            Thread.sleep(10);
+        }
+
+        log.stop().get();
+        executor.shutdown();
+    }
+
+    /**
+     * Recovery should truncate the tail at the first entry with an invalid checksum.
+     */
+    @Test
+    public void testRecoverCorrupt() throws InterruptedException, ExecutionException, IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(1);
+        final AsyncFramework async = TinyAsync.builder().executor(executor).build();
+
+        final QLogManager first = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 10);
+
+        first.start().get();
+
+        for (int i = 0; i < 100; i++)
+            first.write(entry(i));
+
+        // corrupt the payload of entry 50, header is 16 bytes, each entry 8 + 32 bytes.
+        final Path segment = folder.getRoot().toPath().resolve(String.format("%016x", 0));
+
+        try (final FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0x7f }), 16 + 50 * 40 + 8 + 10);
+        }
+
+        final QLogManager second = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 10);
+
+        second.start().get();
+
+        assertEquals(50, second.position());
+        assertEquals(51, second.write(entry(1000)));
+        assertEquals(1000, second.read(50, 10).get(0).getInt());
+
+        second.stop().get();
+        executor.shutdown();
+    }
+
+    /**
+     * Recovery should truncate at a corrupt entry which has not been synced, even if it precedes checkpoints which have
+     * not been persisted.
+     */
+    @Test
+    public void testRecoverCorruptBeforeCheckpoint() throws InterruptedException, ExecutionException, IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(1);
+        final AsyncFramework async = TinyAsync.builder().executor(executor).build();
+
+        final QLogManager first = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 1024 * 8);
+
+        first.start().get();
+
+        // 40 bytes per entry, the first checkpoint is at entry 26215.
+        for (int i = 0; i < 30000; i++)
+            first.write(entry(i));
+
+        // sync the first checkpoint.
+        assertEquals(30001, first.append(entry(30000), true).get().longValue());
+
+        // not synced, the second checkpoint is at entry 52430.
+        for (int i = 30001; i < 100000; i++)
+            first.write(entry(i));
+
+        final Path index = folder.getRoot().toPath().resolve(String.format("%016x.idx", 0));
+        assertEquals(12, Files.size(index));
+
+        // corrupt the payload of entry 50000, which precedes the second checkpoint.
+        final Path segment = folder.getRoot().toPath().resolve(String.format("%016x", 0));
+
+        try (final FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0x7f }), 16 + 50000 * 40 + 8 + 10);
+        }
+
+        final QLogManager second = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 1024 * 8);
+
+        second.start().get();
+
+        assertEquals(50000, second.position());
+
+        final QLogCursor cursor = second.cursor(49999);
+        assertEquals(49999, cursor.next().getInt());
+        assertNull(cursor.next());
+
+        // new entries are appended directly after the last valid one.
+        assertEquals(50001, second.write(entry(1000)));
+        assertEquals(1000, cursor.next().getInt());
+
+        second.stop().get();
+
+        assertEquals(12, Files.size(index));
+
+        executor.shutdown();
+    }
+
+    /**
+     * Recovery should only verify the entries following the last persisted checkpoint, since the entries preceding it
+     * have been synced.
+     */
+    @Test
+    public void testRecoverFromCheckpoint() throws InterruptedException, ExecutionException, IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(1);
+        final AsyncFramework async = TinyAsync.builder().executor(executor).build();
+
+        final QLogManager first = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 1024 * 8,
+                SyncPolicy.everyEntries(1000));
+
+        first.start().get();
+
+        for (int i = 0; i < 100000; i++)
+            first.write(entry(i));
+
+        // corrupt the payload of entry 10000, which would be detected if the segment was scanned from the start.
+        final Path segment = folder.getRoot().toPath().resolve(String.format("%016x", 0));
+
+        try (final FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0x7f }), 16 + 10000 * 40 + 8 + 10);
+        }
+
+        final QLogManager second = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 1024 * 8);
+
+        second.start().get();
+
+        assertEquals(100000, second.position());
+        assertEquals(99999, second.cursor(99999).next().getInt());
+
+        second.stop().get();
+        executor.shutdown();
+    }
+
+    /**
+     * Recovery and seeking should use the checkpoints in the sparse index.
+     */
+    @Test
+    public void testCheckpoints() throws InterruptedException, ExecutionException, IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(1);
+        final AsyncFramework async = TinyAsync.builder().executor(executor).build();
+
+        // checkpoints are persisted once synced.
+        final QLogManager first = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 1024 * 8,
+                SyncPolicy.everyEntries(1000));
+
+        first.start().get();
+
+        // 40 bytes per entry, about 4 checkpoints.
+        for (int i = 0; i < 100000; i++)
+            first.write(entry(i));
+
+        final Path index = folder.getRoot().toPath().resolve(String.format("%016x.idx", 0));
+        assertEquals(3 * 12, Files.size(index));
+
+        final QLogManager second = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 1024 * 8);
+
+        second.start().get();
+
+        assertEquals(100000, second.position());
+        assertEquals(77777, second.cursor(77777).next().getInt());
+        assertEquals(99999, second.cursor(99999).next().getInt());
+
+        second.stop().get();
+        executor.shutdown();
+    }
+
+    /**
+     * Version 0 segments, as written by earlier versions, should still be readable and writable.
+     */
+    @Test
+    public void testVersion0() throws InterruptedException, ExecutionException, IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(1);
+        final AsyncFramework async = TinyAsync.builder().executor(executor).build();
+
+        final ByteBuffer segment = ByteBuffer.allocate(16 + 10 * 36);
+        segment.put(new byte[] { 0x46, 0x46, 0x4c, 0x47 });
+        segment.putInt(0);
+        segment.putLong(0);
+
+        for (int i = 0; i < 10; i++) {
+            segment.putInt(32);
+            segment.put(entry(i));
+        }
+
+        Files.write(folder.getRoot().toPath().resolve(String.format("%016x", 0)), segment.array());
+
+        final QLogManager log = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 10);
+
+        log.start().get();
+
+        assertEquals(10, log.position());
+        assertEquals(11, log.write(entry(10)));
+
+        final List<ByteBuffer> entries = log.read(0, 20);
+        assertEquals(11, entries.size());
+
+        for (int i = 0; i < entries.size(); i++)
+            assertEquals(i, entries.get(i).getInt());
+
+        log.stop().get();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testCompressedLz4() throws Exception {
+        verifyCompressed(Compression.LZ4);
+    }
+
+    @Test
+    public void testCompressedSnappy() throws Exception {
+        verifyCompressed(Compression.SNAPPY);
+    }
+
+    private void verifyCompressed(final Compression compression) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(1);
+        final AsyncFramework async = TinyAsync.builder().executor(executor).build();
+
+        final QLogManager first = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 64, SyncPolicy.NONE,
+                compression);
+
+        first.start().get();
+
+        final QLogCursor cursor = first.cursor(0);
+
+        // entries are highly compressible, so several blocks per segment.
+        for (int i = 0; i < 10000; i++)
+            first.write(entry(i));
+
+        for (int i = 0; i < 10000; i++)
+            assertEquals(i, cursor.next().getInt());
+
+        assertNull(cursor.next());
+
+        // buffered entries are readable through new cursors.
+        first.write(entry(10000));
+        assertEquals(10000, first.cursor(10000).next().getInt());
+
+        first.stop().get();
+
+        long size = 0;
+
+        try (final DirectoryStream<Path> files = Files.newDirectoryStream(folder.getRoot().toPath())) {
+            for (final Path f : files)
+                size += Files.size(f);
+        }
+
+        assertTrue("expected compressed size, but was " + size, size < 10001 * 36 / 4);
+
+        final QLogManager second = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 64);
+
+        second.start().get();
+
+        assertEquals(10001, second.position());
+
+        final List<ByteBuffer> entries = second.read(4321, 100);
+        assertEquals(100, entries.size());
+
+        for (int i = 0; i < entries.size(); i++)
+            assertEquals(4321 + i, entries.get(i).getInt());
+
+        second.stop().get();
+        executor.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyEntry() throws InterruptedException, ExecutionException, IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(1);
+        final AsyncFramework async = TinyAsync.builder().executor(executor).build();
+
+        final QLogManager log = new QLogManagerImpl(folder.getRoot().toPath(), async, 1024 * 10);
+
+        log.start().get();
+
+        try {
+            log.write(ByteBuffer.allocate(0));
+        } finally {
+            log.stop().get();
+            executor.shutdown();
+        }
+    }
 }
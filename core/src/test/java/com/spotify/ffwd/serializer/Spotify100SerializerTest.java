@@ -0,0 +1,85 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.serializer;
+
+import static org.junit.Assert.assertEquals;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.name.Names;
+import com.spotify.ffwd.model.Event;
+import com.spotify.ffwd.model.Metric;
+
+public class Spotify100SerializerTest {
+    private static final String METRIC = "{\"version\":\"1.0.0\",\"key\":\"key\",\"host\":\"host\",\"time\":1000,"
+            + "\"attributes\":{\"what\":\"foo\"},\"value\":42.0}";
+
+    private final Spotify100Serializer serializer = new Spotify100Serializer();
+
+    @Before
+    public void setup() {
+        Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ObjectMapper.class).annotatedWith(Names.named("application/json")).toInstance(new ObjectMapper());
+            }
+        }).injectMembers(serializer);
+    }
+
+    @Test
+    public void testMetric() throws Exception {
+        assertEquals(METRIC, new String(serializer.serialize(metric()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEvent() throws Exception {
+        final Event event = new Event("key", 42.0d, new Date(1000), 0, null, null, null, ImmutableSet.<String> of(),
+                null);
+
+        assertEquals("{\"version\":\"1.0.0\",\"key\":\"key\",\"host\":null,\"time\":1000,\"attributes\":null,"
+                + "\"value\":42.0}", new String(serializer.serialize(event), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        final ByteBuf buffer = Unpooled.buffer();
+        final int[] offsets = serializer.serializeMetrics(ImmutableList.of(metric(), metric()), buffer);
+
+        assertEquals(2, offsets.length);
+        assertEquals(METRIC.length(), offsets[0]);
+        assertEquals(METRIC.length() * 2, offsets[1]);
+        assertEquals(METRIC + METRIC, buffer.toString(StandardCharsets.UTF_8));
+    }
+
+    private Metric metric() {
+        return new Metric("key", 42.0d, 1000L, "host", ImmutableSet.<String> of(), ImmutableMap.of("what", "foo"),
+                null);
+    }
+}
@@ -0,0 +1,182 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.model;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact, immutable set of tags, stored as a sorted array without duplicates.
+ *
+ * Instances are meant to be interned through {@link MetricInterner}, so that all samples of the same series share a
+ * single instance.
+ */
+public final class CompactTagSet extends AbstractSet<String> {
+    public static final CompactTagSet EMPTY = new CompactTagSet(new String[0], true);
+
+    private final String[] tags;
+    // if all tags have been interned.
+    private final boolean interned;
+
+    // lazily computed hash codes, zero if not computed.
+    private int hash;
+    private long hash64;
+
+    private CompactTagSet(final String[] tags, final boolean interned) {
+        this.tags = tags;
+        this.interned = interned;
+    }
+
+    /**
+     * Build a compact set from the given tags, duplicates are removed.
+     */
+    public static CompactTagSet of(final Collection<String> tags) {
+        if (tags instanceof CompactTagSet)
+            return (CompactTagSet) tags;
+
+        if (tags.isEmpty())
+            return EMPTY;
+
+        return sort(tags.toArray(new String[tags.size()]), false);
+    }
+
+    /**
+     * Build a compact set from the first {@code length} elements of the given array, duplicates are removed.
+     *
+     * The given array is not modified.
+     */
+    public static CompactTagSet of(final String[] tags, final int length) {
+        if (length == 0)
+            return EMPTY;
+
+        return sort(Arrays.copyOf(tags, length), false);
+    }
+
+    /**
+     * Sort the given array in place, and build a compact set from it.
+     */
+    static CompactTagSet sort(final String[] sorted, final boolean interned) {
+        Arrays.sort(sorted);
+
+        int size = 0;
+
+        for (int i = 0; i < sorted.length; i++) {
+            if (size > 0 && sorted[size - 1].equals(sorted[i]))
+                continue;
+
+            sorted[size++] = sorted[i];
+        }
+
+        return new CompactTagSet(size == sorted.length ? sorted : Arrays.copyOf(sorted, size), interned);
+    }
+
+    /**
+     * Create a copy of this set where all tags have been passed through the given interner.
+     */
+    CompactTagSet intern(final MetricInterner interner) {
+        final String[] interned = new String[tags.length];
+
+        for (int i = 0; i < tags.length; i++)
+            interned[i] = interner.intern(tags[i]);
+
+        return new CompactTagSet(interned, true);
+    }
+
+    boolean isInterned() {
+        return interned;
+    }
+
+    @Override
+    public int size() {
+        return tags.length;
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return o instanceof String && Arrays.binarySearch(tags, o) >= 0;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < tags.length;
+            }
+
+            @Override
+            public String next() {
+                if (index >= tags.length)
+                    throw new NoSuchElementException();
+
+                return tags[index++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * 64-bit hash of these tags, as used by {@link SeriesKey}.
+     */
+    long hash64() {
+        long h = hash64;
+
+        if (h == 0) {
+            h = SeriesKey.computeRiemannTagsHash(this);
+            hash64 = h;
+        }
+
+        return h;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+
+        if (h == 0) {
+            for (final String tag : tags)
+                h += tag.hashCode();
+
+            hash = h;
+        }
+
+        return h;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this)
+            return true;
+
+        if (o instanceof CompactTagSet) {
+            final CompactTagSet other = (CompactTagSet) o;
+            return hashCode() == other.hashCode() && Arrays.equals(tags, other.tags);
+        }
+
+        return o instanceof Set && super.equals(o);
+    }
+}
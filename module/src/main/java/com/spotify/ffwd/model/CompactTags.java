@@ -0,0 +1,283 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Compact, immutable map of tags.
+ *
+ * Tags are stored as a single flat array of alternating keys and values, sorted by key. Lookups use a binary search,
+ * and the hash code is computed once. Instances are meant to be interned through {@link MetricInterner}, so that all
+ * samples of the same series share a single instance.
+ */
+public final class CompactTags extends AbstractMap<String, String> {
+    public static final CompactTags EMPTY = new CompactTags(new String[0], true);
+
+    // alternating keys and values, sorted by key.
+    private final String[] entries;
+    // if all keys and values have been interned.
+    private final boolean interned;
+    private final Set<Map.Entry<String, String>> entrySet = new Entries();
+
+    // lazily computed hash codes, zero if not computed.
+    private int hash;
+    private long hash64;
+
+    private CompactTags(final String[] entries, final boolean interned) {
+        this.entries = entries;
+        this.interned = interned;
+    }
+
+    /**
+     * Build compact tags from the given map.
+     */
+    public static CompactTags of(final Map<String, String> tags) {
+        if (tags instanceof CompactTags)
+            return (CompactTags) tags;
+
+        if (tags.isEmpty())
+            return EMPTY;
+
+        final String[] keys = tags.keySet().toArray(new String[tags.size()]);
+        Arrays.sort(keys);
+
+        final String[] entries = new String[keys.length * 2];
+
+        for (int i = 0; i < keys.length; i++) {
+            entries[i * 2] = keys[i];
+            entries[i * 2 + 1] = tags.get(keys[i]);
+        }
+
+        return new CompactTags(entries, false);
+    }
+
+    /**
+     * Build compact tags from the first {@code length} elements of an array of alternating keys and values.
+     *
+     * If a key occurs more than once, its last value is used. The given array is not modified.
+     */
+    public static CompactTags of(final String[] entries, final int length) {
+        if ((length & 1) != 0)
+            throw new IllegalArgumentException("Odd number of entries: " + length);
+
+        if (length == 0)
+            return EMPTY;
+
+        return sort(Arrays.copyOf(entries, length), false);
+    }
+
+    /**
+     * Sort the given array of alternating keys and values in place, and build compact tags from it.
+     */
+    static CompactTags sort(final String[] entries, final boolean interned) {
+        // insertion sort, tags are few and often already sorted.
+        for (int i = 2; i < entries.length; i += 2) {
+            final String key = entries[i];
+            final String value = entries[i + 1];
+
+            int j = i - 2;
+
+            while (j >= 0 && entries[j].compareTo(key) > 0) {
+                entries[j + 2] = entries[j];
+                entries[j + 3] = entries[j + 1];
+                j -= 2;
+            }
+
+            entries[j + 2] = key;
+            entries[j + 3] = value;
+        }
+
+        int size = 0;
+
+        for (int i = 0; i < entries.length; i += 2) {
+            // the sort is stable, so the last value of a duplicate key wins.
+            if (size > 0 && entries[size - 2].equals(entries[i])) {
+                entries[size - 1] = entries[i + 1];
+                continue;
+            }
+
+            entries[size] = entries[i];
+            entries[size + 1] = entries[i + 1];
+            size += 2;
+        }
+
+        return new CompactTags(size == entries.length ? entries : Arrays.copyOf(entries, size), interned);
+    }
+
+    /**
+     * Key of the tag at the given index, in sorted order.
+     */
+    public String key(final int index) {
+        return entries[index * 2];
+    }
+
+    /**
+     * Value of the tag at the given index, in sorted order.
+     */
+    public String value(final int index) {
+        return entries[index * 2 + 1];
+    }
+
+    /**
+     * Create a copy of these tags where all keys and values have been passed through the given interner.
+     */
+    CompactTags intern(final MetricInterner interner) {
+        final String[] interned = new String[entries.length];
+
+        for (int i = 0; i < entries.length; i++)
+            interned[i] = interner.intern(entries[i]);
+
+        return new CompactTags(interned, true);
+    }
+
+    boolean isInterned() {
+        return interned;
+    }
+
+    @Override
+    public int size() {
+        return entries.length / 2;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return entries.length == 0;
+    }
+
+    @Override
+    public String get(final Object key) {
+        final int index = indexOf(key);
+        return index < 0 ? null : entries[index * 2 + 1];
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return entrySet;
+    }
+
+    /**
+     * 64-bit hash of these tags, as used by {@link SeriesKey}.
+     */
+    long hash64() {
+        long h = hash64;
+
+        if (h == 0) {
+            h = SeriesKey.computeTagsHash(this);
+            hash64 = h;
+        }
+
+        return h;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+
+        if (h == 0) {
+            for (int i = 0; i < entries.length; i += 2)
+                h += Objects.hashCode(entries[i]) ^ Objects.hashCode(entries[i + 1]);
+
+            hash = h;
+        }
+
+        return h;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this)
+            return true;
+
+        if (o instanceof CompactTags) {
+            final CompactTags other = (CompactTags) o;
+            return hashCode() == other.hashCode() && Arrays.equals(entries, other.entries);
+        }
+
+        return super.equals(o);
+    }
+
+    private int indexOf(final Object key) {
+        if (!(key instanceof String))
+            return -1;
+
+        int low = 0;
+        int high = entries.length / 2 - 1;
+
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int c = entries[mid * 2].compareTo((String) key);
+
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    private class Entries extends AbstractSet<Map.Entry<String, String>> {
+        @Override
+        public int size() {
+            return CompactTags.this.size();
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, String>> iterator() {
+            return new Iterator<Map.Entry<String, String>>() {
+                private int index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return index < entries.length;
+                }
+
+                @Override
+                public Map.Entry<String, String> next() {
+                    if (index >= entries.length)
+                        throw new NoSuchElementException();
+
+                    final Map.Entry<String, String> e = new AbstractMap.SimpleImmutableEntry<>(entries[index],
+                            entries[index + 1]);
+                    index += 2;
+                    return e;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
@@ -20,17 +20,113 @@ import java.util.Date;
 import java.util.Map;
 import java.util.Set;
 
+import lombok.AccessLevel;
 import lombok.Data;
-import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * A single metric sample.
+ *
+ * The time is kept as a primitive timestamp, use {@link MetricInterner} when decoding to share keys and tags between
+ * samples of the same series.
+ *
+ * Two metrics are equal if they belong to the same series, see {@link #getSeries()}.
+ */
 @Data
-@EqualsAndHashCode(of = { "key", "riemann_tags", "tags" })
+@ToString(exclude = "series")
 public class Metric {
+    /**
+     * Timestamp of a metric that has no time.
+     */
+    public static final long NO_TIME = Long.MIN_VALUE;
+
     private final String key;
     private final double value;
-    private final Date time;
+    private final long timestamp;
     private final String host;
     private final Set<String> riemann_tags;
     private final Map<String, String> tags;
     private final String proc;
+
+    // identity of the series, computed on first access unless provided on construction.
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private SeriesKey series;
+
+    public Metric(String key, double value, long timestamp, String host, Set<String> riemann_tags,
+            Map<String, String> tags, String proc) {
+        this.key = key;
+        this.value = value;
+        this.timestamp = timestamp;
+        this.host = host;
+        this.riemann_tags = riemann_tags;
+        this.tags = tags;
+        this.proc = proc;
+    }
+
+    public Metric(String key, double value, Date time, String host, Set<String> riemann_tags,
+            Map<String, String> tags, String proc) {
+        this(key, value, time != null ? time.getTime() : NO_TIME, host, riemann_tags, tags, proc);
+    }
+
+    /**
+     * Build a metric for an already known series.
+     */
+    public Metric(SeriesKey series, double value, long timestamp, String host, String proc) {
+        this(series.getKey(), value, timestamp, host, series.getRiemannTags(), series.getTags(), proc);
+        this.series = series;
+    }
+
+    /**
+     * Identity of the series that this metric belongs to.
+     *
+     * Metrics built through {@link MetricInterner} share the same instance for the same series.
+     */
+    @JsonIgnore
+    public SeriesKey getSeries() {
+        SeriesKey s = series;
+
+        if (s == null) {
+            s = new SeriesKey(key, riemann_tags, tags);
+            series = s;
+        }
+
+        return s;
+    }
+
+    /**
+     * Timestamp in milliseconds, or {@link #NO_TIME} if the metric has no time.
+     */
+    @JsonIgnore
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public boolean hasTime() {
+        return timestamp != NO_TIME;
+    }
+
+    public Date getTime() {
+        return timestamp != NO_TIME ? new Date(timestamp) : null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this)
+            return true;
+
+        if (!(o instanceof Metric))
+            return false;
+
+        return getSeries().equals(((Metric) o).getSeries());
+    }
+
+    @Override
+    public int hashCode() {
+        return getSeries().hashCode();
+    }
 }
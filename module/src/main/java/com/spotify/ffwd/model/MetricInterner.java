@@ -0,0 +1,153 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.model;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Interns the strings and tags of decoded samples, so that all samples of the same series share them.
+ *
+ * Interned values are weakly referenced, and are released once no sample refers to them anymore. Series keys are kept
+ * in a bounded cache, least recently used series are evicted when it is full.
+ */
+public class MetricInterner {
+    public static final long DEFAULT_MAX_SERIES = 100000;
+
+    private static final MetricInterner INSTANCE = new MetricInterner();
+
+    private final Interner<String> strings = Interners.newWeakInterner();
+    private final Interner<CompactTags> tags = Interners.newWeakInterner();
+    private final Interner<CompactTagSet> tagSets = Interners.newWeakInterner();
+    private final ConcurrentMap<SeriesKey, SeriesKey> series;
+
+    public MetricInterner() {
+        this(DEFAULT_MAX_SERIES);
+    }
+
+    public MetricInterner(final long maxSeries) {
+        this.series = CacheBuilder.newBuilder().maximumSize(maxSeries).<SeriesKey, SeriesKey> build().asMap();
+    }
+
+    /**
+     * The interner shared by all decoders.
+     */
+    public static MetricInterner get() {
+        return INSTANCE;
+    }
+
+    public String intern(final String value) {
+        if (value == null)
+            return null;
+
+        return strings.intern(value);
+    }
+
+    public CompactTags tags(final Map<String, String> tags) {
+        if (tags.isEmpty())
+            return CompactTags.EMPTY;
+
+        if (tags instanceof CompactTags && ((CompactTags) tags).isInterned())
+            return (CompactTags) tags;
+
+        return this.tags.intern(CompactTags.of(tags).intern(this));
+    }
+
+    /**
+     * Interned tags from the first {@code length} elements of an array of alternating keys and values.
+     *
+     * This lets decoders collect tags into a reusable array, without building an intermediate map.
+     */
+    public CompactTags tags(final String[] entries, final int length) {
+        if ((length & 1) != 0)
+            throw new IllegalArgumentException("Odd number of entries: " + length);
+
+        if (length == 0)
+            return CompactTags.EMPTY;
+
+        final String[] interned = new String[length];
+
+        for (int i = 0; i < length; i++)
+            interned[i] = intern(entries[i]);
+
+        return this.tags.intern(CompactTags.sort(interned, true));
+    }
+
+    public CompactTagSet riemannTags(final Collection<String> tags) {
+        if (tags.isEmpty())
+            return CompactTagSet.EMPTY;
+
+        if (tags instanceof CompactTagSet && ((CompactTagSet) tags).isInterned())
+            return (CompactTagSet) tags;
+
+        return tagSets.intern(CompactTagSet.of(tags).intern(this));
+    }
+
+    /**
+     * Interned tags from the first {@code length} elements of the given array.
+     *
+     * This lets decoders collect tags into a reusable array, without building an intermediate set.
+     */
+    public CompactTagSet riemannTags(final String[] tags, final int length) {
+        if (length == 0)
+            return CompactTagSet.EMPTY;
+
+        final String[] interned = new String[length];
+
+        for (int i = 0; i < length; i++)
+            interned[i] = intern(tags[i]);
+
+        return tagSets.intern(CompactTagSet.sort(interned, true));
+    }
+
+    /**
+     * Canonical series key for the given fields, which should already be interned.
+     */
+    public SeriesKey series(final String key, final Set<String> riemannTags, final Map<String, String> tags) {
+        final SeriesKey candidate = new SeriesKey(key, riemannTags, tags);
+        final SeriesKey existing = series.putIfAbsent(candidate, candidate);
+        return existing != null ? existing : candidate;
+    }
+
+    /**
+     * Build a metric with interned fields.
+     *
+     * @param time Time of the metric in milliseconds, or {@link Metric#NO_TIME}.
+     */
+    public Metric metric(final String key, final double value, final long time, final String host,
+            final Collection<String> riemannTags, final Map<String, String> tags, final String proc) {
+        final SeriesKey s = series(intern(key), riemannTags(riemannTags), tags(tags));
+        return new Metric(s, value, time, intern(host), intern(proc));
+    }
+
+    /**
+     * Build an event with interned fields.
+     */
+    public Event event(final String key, final double value, final Date time, final long ttl, final String state,
+            final String description, final String host, final Collection<String> riemannTags,
+            final Map<String, String> tags) {
+        final Set<String> interned = riemannTags(riemannTags);
+        return new Event(intern(key), value, time, ttl, intern(state), description, intern(host), interned, tags(tags));
+    }
+}
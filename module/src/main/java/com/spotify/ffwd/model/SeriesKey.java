@@ -0,0 +1,152 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.model;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import lombok.Getter;
+
+/**
+ * Identity of a time series, the key, riemann tags and tags of a sample.
+ *
+ * The 64-bit hash is computed once on construction. Hashes of {@link CompactTags} and {@link CompactTagSet} are
+ * cached in the tags themselves, so building a series key from interned tags is constant time. Identical series are
+ * mapped to a single instance through {@link MetricInterner#series(String, Set, Map)}.
+ */
+public final class SeriesKey {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    @Getter
+    private final String key;
+    @Getter
+    private final Set<String> riemannTags;
+    @Getter
+    private final Map<String, String> tags;
+
+    private final long hash;
+
+    public SeriesKey(final String key, final Set<String> riemannTags, final Map<String, String> tags) {
+        this.key = key;
+        this.riemannTags = riemannTags;
+        this.tags = tags;
+        this.hash = mix(mix(hash(key) * 31 + hashRiemannTags(riemannTags)) * 31 + hashTags(tags));
+    }
+
+    /**
+     * 64-bit hash of this series, stable across restarts.
+     */
+    public long hash() {
+        return hash;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this)
+            return true;
+
+        if (!(o instanceof SeriesKey))
+            return false;
+
+        final SeriesKey other = (SeriesKey) o;
+
+        return hash == other.hash && Objects.equals(key, other.key)
+                && Objects.equals(riemannTags, other.riemannTags) && Objects.equals(tags, other.tags);
+    }
+
+    @Override
+    public String toString() {
+        return "SeriesKey(key=" + key + ", riemannTags=" + riemannTags + ", tags=" + tags + ")";
+    }
+
+    static long hashTags(final Map<String, String> tags) {
+        if (tags == null)
+            return 0;
+
+        if (tags instanceof CompactTags)
+            return ((CompactTags) tags).hash64();
+
+        return computeTagsHash(tags);
+    }
+
+    static long hashRiemannTags(final Set<String> tags) {
+        if (tags == null)
+            return 0;
+
+        if (tags instanceof CompactTagSet)
+            return ((CompactTagSet) tags).hash64();
+
+        return computeRiemannTagsHash(tags);
+    }
+
+    /**
+     * Order-independent hash of the given tags, so that it does not depend on the map implementation.
+     */
+    static long computeTagsHash(final Map<String, String> tags) {
+        long h = 0;
+
+        for (final Map.Entry<String, String> e : tags.entrySet())
+            h += mix(hash(e.getKey()) * 31 + hash(e.getValue()));
+
+        return h;
+    }
+
+    static long computeRiemannTagsHash(final Set<String> tags) {
+        long h = 0;
+
+        for (final String tag : tags)
+            h += mix(hash(tag));
+
+        return h;
+    }
+
+    /**
+     * FNV-1a hash of the characters in the given string.
+     */
+    static long hash(final String value) {
+        if (value == null)
+            return 0;
+
+        long h = FNV_OFFSET;
+
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= FNV_PRIME;
+        }
+
+        return h;
+    }
+
+    /**
+     * Finalization step of MurmurHash3, spreads all bits of the input over the output.
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
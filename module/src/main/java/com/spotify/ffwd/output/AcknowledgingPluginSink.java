@@ -0,0 +1,34 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.output;
+
+import eu.toolchain.async.AsyncFuture;
+
+/**
+ * A plugin sink which can tell when the metrics and events handed to it have been acknowledged by their destination.
+ *
+ * @author udoprog
+ */
+public interface AcknowledgingPluginSink extends PluginSink {
+    /**
+     * Flush all metrics and events that have been handed to this sink.
+     *
+     * @return A future that will be resolved when everything handed to this sink before the call has been sent, or
+     *         failed if anything handed to this sink since the last flush has been dropped or failed to send.
+     */
+    public AsyncFuture<Void> flush();
+}
@@ -25,6 +25,9 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.spotify.ffwd.filter.Filter;
@@ -37,6 +40,7 @@ import com.spotify.ffwd.statistics.OutputPluginStatistics;
 
 import eu.toolchain.async.AsyncFramework;
 import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.FutureFailed;
 import eu.toolchain.async.FutureFinished;
 import eu.toolchain.async.LazyTransform;
 import eu.toolchain.async.Transform;
@@ -48,12 +52,18 @@ import javax.inject.Named;
  * Facade implementation of a plugin sink that receives metrics and events, puts them on a buffer, then flushes them at
  * regular intervals.
  *
+ * When configured with a number of stripes, each sending thread appends to its own stripe instead of to a single batch
+ * guarded by a shared lock, and the stripes are merged when flushed.
+ *
+ * Batches which are dropped or fail to send are remembered until the next call to {@link #flush()}, which allows
+ * callers to tell if everything they handed to the sink has been acknowledged.
+ *
  * @author udoprog
  */
-@RequiredArgsConstructor
-public class FlushingPluginSink implements PluginSink {
+public class FlushingPluginSink implements AcknowledgingPluginSink {
     public static final long DEFAULT_BATCH_SIZE_LIMIT = 10000;
     public static final long DEFAULT_MAX_PENDING_FLUSHES = 10;
+    public static final int DEFAULT_STRIPES = 0;
 
     @Inject
     AsyncFramework async;
@@ -88,6 +98,30 @@ public class FlushingPluginSink implements PluginSink {
      */
     Batch nextBatch = new Batch();
 
+    /**
+     * stripes that batches are accumulated in, or {@code null} if striping is disabled.
+     */
+    final Stripe[] stripes;
+
+    /**
+     * the stripe assigned to the current thread, stripes are handed out round-robin on first use.
+     */
+    final ThreadLocal<Stripe> localStripe = new ThreadLocal<Stripe>() {
+        @Override
+        protected Stripe initialValue() {
+            return stripes[Math.abs(nextStripe.getAndIncrement() % stripes.length)];
+        }
+    };
+
+    final AtomicInteger nextStripe = new AtomicInteger();
+
+    /**
+     * number of metrics and events which are accumulated across all stripes.
+     *
+     * This might lag behind the actual number of accumulated items, but will never exceed it.
+     */
+    final AtomicLong stripedSize = new AtomicLong();
+
     /**
      * lock that governs access to the pending set of futures, this is preferred over eventually consistent concurrent
      * data structures since we desire a clean shutdown that tracks _all_ pending flushes.
@@ -98,6 +132,11 @@ public class FlushingPluginSink implements PluginSink {
      */
     final Set<AsyncFuture<Void>> pending = new HashSet<>();
 
+    /**
+     * set if a batch has been dropped, or failed to send since the last call to {@link #flush()}.
+     */
+    final AtomicBoolean lost = new AtomicBoolean();
+
     /**
      * The default flush interval in milliseconds.
      *
@@ -125,6 +164,21 @@ public class FlushingPluginSink implements PluginSink {
         this(flushInterval, DEFAULT_BATCH_SIZE_LIMIT, DEFAULT_MAX_PENDING_FLUSHES);
     }
 
+    public FlushingPluginSink(long flushInterval, long batchSizeLimit, long maxPendingFlushes) {
+        this(flushInterval, batchSizeLimit, maxPendingFlushes, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes Number of stripes to accumulate batches in. Striping will not be used if this value is lower than,
+     *            or equal to {@code 0}.
+     */
+    public FlushingPluginSink(long flushInterval, long batchSizeLimit, long maxPendingFlushes, int stripes) {
+        this.flushInterval = flushInterval;
+        this.batchSizeLimit = batchSizeLimit;
+        this.maxPendingFlushes = maxPendingFlushes;
+        this.stripes = buildStripes(stripes);
+    }
+
     @Override
     public void init() {
     }
@@ -135,6 +189,22 @@ public class FlushingPluginSink implements PluginSink {
             return;
         }
 
+        if (stripes != null) {
+            final Stripe stripe = localStripe.get();
+
+            synchronized (stripe) {
+                if (stripe.batch == null) {
+                    statistics.reportDropped(1);
+                    return;
+                }
+
+                stripe.batch.metrics.add(metric);
+            }
+
+            checkStripes();
+            return;
+        }
+
         // shortcut: check before synchronized block.
         if (nextBatch == null) {
             // TODO: instrument dropped metric.
@@ -160,9 +230,25 @@ public class FlushingPluginSink implements PluginSink {
             return;
         }
 
+        if (stripes != null) {
+            final Stripe stripe = localStripe.get();
+
+            synchronized (stripe) {
+                if (stripe.batch == null) {
+                    statistics.reportDropped(1);
+                    return;
+                }
+
+                stripe.batch.events.add(event);
+            }
+
+            checkStripes();
+            return;
+        }
+
         // shortcut: check before synchronized block.
         if (nextBatch == null) {
-            // TODO: instrument dropped metric.
+            // TODO: instrument dropped event.
             return;
         }
 
@@ -170,7 +256,7 @@ public class FlushingPluginSink implements PluginSink {
             final Batch batch = nextBatch;
 
             if (batch == null) {
-                // TODO: instrument dropped metric.
+                // TODO: instrument dropped event.
                 return;
             }
 
@@ -191,9 +277,24 @@ public class FlushingPluginSink implements PluginSink {
         }
     }
 
+    /**
+     * Check if the accumulated stripes have reached the batch size limit.
+     *
+     * Only the append which causes the size to reach the limit will trigger a flush.
+     */
+    void checkStripes() {
+        if (batchSizeLimit <= 0)
+            return;
+
+        if (stripedSize.incrementAndGet() == batchSizeLimit) {
+            log.debug("Flushing because limit of {} reached", batchSizeLimit);
+            flushNowThenScheduleNext();
+        }
+    }
+
     @Override
     public AsyncFuture<Void> start() {
-        log.info("Starting (Filter: {})", filter);
+        log.info("Starting (Filter: {}, Stripes: {})", filter, stripes == null ? 0 : stripes.length);
 
         return sink.start().transform(new Transform<Void, Void>() {
             @Override
@@ -252,17 +353,40 @@ public class FlushingPluginSink implements PluginSink {
         return sink.isReady();
     }
 
+    @Override
+    public AsyncFuture<Void> flush() {
+        final List<AsyncFuture<Void>> futures = new ArrayList<>();
+
+        final AsyncFuture<Void> flush = flushNowThenScheduleNext();
+
+        if (flush != null) {
+            futures.add(flush);
+        }
+
+        synchronized ($pendingLock) {
+            futures.addAll(pending);
+        }
+
+        if (lost.getAndSet(false)) {
+            return async.failed(new IllegalStateException("Metrics or events were lost since the last flush"));
+        }
+
+        return async.collectAndDiscard(futures);
+    }
+
     /**
      * Flushes the current batch and schedules the next one
      * 
      * Maintains the set of pending tasks.
+     *
+     * @return A future associated with the current flush, or {@code null} if we are stopping.
      */
-    void flushNowThenScheduleNext() {
+    AsyncFuture<Void> flushNowThenScheduleNext() {
         final AsyncFuture<Void> flush = doFlush(newBatch());
 
         // Shutting down.
         if (flush == null) {
-            return;
+            return null;
         }
 
         // shortcut: future is most likely an immediate, no reason to maintain the set of pending tasks.
@@ -291,6 +415,8 @@ public class FlushingPluginSink implements PluginSink {
                 scheduleNext();
             }
         });
+
+        return flush;
     }
 
     /**
@@ -340,6 +466,10 @@ public class FlushingPluginSink implements PluginSink {
      * @return A future associated with the current flush, or {@code null} if we are stopping.
      */
     AsyncFuture<Void> doFlush(Batch newBatch) {
+        if (stripes != null) {
+            return doStripedFlush(newBatch == null);
+        }
+
         final Batch batch;
 
         synchronized ($nextBatchLock) {
@@ -352,6 +482,95 @@ public class FlushingPluginSink implements PluginSink {
             nextBatch = newBatch;
         }
 
+        return sendBatch(batch);
+    }
+
+    /**
+     * Perform a flush of all stripes.
+     *
+     * Stripes are merged into batches that respect the {@link #batchSizeLimit}.
+     *
+     * @param last If {@code true}, all stripes will be closed and subsequent appends rejected.
+     * @return A future associated with the current flush, or {@code null} if we are stopping.
+     */
+    AsyncFuture<Void> doStripedFlush(boolean last) {
+        final List<Batch> batches = new ArrayList<>();
+
+        Batch current = newBatch();
+        batches.add(current);
+
+        int drained = 0;
+        boolean closed = true;
+
+        for (final Stripe stripe : stripes) {
+            final Batch batch;
+
+            synchronized (stripe) {
+                batch = stripe.batch;
+
+                if (batch == null) {
+                    continue;
+                }
+
+                closed = false;
+
+                // shortcut: no reason to replace an empty batch, unless we are closing the stripe.
+                if (!last && batch.isEmpty()) {
+                    continue;
+                }
+
+                stripe.batch = last ? null : newBatch();
+            }
+
+            drained += batch.size();
+
+            for (final Event e : batch.events) {
+                current = nextMergedBatch(batches, current);
+                current.events.add(e);
+            }
+
+            for (final Metric m : batch.metrics) {
+                current = nextMergedBatch(batches, current);
+                current.metrics.add(m);
+            }
+        }
+
+        if (closed) {
+            return null;
+        }
+
+        stripedSize.addAndGet(-drained);
+
+        if (batches.size() == 1) {
+            return sendBatch(current);
+        }
+
+        final List<AsyncFuture<Void>> futures = new ArrayList<>();
+
+        for (final Batch batch : batches) {
+            futures.add(sendBatch(batch));
+        }
+
+        return async.collectAndDiscard(futures);
+    }
+
+    private Batch nextMergedBatch(final List<Batch> batches, final Batch current) {
+        if (batchSizeLimit <= 0 || current.size() < batchSizeLimit) {
+            return current;
+        }
+
+        final Batch next = newBatch();
+        batches.add(next);
+        return next;
+    }
+
+    /**
+     * Send the given batch to the underlying sink, unless the limit of pending flushes has been reached.
+     *
+     * @param batch The batch to send.
+     * @return A future associated with the sending of the batch.
+     */
+    AsyncFuture<Void> sendBatch(final Batch batch) {
         if (batch == null || batch.isEmpty()) {
             return async.resolved();
         }
@@ -362,6 +581,7 @@ public class FlushingPluginSink implements PluginSink {
                     log.warn("Max number of pending flushes ({}) reached, dropping {} metric(s) and event(s)",
                             pending.size(), batch.size());
                     statistics.reportDropped(batch.size());
+                    lost.set(true);
                     return async.resolved();
                 }
             }
@@ -378,7 +598,12 @@ public class FlushingPluginSink implements PluginSink {
         }
 
         // chain into batch future.
-        return async.collectAndDiscard(futures);
+        return async.collectAndDiscard(futures).on(new FutureFailed() {
+            @Override
+            public void failed(Throwable cause) throws Exception {
+                lost.set(true);
+            }
+        });
     }
 
     /**
@@ -392,6 +617,36 @@ public class FlushingPluginSink implements PluginSink {
         return new Batch();
     }
 
+    private Stripe[] buildStripes(final int count) {
+        if (count <= 0) {
+            return null;
+        }
+
+        final Stripe[] stripes = new Stripe[count];
+
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(new Batch());
+        }
+
+        return stripes;
+    }
+
+    /**
+     * A single stripe, all access to the current batch has to be synchronized on the stripe itself.
+     *
+     * A stripe is only contended when more threads are sending than there are stripes, or when it is being flushed.
+     */
+    static class Stripe {
+        /**
+         * the batch that is currently being accumulated, or {@code null} if we are shutting down.
+         */
+        Batch batch;
+
+        Stripe(Batch batch) {
+            this.batch = batch;
+        }
+    }
+
     @RequiredArgsConstructor
     static class Batch {
         private final List<Event> events = new ArrayList<>();
@@ -0,0 +1,199 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.protocol;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Data;
+
+import com.google.common.collect.ImmutableList;
+
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.FutureDone;
+import eu.toolchain.async.ResolvableFuture;
+
+/**
+ * Spreads messages over a pool of connections.
+ *
+ * Members that are not connected are taken out of rotation until they have reconnected. Batches that were in flight on
+ * a member when it lost its connection are sent again through another connected member.
+ */
+public class PooledProtocolConnection implements ProtocolConnection {
+    public static final int MAX_ATTEMPTS = 3;
+
+    private final AsyncFramework async;
+    private final ProtocolPool.Strategy strategy;
+    private final List<Member> members;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    public PooledProtocolConnection(AsyncFramework async, ProtocolPool.Strategy strategy,
+            Collection<? extends ProtocolConnection> connections) {
+        if (connections.isEmpty())
+            throw new IllegalArgumentException("connections must not be empty");
+
+        final List<Member> members = new ArrayList<>(connections.size());
+
+        for (final ProtocolConnection c : connections)
+            members.add(new Member(c));
+
+        this.async = async;
+        this.strategy = strategy;
+        this.members = ImmutableList.copyOf(members);
+    }
+
+    @Override
+    public void send(Object message) {
+        final Member m = select();
+
+        if (m == null)
+            return;
+
+        m.getConnection().send(message);
+    }
+
+    @Override
+    public AsyncFuture<Void> sendAll(Collection<? extends Object> batch) {
+        final ResolvableFuture<Void> future = async.future();
+        dispatch(batch, future, 1);
+        return future;
+    }
+
+    private void dispatch(final Collection<? extends Object> batch, final ResolvableFuture<Void> future,
+            final int attempt) {
+        final Member m = select();
+
+        if (m == null) {
+            future.fail(new IllegalStateException("no connected members in pool"));
+            return;
+        }
+
+        final int size = batch.size();
+
+        m.getOutstanding().addAndGet(size);
+
+        m.getConnection().sendAll(batch).on(new FutureDone<Void>() {
+            @Override
+            public void resolved(Void result) throws Exception {
+                m.getOutstanding().addAndGet(-size);
+                future.resolve(null);
+            }
+
+            @Override
+            public void failed(Throwable cause) throws Exception {
+                m.getOutstanding().addAndGet(-size);
+
+                // lost with the connection of the member, which no longer takes part in the selection.
+                if (cause instanceof ClosedChannelException && attempt < MAX_ATTEMPTS) {
+                    dispatch(batch, future, attempt + 1);
+                    return;
+                }
+
+                future.fail(cause);
+            }
+
+            @Override
+            public void cancelled() throws Exception {
+                m.getOutstanding().addAndGet(-size);
+                future.cancel();
+            }
+        });
+    }
+
+    @Override
+    public AsyncFuture<Void> stop() {
+        final List<AsyncFuture<Void>> stops = new ArrayList<>(members.size());
+
+        for (final Member m : members)
+            stops.add(m.getConnection().stop());
+
+        return async.collectAndDiscard(stops);
+    }
+
+    @Override
+    public boolean isConnected() {
+        for (final Member m : members) {
+            if (m.getConnection().isConnected())
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Select a connected member according to the strategy.
+     *
+     * @return A connected member, or {@code null} if no member is connected.
+     */
+    private Member select() {
+        if (strategy == ProtocolPool.Strategy.LEAST_OUTSTANDING)
+            return leastOutstanding();
+
+        return roundRobin();
+    }
+
+    private Member roundRobin() {
+        final int size = members.size();
+        final int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+
+        for (int i = 0; i < size; i++) {
+            final Member m = members.get((start + i) % size);
+
+            if (m.getConnection().isConnected())
+                return m;
+        }
+
+        return null;
+    }
+
+    private Member leastOutstanding() {
+        final int size = members.size();
+        // rotate the starting point, so that ties are spread over all members.
+        final int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+
+        Member best = null;
+        long bestOutstanding = Long.MAX_VALUE;
+
+        for (int i = 0; i < size; i++) {
+            final Member m = members.get((start + i) % size);
+
+            if (!m.getConnection().isConnected())
+                continue;
+
+            final long outstanding = m.getOutstanding().get();
+
+            if (outstanding < bestOutstanding) {
+                best = m;
+                bestOutstanding = outstanding;
+            }
+        }
+
+        return best;
+    }
+
+    @Data
+    private static class Member {
+        private final ProtocolConnection connection;
+        private final AtomicLong outstanding = new AtomicLong();
+    }
+}
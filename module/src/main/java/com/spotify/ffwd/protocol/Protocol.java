@@ -25,6 +25,18 @@ public class Protocol {
     private final ProtocolType type;
     private final InetSocketAddress address;
     private final Integer receiveBufferSize;
+    /**
+     * Maximum transmission unit of the path to the remote end, in bytes. Only used by UDP clients, which pack
+     * messages into datagrams that fit the MTU.
+     */
+    private final Integer mtu;
+
+    /**
+     * Build a copy of this protocol that connects to another address.
+     */
+    public Protocol withAddress(InetSocketAddress address) {
+        return new Protocol(type, address, receiveBufferSize, mtu);
+    }
 
     @Override
     public String toString() {
@@ -18,9 +18,19 @@ package com.spotify.ffwd.protocol;
 
 import org.slf4j.Logger;
 
+import com.spotify.ffwd.statistics.OutputPluginStatistics;
+
 import eu.toolchain.async.AsyncFuture;
 
 public interface ProtocolClients {
     public AsyncFuture<ProtocolConnection> connect(Logger log, Protocol protocol, ProtocolClient client,
-            RetryPolicy policy);
+            RetryPolicy policy, OutputPluginStatistics statistics);
+
+    /**
+     * @param retryInFlight If batches that were in flight when the channel was lost should be sent again once the
+     *            connection has been re-established, otherwise they fail with a
+     *            {@link java.nio.channels.ClosedChannelException} so that the caller can send them elsewhere.
+     */
+    public AsyncFuture<ProtocolConnection> connect(Logger log, Protocol protocol, ProtocolClient client,
+            RetryPolicy policy, OutputPluginStatistics statistics, boolean retryInFlight);
 }
@@ -37,14 +37,17 @@ public class ProtocolFactory {
     private final String host;
     private final Integer port;
     private final Integer receiveBufferSize;
+    private final Integer mtu;
 
     @JsonCreator
     public ProtocolFactory(@JsonProperty("type") String type, @JsonProperty("host") String host,
-            @JsonProperty("port") Integer port, @JsonProperty("receiveBufferSize") Integer receiveBufferSize) {
+            @JsonProperty("port") Integer port, @JsonProperty("receiveBufferSize") Integer receiveBufferSize,
+            @JsonProperty("mtu") Integer mtu) {
         this.type = type;
         this.host = host;
         this.port = port;
         this.receiveBufferSize = receiveBufferSize;
+        this.mtu = mtu;
     }
 
     /**
@@ -56,7 +59,7 @@ public class ProtocolFactory {
         return new Supplier<ProtocolFactory>() {
             @Override
             public ProtocolFactory get() {
-                return new ProtocolFactory(null, null, null, null);
+                return new ProtocolFactory(null, null, null, null, null);
             }
         };
     }
@@ -79,7 +82,7 @@ public class ProtocolFactory {
     public Protocol protocol(ProtocolType defaultType, int defaultPort, String defaultHost) {
         final ProtocolType t = parseProtocolType(type, defaultType);
         final InetSocketAddress address = parseSocketAddress(host, port, defaultPort, defaultHost);
-        return new Protocol(t, address, receiveBufferSize);
+        return new Protocol(t, address, receiveBufferSize, mtu);
     }
 
     private InetSocketAddress parseSocketAddress(String host, Integer port, int defaultPort, String defaultHost) {
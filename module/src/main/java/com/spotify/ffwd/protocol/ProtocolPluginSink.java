@@ -16,7 +16,10 @@
  **/
 package com.spotify.ffwd.protocol;
 
+import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.common.collect.ImmutableList;
@@ -30,10 +33,13 @@ import com.google.inject.Inject;
 import com.spotify.ffwd.model.Event;
 import com.spotify.ffwd.model.Metric;
 import com.spotify.ffwd.output.BatchedPluginSink;
+import com.spotify.ffwd.statistics.NoopCoreStatistics;
+import com.spotify.ffwd.statistics.OutputPluginStatistics;
 
 import eu.toolchain.async.AsyncFramework;
 import eu.toolchain.async.AsyncFuture;
 import eu.toolchain.async.LazyTransform;
+import eu.toolchain.async.Transform;
 
 @RequiredArgsConstructor
 public class ProtocolPluginSink implements BatchedPluginSink {
@@ -55,10 +61,22 @@ public class ProtocolPluginSink implements BatchedPluginSink {
     @Inject(optional = true)
     private Filter filter = null;
 
+    @Inject(optional = true)
+    private OutputPluginStatistics statistics = NoopCoreStatistics.get().newOutputPlugin(null);
+
     private final RetryPolicy retry;
 
+    /**
+     * Pool configuration, a single connection is used if {@code null}.
+     */
+    private final ProtocolPool pool;
+
     private final AtomicReference<ProtocolConnection> connection = new AtomicReference<>();
 
+    public ProtocolPluginSink(RetryPolicy retry) {
+        this(retry, null);
+    }
+
     @Override
     public void init() {
     }
@@ -145,8 +163,15 @@ public class ProtocolPluginSink implements BatchedPluginSink {
 
     @Override
     public AsyncFuture<Void> start() {
-        return clients.connect(log, protocol, client, retry).lazyTransform(
-                new LazyTransform<ProtocolConnection, Void>() {
+        final AsyncFuture<ProtocolConnection> connect;
+
+        if (pool == null) {
+            connect = clients.connect(log, protocol, client, retry, statistics);
+        } else {
+            connect = connectPool();
+        }
+
+        return connect.lazyTransform(new LazyTransform<ProtocolConnection, Void>() {
             @Override
             public AsyncFuture<Void> transform(ProtocolConnection result) throws Exception {
                 if (!connection.compareAndSet(null, result))
@@ -157,6 +182,34 @@ public class ProtocolPluginSink implements BatchedPluginSink {
         });
     }
 
+    private AsyncFuture<ProtocolConnection> connectPool() {
+        final List<Protocol> endpoints;
+
+        try {
+            endpoints = pool.endpoints(protocol);
+        } catch (final UnknownHostException e) {
+            return async.failed(e);
+        }
+
+        log.info("Connecting pool of {} connection(s) to each of {}", pool.getConnections(), endpoints);
+
+        final List<AsyncFuture<ProtocolConnection>> connections = new ArrayList<>();
+
+        for (final Protocol endpoint : endpoints) {
+            for (int i = 0; i < pool.getConnections(); i++)
+                // batches lost with a member are sent through the other members by the pool.
+                connections.add(clients.connect(log, endpoint, client, retry, statistics, false));
+        }
+
+        return async.collect(connections).transform(
+                new Transform<Collection<ProtocolConnection>, ProtocolConnection>() {
+                    @Override
+                    public ProtocolConnection transform(Collection<ProtocolConnection> result) throws Exception {
+                        return new PooledProtocolConnection(async, pool.getStrategy(), result);
+                    }
+                });
+    }
+
     @Override
     public AsyncFuture<Void> stop() {
         final ProtocolConnection c = connection.getAndSet(null);
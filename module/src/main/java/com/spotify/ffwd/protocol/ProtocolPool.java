@@ -0,0 +1,131 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.protocol;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.net.HostAndPort;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Configuration for a pool of connections, used by {@link ProtocolPluginSink}.
+ *
+ * The pool opens {@code connections} connections to every endpoint. The endpoints are the configured protocol address,
+ * every address that its host name resolves to if {@code resolve} is set, and any additional {@code hosts}.
+ */
+@Data
+public class ProtocolPool {
+    public static final int DEFAULT_CONNECTIONS = 1;
+    public static final Strategy DEFAULT_STRATEGY = Strategy.ROUND_ROBIN;
+    public static final boolean DEFAULT_RESOLVE = false;
+
+    private final int connections;
+    private final Strategy strategy;
+    private final boolean resolve;
+    private final List<String> hosts;
+
+    @JsonCreator
+    public ProtocolPool(@JsonProperty("connections") Integer connections, @JsonProperty("strategy") String strategy,
+            @JsonProperty("resolve") Boolean resolve, @JsonProperty("hosts") List<String> hosts) {
+        this.connections = Optional.fromNullable(connections).or(DEFAULT_CONNECTIONS);
+        this.strategy = Optional.fromNullable(strategy).transform(Strategy.parse()).or(DEFAULT_STRATEGY);
+        this.resolve = Optional.fromNullable(resolve).or(DEFAULT_RESOLVE);
+        this.hosts = Optional.fromNullable(hosts).or(ImmutableList.<String> of());
+
+        if (this.connections < 1)
+            throw new IllegalArgumentException("connections must be positive: " + this.connections);
+    }
+
+    /**
+     * Build the list of endpoints that the pool should connect to.
+     *
+     * @param protocol The configured protocol, additional hosts without a port use its port.
+     * @return A list of protocols, one for each endpoint.
+     * @throws UnknownHostException If a host name could not be resolved.
+     */
+    public List<Protocol> endpoints(Protocol protocol) throws UnknownHostException {
+        final List<Protocol> endpoints = new ArrayList<>();
+
+        endpoints.addAll(endpoints(protocol, protocol.getAddress()));
+
+        for (final String host : hosts)
+            endpoints.addAll(endpoints(protocol, parseAddress(host, protocol.getAddress().getPort())));
+
+        return endpoints;
+    }
+
+    private List<Protocol> endpoints(Protocol protocol, InetSocketAddress address) throws UnknownHostException {
+        if (!resolve)
+            return ImmutableList.of(protocol.withAddress(address));
+
+        final ImmutableList.Builder<Protocol> endpoints = ImmutableList.builder();
+
+        for (final InetAddress a : InetAddress.getAllByName(address.getHostString())) {
+            // strip the host name, so that the client connects to this exact address.
+            final InetSocketAddress resolved = new InetSocketAddress(InetAddress.getByAddress(a.getAddress()),
+                    address.getPort());
+            endpoints.add(protocol.withAddress(resolved));
+        }
+
+        return endpoints.build();
+    }
+
+    /**
+     * Parse a host with an optional port, IPv6 literals with a port are enclosed in brackets ({@code [::1]:5555}).
+     */
+    private InetSocketAddress parseAddress(String host, int defaultPort) {
+        final HostAndPort parsed = HostAndPort.fromString(host).withDefaultPort(defaultPort);
+        return new InetSocketAddress(parsed.getHostText(), parsed.getPort());
+    }
+
+    public static enum Strategy {
+        /**
+         * Send batches to each connected member in turn.
+         */
+        ROUND_ROBIN,
+        /**
+         * Send batches to the connected member with the fewest samples waiting to be completed.
+         */
+        LEAST_OUTSTANDING;
+
+        public static Function<String, Strategy> parse() {
+            return new Function<String, Strategy>() {
+                @Override
+                public Strategy apply(final String input) {
+                    final String value = input.toUpperCase().replace('-', '_');
+
+                    for (final Strategy strategy : values()) {
+                        if (strategy.name().equals(value))
+                            return strategy;
+                    }
+
+                    throw new IllegalArgumentException("Invalid pool strategy: " + input);
+                }
+            };
+        }
+    }
+}
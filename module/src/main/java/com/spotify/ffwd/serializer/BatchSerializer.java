@@ -0,0 +1,50 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.serializer;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Collection;
+
+import com.spotify.ffwd.model.Event;
+import com.spotify.ffwd.model.Metric;
+
+/**
+ * A serializer that can encode many samples into a single buffer in one go.
+ *
+ * Every sample is encoded the same way as by the single sample methods of {@link Serializer}, samples are written
+ * back to back without any separator.
+ */
+public interface BatchSerializer extends Serializer {
+    /**
+     * Serialize the given events one after another into the buffer.
+     *
+     * @param events Events to serialize.
+     * @param buffer Buffer to write to, starting at its writer index.
+     * @return The writer index of the buffer after each serialized event, in the order of the given collection.
+     */
+    int[] serializeEvents(Collection<Event> events, ByteBuf buffer) throws Exception;
+
+    /**
+     * Serialize the given metrics one after another into the buffer.
+     *
+     * @param metrics Metrics to serialize.
+     * @param buffer Buffer to write to, starting at its writer index.
+     * @return The writer index of the buffer after each serialized metric, in the order of the given collection.
+     */
+    int[] serializeMetrics(Collection<Metric> metrics, ByteBuf buffer) throws Exception;
+}
@@ -67,6 +67,14 @@ public class NoopCoreStatistics implements CoreStatistics {
         @Override
         public void reportDropped(int dropped) {
         }
+
+        @Override
+        public void reportDroppedByOverflow(int dropped) {
+        }
+
+        @Override
+        public void reportDroppedBySize(int dropped) {
+        }
     };
 
     @Override
@@ -23,4 +23,18 @@ public interface OutputPluginStatistics {
      * @param dropped The number of events and metrics that we have dropped.
      */
     void reportDropped(int dropped);
+
+    /**
+     * Report that a number of events and metrics have been dropped because a buffer in the plugin was full.
+     *
+     * @param dropped The number of events and metrics that we have dropped.
+     */
+    void reportDroppedByOverflow(int dropped);
+
+    /**
+     * Report that a number of messages have been dropped because they were too large to be sent.
+     *
+     * @param dropped The number of messages that we have dropped.
+     */
+    void reportDroppedBySize(int dropped);
 }
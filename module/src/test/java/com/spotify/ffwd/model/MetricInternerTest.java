@@ -0,0 +1,133 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class MetricInternerTest {
+    private final MetricInterner interner = new MetricInterner();
+
+    @Test
+    public void testCompactTags() {
+        final Map<String, String> source = new HashMap<>();
+        source.put("b", "2");
+        source.put("a", "1");
+        source.put("c", "3");
+
+        final CompactTags tags = CompactTags.of(source);
+
+        assertEquals(source, tags);
+        assertEquals(tags, source);
+        assertEquals(source.hashCode(), tags.hashCode());
+        assertEquals("a", tags.key(0));
+        assertEquals("3", tags.value(2));
+        assertEquals("2", tags.get("b"));
+        assertNull(tags.get("d"));
+        assertFalse(tags.containsKey(1));
+    }
+
+    @Test
+    public void testCompactTagSet() {
+        final CompactTagSet tags = CompactTagSet.of(ImmutableList.of("b", "a", "b"));
+
+        assertEquals(2, tags.size());
+        assertEquals(ImmutableSet.of("a", "b"), tags);
+        assertEquals(ImmutableSet.of("a", "b").hashCode(), tags.hashCode());
+        assertTrue(tags.contains("a"));
+        assertFalse(tags.contains("c"));
+    }
+
+    @Test
+    public void testFromArrays() {
+        final String[] entries = new String[] { "b", "2", "a", "1", "b", "3", "unused", "x" };
+        final CompactTags tags = interner.tags(entries, 6);
+
+        assertEquals(ImmutableMap.of("a", "1", "b", "3"), tags);
+        assertEquals("b", entries[0]);
+        assertSame(tags, interner.tags(tags));
+        assertSame(tags, interner.tags(ImmutableMap.of("b", "3", "a", "1")));
+
+        final CompactTagSet set = interner.riemannTags(new String[] { "b", "a", "b", "unused" }, 3);
+
+        assertEquals(ImmutableSet.of("a", "b"), set);
+        assertSame(set, interner.riemannTags(set));
+    }
+
+    @Test
+    public void testShared() {
+        final Metric a = interner.metric(new String("key"), 1.0d, 1000L, "host", ImmutableList.of("x"),
+                ImmutableMap.of("what", "foo"), null);
+        final Metric b = interner.metric(new String("key"), 2.0d, 2000L, "host", ImmutableList.of("x"),
+                ImmutableMap.of("what", "foo"), null);
+
+        assertSame(a.getKey(), b.getKey());
+        assertSame(a.getTags(), b.getTags());
+        assertSame(a.getRiemann_tags(), b.getRiemann_tags());
+        assertSame(a.getSeries(), b.getSeries());
+        assertEquals(a, b);
+    }
+
+    @Test
+    public void testSeriesKey() {
+        final Map<String, String> tags = new HashMap<>();
+        tags.put("a", "1");
+        tags.put("b", "2");
+
+        final Metric plain = new Metric("key", 1.0d, 1000L, "host", ImmutableSet.of("x"), tags, null);
+        final Metric compact = interner.metric("key", 2.0d, 2000L, "other", ImmutableList.of("x"), tags, null);
+
+        assertEquals(plain.getSeries(), compact.getSeries());
+        assertEquals(plain.getSeries().hash(), compact.getSeries().hash());
+        assertEquals(plain.hashCode(), compact.hashCode());
+        assertEquals(plain, compact);
+
+        tags.put("c", "3");
+        final SeriesKey other = new SeriesKey("key", ImmutableSet.of("x"), tags);
+
+        assertFalse(other.equals(plain.getSeries()));
+        assertFalse(other.hash() == plain.getSeries().hash());
+    }
+
+    @Test
+    public void testTime() {
+        final Metric m = interner.metric("key", 1.0d, Metric.NO_TIME, null, ImmutableList.<String> of(),
+                ImmutableMap.<String, String> of(), null);
+
+        assertFalse(m.hasTime());
+        assertNull(m.getTime());
+
+        final Metric d = new Metric("key", 1.0d, new Date(1000), null, null, null, null);
+
+        assertTrue(d.hasTime());
+        assertEquals(1000L, d.getTimestamp());
+        assertEquals(new Date(1000), d.getTime());
+    }
+}
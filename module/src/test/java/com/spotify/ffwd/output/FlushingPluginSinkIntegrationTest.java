@@ -43,6 +43,7 @@ import org.mockito.runners.MockitoJUnitRunner;
 import org.slf4j.Logger;
 
 import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.statistics.OutputPluginStatistics;
 
 import eu.toolchain.async.AsyncFramework;
 import eu.toolchain.async.ResolvableFuture;
@@ -61,6 +62,9 @@ public class FlushingPluginSinkIntegrationTest {
     @Mock
     private Logger log;
 
+    @Mock
+    private OutputPluginStatistics statistics;
+
     @Captor
     private ArgumentCaptor<Collection<Metric>> metricsCaptor;
 
@@ -137,6 +141,48 @@ public class FlushingPluginSinkIntegrationTest {
         assertEquals(metricCount, sum);
     }
 
+    /**
+     * Tests that a striped sink flushes batches which respect the size limit, and that no metrics are lost when
+     * stopping.
+     */
+    @Test
+    public void testStripedSizeLimitedFlushing() throws InterruptedException, ExecutionException {
+        final FlushingPluginSink striped = new FlushingPluginSink(0, BATCH_SIZE, 0, 4);
+        striped.sink = childSink;
+        striped.async = async;
+        striped.log = log;
+        striped.statistics = statistics;
+
+        final ResolvableFuture<Void> sendFuture = async.future();
+
+        doReturn(sendFuture).when(childSink).sendMetrics(anyCollection());
+
+        striped.start().get();
+
+        final int metricCount = BATCH_SIZE * 100 + BATCH_SIZE / 2;
+
+        sendMetrics(striped, 8, metricCount);
+
+        sendFuture.resolve(null);
+
+        striped.stop().get();
+
+        // the sink should not accept any more metrics after being stopped.
+        striped.sendMetric(metric);
+        verify(statistics).reportDropped(1);
+
+        verify(childSink, atLeastOnce()).sendMetrics(metricsCaptor.capture());
+
+        int sum = 0;
+
+        for (final Collection<Metric> c : metricsCaptor.getAllValues()) {
+            sum += c.size();
+            assertTrue(c.size() <= BATCH_SIZE);
+        }
+
+        assertEquals(metricCount, sum);
+    }
+
     private void sendMetrics(final PluginSink sink, final int threadCount, final int metricCount)
             throws InterruptedException {
         final ExecutorService threads = Executors.newFixedThreadPool(threadCount);
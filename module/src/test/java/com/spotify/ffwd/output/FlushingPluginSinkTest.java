@@ -17,10 +17,16 @@
 package com.spotify.ffwd.output;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import java.util.concurrent.ScheduledExecutorService;
@@ -34,8 +40,10 @@ import org.slf4j.Logger;
 
 import com.spotify.ffwd.model.Event;
 import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.statistics.OutputPluginStatistics;
 
 import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
 
 @RunWith(MockitoJUnitRunner.class)
 public class FlushingPluginSinkTest {
@@ -64,6 +72,12 @@ public class FlushingPluginSinkTest {
     @Mock
     private ScheduledExecutorService scheduler;
 
+    @Mock
+    private OutputPluginStatistics statistics;
+
+    @Mock
+    private AsyncFuture<Void> future;
+
     private FlushingPluginSink sink;
 
     @Before
@@ -82,6 +96,47 @@ public class FlushingPluginSinkTest {
         assertEquals(1, s.flushInterval);
         assertEquals(FlushingPluginSink.DEFAULT_BATCH_SIZE_LIMIT, s.batchSizeLimit);
         assertEquals(FlushingPluginSink.DEFAULT_MAX_PENDING_FLUSHES, s.maxPendingFlushes);
+        assertNull(s.stripes);
+    }
+
+    @Test
+    public void testSendMetricStriped() {
+        final FlushingPluginSink s = spy(new FlushingPluginSink(flushInterval, batchSizeLimit, maxPendingFlushes, 2));
+        doNothing().when(s).checkStripes();
+
+        s.sendMetric(metric);
+        s.sendEvent(event);
+
+        assertEquals(2, s.localStripe.get().batch.size());
+        verify(s, times(2)).checkStripes();
+    }
+
+    @Test
+    public void testSendStripedDrop() {
+        final FlushingPluginSink s = spy(new FlushingPluginSink(flushInterval, batchSizeLimit, maxPendingFlushes, 2));
+        s.statistics = statistics;
+        doNothing().when(s).checkStripes();
+
+        s.localStripe.get().batch = null;
+
+        s.sendMetric(metric);
+        s.sendEvent(event);
+
+        verify(statistics, times(2)).reportDropped(1);
+        verify(s, never()).checkStripes();
+    }
+
+    @Test
+    public void testCheckStripesFlushes() {
+        final FlushingPluginSink s = spy(new FlushingPluginSink(flushInterval, 2, maxPendingFlushes, 2));
+        s.log = log;
+        doReturn(null).when(s).flushNowThenScheduleNext();
+
+        s.checkStripes();
+        verify(s, never()).flushNowThenScheduleNext();
+
+        s.checkStripes();
+        verify(s).flushNowThenScheduleNext();
     }
 
     @Test
@@ -128,10 +183,30 @@ public class FlushingPluginSinkTest {
         verify(sink, never()).checkBatch(sink.nextBatch);
     }
 
+    @Test
+    public void testFlush() {
+        doReturn(null).when(sink).flushNowThenScheduleNext();
+        doReturn(future).when(async).collectAndDiscard(anyCollection());
+
+        assertSame(future, sink.flush());
+        verify(sink).flushNowThenScheduleNext();
+    }
+
+    @Test
+    public void testFlushLost() {
+        sink.lost.set(true);
+
+        doReturn(null).when(sink).flushNowThenScheduleNext();
+        doReturn(future).when(async).failed(any(Throwable.class));
+
+        assertSame(future, sink.flush());
+        assertFalse(sink.lost.get());
+    }
+
     @Test
     public void testCheckBatchFlushes() {
         doReturn((int) batchSizeLimit).when(batch).size();
-        doNothing().when(sink).flushNowThenScheduleNext();
+        doReturn(null).when(sink).flushNowThenScheduleNext();
 
         sink.checkBatch(batch);
 
@@ -141,7 +216,7 @@ public class FlushingPluginSinkTest {
     @Test
     public void testCheckBatchDoesntFlush() {
         doReturn((int) batchSizeLimit - 1).when(batch).size();
-        doNothing().when(sink).flushNowThenScheduleNext();
+        doReturn(null).when(sink).flushNowThenScheduleNext();
 
         sink.checkBatch(batch);
 
@@ -0,0 +1,208 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.protocol;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.ResolvableFuture;
+import eu.toolchain.async.TinyAsync;
+
+public class PooledProtocolConnectionTest {
+    private final List<Object> batch = ImmutableList.<Object> of("a", "b");
+
+    private AsyncFramework async;
+    private ProtocolConnection a;
+    private ProtocolConnection b;
+
+    @Before
+    public void setup() {
+        async = TinyAsync.builder().executor(MoreExecutors.sameThreadExecutor()).build();
+        a = connection(true);
+        b = connection(true);
+    }
+
+    @Test
+    public void testRoundRobin() throws Exception {
+        final ResolvableFuture<Void> done = async.future();
+        done.resolve(null);
+        sends(a, done);
+        sends(b, done);
+
+        final PooledProtocolConnection pool = pool(ProtocolPool.Strategy.ROUND_ROBIN);
+
+        for (int i = 0; i < 4; i++)
+            pool.sendAll(batch).get();
+
+        verify(a, times(2)).sendAll(batch);
+        verify(b, times(2)).sendAll(batch);
+    }
+
+    @Test
+    public void testSkipsDisconnected() throws Exception {
+        final ResolvableFuture<Void> done = async.future();
+        done.resolve(null);
+        sends(b, done);
+        doReturn(false).when(a).isConnected();
+
+        final PooledProtocolConnection pool = pool(ProtocolPool.Strategy.ROUND_ROBIN);
+
+        for (int i = 0; i < 3; i++)
+            pool.sendAll(batch).get();
+
+        verify(a, never()).sendAll(anyCollectionOf(Object.class));
+        verify(b, times(3)).sendAll(batch);
+        assertTrue(pool.isConnected());
+    }
+
+    @Test
+    public void testNoneConnected() throws Exception {
+        doReturn(false).when(a).isConnected();
+        doReturn(false).when(b).isConnected();
+
+        final PooledProtocolConnection pool = pool(ProtocolPool.Strategy.ROUND_ROBIN);
+
+        assertFalse(pool.isConnected());
+
+        try {
+            pool.sendAll(batch).get();
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            return;
+        }
+
+        throw new AssertionError("expected send to fail");
+    }
+
+    @Test
+    public void testLeastOutstanding() throws Exception {
+        final ResolvableFuture<Void> pendingA = async.future();
+        final ResolvableFuture<Void> pendingB = async.future();
+        sends(a, pendingA);
+        sends(b, pendingB);
+
+        final PooledProtocolConnection pool = pool(ProtocolPool.Strategy.LEAST_OUTSTANDING);
+
+        // one batch each, then both have the same number outstanding.
+        final AsyncFuture<Void> first = pool.sendAll(batch);
+        final AsyncFuture<Void> second = pool.sendAll(batch);
+
+        verify(a, times(1)).sendAll(batch);
+        verify(b, times(1)).sendAll(batch);
+
+        // once a has completed, it has the fewest outstanding samples.
+        pendingA.resolve(null);
+
+        pool.sendAll(batch);
+        pool.sendAll(ImmutableList.<Object> of("c"));
+
+        verify(a, times(2)).sendAll(batch);
+        verify(a, times(1)).sendAll(ImmutableList.<Object> of("c"));
+        verify(b, times(1)).sendAll(anyCollectionOf(Object.class));
+
+        pendingB.resolve(null);
+        first.get();
+        second.get();
+    }
+
+    @Test
+    public void testRedispatchLostBatch() throws Exception {
+        final ResolvableFuture<Void> lost = async.future();
+        final ResolvableFuture<Void> done = async.future();
+        sends(a, lost);
+        sends(b, done);
+
+        final PooledProtocolConnection pool = pool(ProtocolPool.Strategy.ROUND_ROBIN);
+
+        final AsyncFuture<Void> future = pool.sendAll(batch);
+        verify(a, times(1)).sendAll(batch);
+
+        // a loses its connection with the batch in flight, which is sent again through b.
+        doReturn(false).when(a).isConnected();
+        lost.fail(new ClosedChannelException());
+
+        verify(b, times(1)).sendAll(batch);
+        assertFalse(future.isDone());
+
+        done.resolve(null);
+        future.get();
+    }
+
+    @Test
+    public void testRedispatchGivesUp() throws Exception {
+        final ResolvableFuture<Void> lost = async.future();
+        lost.fail(new ClosedChannelException());
+        sends(a, lost);
+        sends(b, lost);
+
+        final PooledProtocolConnection pool = pool(ProtocolPool.Strategy.ROUND_ROBIN);
+
+        try {
+            pool.sendAll(batch).get();
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof ClosedChannelException);
+            verify(a, times(2)).sendAll(batch);
+            verify(b, times(1)).sendAll(batch);
+            return;
+        }
+
+        throw new AssertionError("expected send to fail");
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        doReturn(async.resolved()).when(a).stop();
+        doReturn(async.resolved()).when(b).stop();
+
+        pool(ProtocolPool.Strategy.ROUND_ROBIN).stop().get();
+
+        verify(a).stop();
+        verify(b).stop();
+    }
+
+    private PooledProtocolConnection pool(ProtocolPool.Strategy strategy) {
+        return new PooledProtocolConnection(async, strategy, ImmutableList.of(a, b));
+    }
+
+    private ProtocolConnection connection(boolean connected) {
+        final ProtocolConnection c = mock(ProtocolConnection.class);
+        doReturn(connected).when(c).isConnected();
+        return c;
+    }
+
+    private void sends(ProtocolConnection c, AsyncFuture<Void> result) {
+        doReturn(result).when(c).sendAll(anyCollectionOf(Object.class));
+    }
+}
@@ -0,0 +1,83 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class ProtocolPoolTest {
+    private final Protocol protocol = new Protocol(ProtocolType.TCP, new InetSocketAddress("127.0.0.1", 5555), null,
+            null);
+
+    @Test
+    public void testDefaults() throws Exception {
+        final ProtocolPool pool = new ProtocolPool(null, null, null, null);
+
+        assertEquals(ProtocolPool.DEFAULT_CONNECTIONS, pool.getConnections());
+        assertEquals(ProtocolPool.Strategy.ROUND_ROBIN, pool.getStrategy());
+        assertFalse(pool.isResolve());
+        assertEquals(ImmutableList.of(protocol), pool.endpoints(protocol));
+    }
+
+    @Test
+    public void testHosts() throws Exception {
+        final ProtocolPool pool = new ProtocolPool(2, "least-outstanding", null, ImmutableList.of("127.0.0.2",
+                "127.0.0.3:6666"));
+
+        final List<Protocol> endpoints = pool.endpoints(protocol);
+
+        assertEquals(ProtocolPool.Strategy.LEAST_OUTSTANDING, pool.getStrategy());
+        assertEquals(3, endpoints.size());
+        assertEquals(protocol, endpoints.get(0));
+        assertEquals(new InetSocketAddress("127.0.0.2", 5555), endpoints.get(1).getAddress());
+        assertEquals(new InetSocketAddress("127.0.0.3", 6666), endpoints.get(2).getAddress());
+    }
+
+    @Test
+    public void testIPv6Hosts() throws Exception {
+        final ProtocolPool pool = new ProtocolPool(null, null, null, ImmutableList.of("::1", "[::1]:6666"));
+
+        final List<Protocol> endpoints = pool.endpoints(protocol);
+
+        assertEquals(3, endpoints.size());
+        assertEquals(new InetSocketAddress("::1", 5555), endpoints.get(1).getAddress());
+        assertEquals(new InetSocketAddress("::1", 6666), endpoints.get(2).getAddress());
+    }
+
+    @Test
+    public void testResolve() throws Exception {
+        final ProtocolPool pool = new ProtocolPool(null, null, true, null);
+
+        final List<Protocol> endpoints = pool.endpoints(protocol);
+
+        assertEquals(1, endpoints.size());
+        assertEquals("127.0.0.1", endpoints.get(0).getAddress().getHostString());
+        assertEquals(5555, endpoints.get(0).getAddress().getPort());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidConnections() {
+        new ProtocolPool(0, null, null, null);
+    }
+}
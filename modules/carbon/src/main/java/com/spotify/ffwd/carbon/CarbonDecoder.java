@@ -21,7 +21,6 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.CorruptedFrameException;
 import io.netty.handler.codec.MessageToMessageDecoder;
 
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,13 +30,14 @@ import java.util.regex.Pattern;
 import org.apache.commons.lang3.StringEscapeUtils;
 
 import com.google.common.collect.Sets;
-import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.model.MetricInterner;
 
 @Sharable
 public class CarbonDecoder extends MessageToMessageDecoder<String> {
     private static final Set<String> EMPTY_TAGS = Sets.newHashSet();
     private static final Pattern WHITE_SPACE_PATTERN = Pattern.compile("\\s+");
 
+    private final MetricInterner interner = MetricInterner.get();
     private final String key;
 
     public CarbonDecoder(final String key) {
@@ -73,7 +73,7 @@ public class CarbonDecoder extends MessageToMessageDecoder<String> {
         final Map<String, String> tags = new HashMap<String,String>();
         tags.put("what", tokens[0]);
 
-        out.add(new Metric(key, value, new Date(timestamp), null, EMPTY_TAGS, tags, null));
+        out.add(interner.metric(key, value, timestamp, null, EMPTY_TAGS, tags, null));
     }
 
 }
@@ -24,8 +24,15 @@ import com.spotify.ffwd.protocol.ProtocolServer;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInboundHandler;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.FixedRecvByteBufAllocator;
 
 public class JsonFrameProtocolServer implements ProtocolServer {
+    /**
+     * Largest datagram that is received whole, so that batches are not truncated at the 2048 bytes netty uses by
+     * default.
+     */
+    public static final int MAX_FRAME = 0xffff;
+
     @Inject
     @Named("application/json")
     private ObjectMapper mapper;
@@ -41,6 +48,7 @@ public class JsonFrameProtocolServer implements ProtocolServer {
         return new ChannelInitializer<Channel>() {
             @Override
             protected void initChannel(Channel ch) throws Exception {
+                ch.config().setRecvByteBufAllocator(new FixedRecvByteBufAllocator(MAX_FRAME));
                 ch.pipeline().addLast(new DatagramPacketToByteBuf());
                 ch.pipeline().addLast(decoder, handler);
             }
@@ -16,17 +16,14 @@
  **/
 package com.spotify.ffwd.json;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.JsonNodeType;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
-import com.spotify.ffwd.model.Event;
 import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.model.MetricInterner;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufInputStream;
 import io.netty.channel.ChannelHandler.Sharable;
@@ -36,165 +33,345 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
+/**
+ * Decodes JSON frames into metrics and events.
+ *
+ * Frames are decoded in a single pass over the tokens of the frame, without building a tree. Fields are collected into
+ * a reusable per-thread {@link Frame}, and the sample is built once the whole object has been read.
+ *
+ * A frame may also be a batch, either a JSON array of samples or an object with the type {@code batch} and its
+ * samples in the {@code metrics} field. The samples of a batch are passed down the pipeline one by one as soon as they
+ * have been decoded, and an invalid sample only discards itself.
+ */
 @Slf4j
 @RequiredArgsConstructor
 @Sharable
 public class JsonObjectMapperDecoder extends MessageToMessageDecoder<ByteBuf> {
-    public static final Set<String> EMPTY_TAGS = Sets.newHashSet();
-    public static final Map<String, String> EMPTY_ATTRIBUTES = new HashMap<>();
+    public static final String BATCH = "batch";
 
     @Inject
     @Named("application/json")
     private ObjectMapper mapper;
 
+    private final MetricInterner interner = MetricInterner.get();
+
+    private final ThreadLocal<Frame> frames = new ThreadLocal<Frame>() {
+        @Override
+        protected Frame initialValue() {
+            return new Frame();
+        }
+    };
+
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
         if (!in.isReadable())
             return;
 
-        final Object frame;
-
-        try {
-            frame = decode0(in, out);
+        try (final JsonParser parser = parser(in)) {
+            decode0(ctx, parser, out);
         } catch (Exception e) {
             log.error("Discarding invalid frame", e);
-            return;
         }
-
-        out.add(frame);
     }
 
-    private Object decode0(ByteBuf in, List<Object> out) throws IOException, JsonProcessingException {
-        final JsonNode tree;
+    private void decode0(ChannelHandlerContext ctx, JsonParser parser, List<Object> out) throws IOException {
+        final Frame frame = frames.get();
+        final JsonToken token = parser.nextToken();
 
-        try (final InputStream input = new ByteBufInputStream(in)) {
-            tree = mapper.readTree(input);
+        if (token == JsonToken.START_ARRAY) {
+            readBatch(ctx, parser, frame.element());
+            return;
         }
 
-        final JsonNode typeNode = tree.get("type");
+        if (token != JsonToken.START_OBJECT)
+            throw new IllegalArgumentException("Expected an object or an array");
 
-        if (typeNode == null)
-            throw new IllegalArgumentException("Missing field 'type'");
+        frame.reset();
+        readFields(parser, frame, ctx);
 
-        final String type = typeNode.asText();
+        if (frame.batch) {
+            if (frame.type != null && !BATCH.equals(frame.type))
+                throw new IllegalArgumentException("Field 'metrics' in frame of type '" + frame.type + "'");
 
-        if ("event".equals(type))
-            return decodeEvent(tree, out);
+            return;
+        }
 
-        if ("metric".equals(type))
-            return decodeMetric(tree, out);
+        if (BATCH.equals(frame.type))
+            return;
 
-        throw new IllegalArgumentException("Invalid metric type '" + type + "'");
+        out.add(decodeSample(frame));
     }
 
-    private Object decodeMetric(JsonNode tree, List<Object> out) {
-        final String key = decodeString(tree, "key");
-        final double value = decodeDouble(tree, "value");
-        final Date time = decodeTime(tree, "time");
-        final String host = decodeString(tree, "host");
-        final Set<String> riemann_tags = decodeTags(tree, "tags");
-        final Map<String, String> tags = decodeAttributes(tree, "attributes");
-        final String proc = decodeString(tree, "proc");
+    private Object decodeSample(Frame frame) {
+        if (frame.type == null)
+            throw new IllegalArgumentException("Missing field 'type'");
+
+        if ("event".equals(frame.type))
+            return decodeEvent(frame);
+
+        if ("metric".equals(frame.type))
+            return decodeMetric(frame);
 
-        return new Metric(key, value, time, host, riemann_tags, tags, proc);
+        throw new IllegalArgumentException("Invalid metric type '" + frame.type + "'");
     }
 
-    private Object decodeEvent(JsonNode tree, List<Object> out) {
-        final String key = decodeString(tree, "key");
-        final double value = decodeDouble(tree, "value");
-        final Date time = decodeTime(tree, "time");
-        final long ttl = decodeTtl(tree, "ttl");
-        final String state = decodeString(tree, "state");
-        final String description = decodeString(tree, "description");
-        final String host = decodeString(tree, "host");
-        final Set<String> riemann_tags = decodeTags(tree, "tags");
-        final Map<String, String> tags = decodeAttributes(tree, "attributes");
-
-        return new Event(key, value, time, ttl, state, description, host, riemann_tags, tags);
+    /**
+     * Create a parser over the readable bytes of the buffer.
+     *
+     * Heap buffers are parsed straight from their backing array, other buffers are streamed without copying them.
+     */
+    private JsonParser parser(ByteBuf in) throws IOException {
+        final JsonFactory factory = mapper.getFactory();
+
+        if (!in.hasArray())
+            return factory.createParser(new ByteBufInputStream(in));
+
+        final int length = in.readableBytes();
+        final JsonParser parser = factory.createParser(in.array(), in.arrayOffset() + in.readerIndex(), length);
+        in.skipBytes(length);
+        return parser;
     }
 
-    private long decodeTtl(JsonNode tree, String name) {
-        final JsonNode n = tree.get(name);
+    /**
+     * Read the fields of the current object into the given frame.
+     *
+     * @param batch Context to pass the samples of a batch to, or null if the object may not be a batch.
+     */
+    private void readFields(JsonParser parser, Frame frame, ChannelHandlerContext batch) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            parser.nextToken();
+
+            switch (name) {
+            case "type":
+                frame.type = readString(parser);
+                break;
+            case "key":
+                frame.key = readString(parser);
+                break;
+            case "value":
+                frame.value = readDouble(parser);
+                break;
+            case "time":
+                frame.time = readLong(parser);
+                frame.hasTime = true;
+                break;
+            case "ttl":
+                frame.ttl = readLong(parser);
+                break;
+            case "state":
+                frame.state = readString(parser);
+                break;
+            case "description":
+                frame.description = readString(parser);
+                break;
+            case "host":
+                frame.host = readString(parser);
+                break;
+            case "proc":
+                frame.proc = readString(parser);
+                break;
+            case "tags":
+                readTags(parser, frame);
+                break;
+            case "attributes":
+                readAttributes(parser, frame);
+                break;
+            case "metrics":
+                if (batch == null || parser.getCurrentToken() != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    break;
+                }
+
+                if (frame.type != null && !BATCH.equals(frame.type))
+                    throw new IllegalArgumentException("Field 'metrics' in frame of type '" + frame.type + "'");
+
+                frame.batch = true;
+                readBatch(batch, parser, frame.element());
+                break;
+            default:
+                parser.skipChildren();
+                break;
+            }
+        }
+    }
 
-        if (n == null)
-            return 0;
+    /**
+     * Decode the samples of the current array, and pass each one down the pipeline as soon as it has been decoded.
+     */
+    private void readBatch(ChannelHandlerContext ctx, JsonParser parser, Frame element) throws IOException {
+        JsonToken token;
 
-        return n.asLong();
-    }
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null)
+                throw new IllegalArgumentException("Unterminated batch");
 
-    private Date decodeTime(JsonNode tree, String name) {
-        final JsonNode n = tree.get(name);
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                log.error("Discarding invalid batch element, expected an object");
+                continue;
+            }
 
-        if (n == null)
-            return null;
+            element.reset();
+            readFields(parser, element, null);
 
-        final long time = n.asLong();
-        return new Date(time);
+            final Object sample;
+
+            try {
+                sample = decodeSample(element);
+            } catch (IllegalArgumentException e) {
+                log.error("Discarding invalid batch element", e);
+                continue;
+            }
+
+            ctx.fireChannelRead(sample);
+        }
     }
 
-    private double decodeDouble(JsonNode tree, String name) {
-        final JsonNode n = tree.get(name);
+    private Object decodeMetric(Frame frame) {
+        final long time = frame.hasTime ? frame.time : Metric.NO_TIME;
+
+        return interner.metric(frame.key, frame.value, time, frame.host,
+                interner.riemannTags(frame.tags, frame.tagsSize),
+                interner.tags(frame.attributes, frame.attributesSize), frame.proc);
+    }
 
-        if (n == null)
-            return Double.NaN;
+    private Object decodeEvent(Frame frame) {
+        final Date time = frame.hasTime ? new Date(frame.time) : null;
 
-        return n.asDouble();
+        return interner.event(frame.key, frame.value, time, frame.ttl, frame.state, frame.description, frame.host,
+                interner.riemannTags(frame.tags, frame.tagsSize),
+                interner.tags(frame.attributes, frame.attributesSize));
     }
 
-    private String decodeString(JsonNode tree, String name) {
-        final JsonNode n = tree.get(name);
+    /**
+     * Read the current value as text, or null if it is not a scalar.
+     */
+    private String readString(JsonParser parser) throws IOException {
+        final String value = parser.getValueAsString();
+        parser.skipChildren();
+        return value;
+    }
 
-        if (n == null)
-            return null;
+    private double readDouble(JsonParser parser) throws IOException {
+        final double value = parser.getValueAsDouble(0);
+        parser.skipChildren();
+        return value;
+    }
 
-        return n.asText();
+    private long readLong(JsonParser parser) throws IOException {
+        final long value = parser.getValueAsLong(0);
+        parser.skipChildren();
+        return value;
     }
 
-    private Map<String, String> decodeAttributes(JsonNode tree, String name) {
-        final JsonNode n = tree.get(name);
+    private void readTags(JsonParser parser, Frame frame) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
 
-        if (n == null)
-            return EMPTY_ATTRIBUTES;
+        JsonToken token;
 
-        if (n.getNodeType() != JsonNodeType.OBJECT)
-            return EMPTY_ATTRIBUTES;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null)
+                throw new IllegalArgumentException("Unterminated field 'tags'");
 
-        final Map<String, String> attributes = Maps.newHashMap();
+            final String tag = readString(parser);
 
-        final Iterator<Map.Entry<String, JsonNode>> iter = n.fields();
+            if (tag != null)
+                frame.addTag(tag);
+        }
+    }
 
-        while (iter.hasNext()) {
-            final Map.Entry<String, JsonNode> e = iter.next();
-            attributes.put(e.getKey(), e.getValue().asText());
+    private void readAttributes(JsonParser parser, Frame frame) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
         }
 
-        return attributes;
-    }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            parser.nextToken();
 
-    private Set<String> decodeTags(JsonNode tree, String name) {
-        final JsonNode n = tree.get(name);
+            final String value = readString(parser);
+
+            if (value != null)
+                frame.addAttribute(name, value);
+        }
+    }
 
-        if (n == null)
-            return EMPTY_TAGS;
+    /**
+     * Fields of the frame being decoded.
+     */
+    static class Frame {
+        private String type;
+        private String key;
+        private double value;
+        private long time;
+        private boolean hasTime;
+        private long ttl;
+        private String state;
+        private String description;
+        private String host;
+        private String proc;
+
+        // if the samples of a batch were read from this frame.
+        private boolean batch;
+        // frame for the samples of a batch, created when first needed.
+        private Frame element;
+
+        private String[] tags = new String[8];
+        private int tagsSize;
+
+        // alternating keys and values.
+        private String[] attributes = new String[16];
+        private int attributesSize;
+
+        Frame element() {
+            if (element == null)
+                element = new Frame();
+
+            return element;
+        }
 
-        if (n.getNodeType() != JsonNodeType.ARRAY)
-            return EMPTY_TAGS;
+        void reset() {
+            batch = false;
+            type = null;
+            key = null;
+            value = Double.NaN;
+            time = 0;
+            hasTime = false;
+            ttl = 0;
+            state = null;
+            description = null;
+            host = null;
+            proc = null;
+
+            Arrays.fill(tags, 0, tagsSize, null);
+            tagsSize = 0;
+
+            Arrays.fill(attributes, 0, attributesSize, null);
+            attributesSize = 0;
+        }
 
-        final List<String> tags = Lists.newArrayList();
+        void addTag(String tag) {
+            if (tagsSize == tags.length)
+                tags = Arrays.copyOf(tags, tags.length * 2);
 
-        final Iterator<JsonNode> iter = n.elements();
+            tags[tagsSize++] = tag;
+        }
 
-        while (iter.hasNext())
-            tags.add(iter.next().asText());
+        void addAttribute(String name, String value) {
+            if (attributesSize == attributes.length)
+                attributes = Arrays.copyOf(attributes, attributes.length * 2);
 
-        return Sets.newHashSet(tags);
+            attributes[attributesSize++] = name;
+            attributes[attributesSize++] = value;
+        }
     }
 }
@@ -0,0 +1,181 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.name.Names;
+import com.spotify.ffwd.model.Event;
+import com.spotify.ffwd.model.Metric;
+
+public class JsonObjectMapperDecoderTest {
+    private JsonObjectMapperDecoder decoder;
+
+    @Before
+    public void setup() {
+        decoder = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ObjectMapper.class).annotatedWith(Names.named("application/json")).toInstance(new ObjectMapper());
+            }
+        }).getInstance(JsonObjectMapperDecoder.class);
+    }
+
+    @Test
+    public void testMetric() throws Exception {
+        final Metric m = (Metric) decode("{\"key\": \"foo\", \"value\": 4.2, \"time\": 1000, \"host\": \"h\", "
+                + "\"tags\": [\"b\", \"a\", \"a\"], \"attributes\": {\"x\": \"1\", \"y\": 2}, \"unknown\": {\"z\": [1]}, "
+                + "\"proc\": \"p\", \"type\": \"metric\"}");
+
+        assertEquals("foo", m.getKey());
+        assertEquals(4.2d, m.getValue(), 0.0d);
+        assertEquals(1000L, m.getTimestamp());
+        assertEquals("h", m.getHost());
+        assertEquals("p", m.getProc());
+        assertEquals(ImmutableSet.of("a", "b"), m.getRiemann_tags());
+        assertEquals(ImmutableMap.of("x", "1", "y", "2"), m.getTags());
+    }
+
+    @Test
+    public void testMetricDefaults() throws Exception {
+        final Metric m = (Metric) decode("{\"type\": \"metric\", \"key\": \"foo\"}");
+
+        assertFalse(m.hasTime());
+        assertTrue(Double.isNaN(m.getValue()));
+        assertTrue(m.getRiemann_tags().isEmpty());
+        assertTrue(m.getTags().isEmpty());
+    }
+
+    @Test
+    public void testEvent() throws Exception {
+        final Event e = (Event) decode("{\"type\": \"event\", \"key\": \"foo\", \"value\": \"1.5\", \"time\": 1000, "
+                + "\"ttl\": 30, \"state\": \"ok\", \"description\": \"d\", \"attributes\": {\"x\": \"1\"}}");
+
+        assertEquals("foo", e.getKey());
+        assertEquals(1.5d, e.getValue(), 0.0d);
+        assertEquals(1000L, e.getTime().getTime());
+        assertEquals(30L, e.getTtl());
+        assertEquals("ok", e.getState());
+        assertEquals("d", e.getDescription());
+        assertEquals(ImmutableMap.of("x", "1"), e.getTags());
+    }
+
+    @Test
+    public void testDirectBuffer() throws Exception {
+        final byte[] bytes = "{\"type\": \"metric\", \"key\": \"foo\"}".getBytes(StandardCharsets.UTF_8);
+        final ByteBuf in = Unpooled.directBuffer(bytes.length);
+        in.writeBytes(bytes);
+
+        assertEquals("foo", ((Metric) decode(in)).getKey());
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        assertNull(decode("{\"key\": \"foo\"}"));
+        assertNull(decode("{\"type\": \"other\"}"));
+        assertNull(decode("[1, 2]"));
+        assertNull(decode("{\"type\": \"metric\", \"tags\": [\"a\""));
+    }
+
+    @Test
+    public void testArray() throws Exception {
+        final List<Object> samples = decodeAll("[{\"type\": \"metric\", \"key\": \"a\"}, 42, "
+                + "{\"key\": \"invalid\"}, {\"type\": \"event\", \"key\": \"b\"}]");
+
+        assertEquals(2, samples.size());
+        assertEquals("a", ((Metric) samples.get(0)).getKey());
+        assertEquals("b", ((Event) samples.get(1)).getKey());
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        final List<Object> samples = decodeAll("{\"type\": \"batch\", \"metrics\": [{\"type\": \"metric\", "
+                + "\"key\": \"a\", \"tags\": [\"x\"]}, {\"type\": \"metric\", \"key\": \"b\", "
+                + "\"metrics\": [{\"type\": \"metric\", \"key\": \"nested\"}]}]}");
+
+        assertEquals(2, samples.size());
+        assertEquals("a", ((Metric) samples.get(0)).getKey());
+        assertEquals(ImmutableSet.of("x"), ((Metric) samples.get(0)).getRiemann_tags());
+        assertEquals("b", ((Metric) samples.get(1)).getKey());
+        assertTrue(((Metric) samples.get(1)).getRiemann_tags().isEmpty());
+    }
+
+    @Test
+    public void testBatchTruncated() throws Exception {
+        final List<Object> samples = decodeAll("[{\"type\": \"metric\", \"key\": \"a\"}, {\"type\": \"metric\"");
+
+        assertEquals(1, samples.size());
+        assertEquals("a", ((Metric) samples.get(0)).getKey());
+    }
+
+    @Test
+    public void testEmptyBatch() throws Exception {
+        assertTrue(decodeAll("[]").isEmpty());
+        assertTrue(decodeAll("{\"type\": \"batch\"}").isEmpty());
+    }
+
+    private List<Object> decodeAll(final String frame) throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(decoder);
+        channel.writeInbound(Unpooled.wrappedBuffer(frame.getBytes(StandardCharsets.UTF_8)));
+
+        final List<Object> samples = new ArrayList<>();
+
+        Object sample;
+
+        while ((sample = channel.readInbound()) != null)
+            samples.add(sample);
+
+        channel.finish();
+        return samples;
+    }
+
+    private Object decode(final String frame) throws Exception {
+        return decode(Unpooled.wrappedBuffer(frame.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private Object decode(final ByteBuf in) throws Exception {
+        final List<Object> out = new ArrayList<>();
+
+        try {
+            decoder.decode(null, in, out);
+        } finally {
+            in.release();
+        }
+
+        assertEquals(0, in.readableBytes());
+        return out.isEmpty() ? null : out.get(0);
+    }
+}
@@ -0,0 +1,493 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.kafka;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.PartitionInfo;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.spotify.ffwd.model.Event;
+import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.output.BatchedPluginSink;
+import com.spotify.ffwd.serializer.Serializer;
+import com.spotify.ffwd.statistics.OutputPluginStatistics;
+
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.ResolvableFuture;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Kafka sink built on the asynchronous {@link org.apache.kafka.clients.producer.KafkaProducer}.
+ *
+ * Both looking up the partitions of a topic and sending a record might block while the producer waits for metadata,
+ * so records are converted and handed to the producer on the thread pool of the async framework, never on the calling
+ * thread. Partition counts are cached per topic and refreshed by the same threads once they are older than
+ * {@link #PARTITIONS_TTL}.
+ *
+ * Single samples are either handed to the thread pool one at a time, or coalesced through a {@link SampleRingBuffer}
+ * when a buffer size is configured.
+ *
+ * The future returned for a batch is resolved once all of its records have been acknowledged by the brokers, or failed
+ * on the first record that could not be sent.
+ */
+@Slf4j
+public class KafkaAsyncPluginSink implements BatchedPluginSink {
+    static final long PARTITIONS_TTL = TimeUnit.SECONDS.toMillis(30);
+
+    @Inject
+    private AsyncFramework async;
+
+    @Inject
+    private Producer<byte[], byte[]> producer;
+
+    @Inject
+    private KafkaRouter router;
+
+    @Inject
+    private KafkaPartitioner partitioner;
+
+    @Inject
+    private Serializer serializer;
+
+    @Inject
+    private OutputPluginStatistics statistics;
+
+    private final int batchSize;
+    private final int bufferSize;
+    private final SampleRingBuffer.OverflowPolicy overflowPolicy;
+    private final int packSize;
+
+    private volatile SampleRingBuffer buffer;
+
+    private final ConcurrentMap<String, Partitions> partitions = new ConcurrentHashMap<>();
+
+    public KafkaAsyncPluginSink() {
+        this(0, 0, null, 0);
+    }
+
+    /**
+     * @param batchSize Maximum number of buffered samples drained at a time.
+     * @param bufferSize If positive, single samples are put in a buffer of this size and sent in batches by a
+     *            dedicated thread.
+     * @param overflowPolicy What to do when the buffer is full.
+     * @param packSize If positive, batches are sent as {@link KafkaEnvelope}s of up to this many samples that share
+     *            the same topic and partition.
+     */
+    public KafkaAsyncPluginSink(int batchSize, int bufferSize, SampleRingBuffer.OverflowPolicy overflowPolicy,
+            int packSize) {
+        this.batchSize = batchSize;
+        this.bufferSize = bufferSize;
+        this.overflowPolicy = overflowPolicy;
+        this.packSize = packSize;
+    }
+
+    @Override
+    public void init() {
+    }
+
+    @Override
+    public void sendEvent(final Event event) {
+        final SampleRingBuffer buffer = this.buffer;
+
+        if (buffer != null) {
+            buffer.offer(event);
+            return;
+        }
+
+        async.call(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    producer.send(eventConverter.toRecord(event, partitioner), logFailure);
+                } catch (final Exception e) {
+                    log.error("Failed to send event", e);
+                }
+
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void sendMetric(final Metric metric) {
+        final SampleRingBuffer buffer = this.buffer;
+
+        if (buffer != null) {
+            buffer.offer(metric);
+            return;
+        }
+
+        async.call(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    producer.send(metricConverter.toRecord(metric, partitioner), logFailure);
+                } catch (final Exception e) {
+                    log.error("Failed to send metric", e);
+                }
+
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public AsyncFuture<Void> sendEvents(final Collection<Event> events) {
+        if (events.isEmpty())
+            return async.resolved(null);
+
+        final ResolvableFuture<Void> future = async.future();
+
+        async.call(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    final KafkaPartitioner batchPartitioner = nextBatch();
+
+                    if (packSize > 0) {
+                        send(packed(events, eventPacker, batchPartitioner), packConverter, batchPartitioner, future);
+                    } else {
+                        send(events, eventConverter, batchPartitioner, future);
+                    }
+                } catch (final Exception e) {
+                    future.fail(e);
+                }
+
+                return null;
+            }
+        });
+
+        return future;
+    }
+
+    @Override
+    public AsyncFuture<Void> sendMetrics(final Collection<Metric> metrics) {
+        if (metrics.isEmpty())
+            return async.resolved(null);
+
+        final ResolvableFuture<Void> future = async.future();
+
+        async.call(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    final KafkaPartitioner batchPartitioner = nextBatch();
+
+                    if (packSize > 0) {
+                        send(packed(metrics, metricPacker, batchPartitioner), packConverter, batchPartitioner, future);
+                    } else {
+                        send(metrics, metricConverter, batchPartitioner, future);
+                    }
+                } catch (final Exception e) {
+                    future.fail(e);
+                }
+
+                return null;
+            }
+        });
+
+        return future;
+    }
+
+    @Override
+    public AsyncFuture<Void> start() {
+        if (bufferSize > 0) {
+            buffer = new SampleRingBuffer(bufferSize, batchSize, overflowPolicy, drainer, statistics);
+            buffer.start();
+        }
+
+        return async.resolved(null);
+    }
+
+    @Override
+    public AsyncFuture<Void> stop() {
+        return async.call(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                final SampleRingBuffer buffer = KafkaAsyncPluginSink.this.buffer;
+
+                if (buffer != null)
+                    buffer.stop();
+
+                // blocks until all pending records have been sent.
+                producer.close();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Get the partitioner for the samples of a new batch.
+     *
+     * Must be called from the thread that partitions the batch, once per batch.
+     */
+    private KafkaPartitioner nextBatch() {
+        if (partitioner instanceof KafkaPartitioner.BatchAware)
+            return ((KafkaPartitioner.BatchAware) partitioner).nextBatch();
+
+        return partitioner;
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    private <T> void send(final Collection<? extends T> batch, final Converter<T> converter,
+            final KafkaPartitioner partitioner, final ResolvableFuture<Void> future) {
+        final BatchCallback callback = new BatchCallback(future, batch.size());
+
+        for (final T item : batch) {
+            final ProducerRecord<byte[], byte[]> record;
+
+            try {
+                record = converter.toRecord(item, partitioner);
+            } catch (final Exception e) {
+                callback.onCompletion(null, e);
+                continue;
+            }
+
+            try {
+                producer.send(record, callback);
+            } catch (final Exception e) {
+                callback.onCompletion(null, e);
+            }
+        }
+    }
+
+    /**
+     * Group the given samples by topic and partition, and split every group into packs of at most packSize samples.
+     *
+     * Packs are only serialized once they are converted into records.
+     */
+    private <T> List<Pack<T>> packed(final Collection<T> samples, final Packer<T> packer,
+            final KafkaPartitioner partitioner) {
+        final Map<String, Map<Integer, List<T>>> groups = new HashMap<>();
+
+        for (final T sample : samples) {
+            final String topic = packer.topic(sample);
+            final int partition = packer.partition(sample, partitioner, partitions(topic));
+
+            Map<Integer, List<T>> partitions = groups.get(topic);
+
+            if (partitions == null) {
+                partitions = new HashMap<>();
+                groups.put(topic, partitions);
+            }
+
+            List<T> group = partitions.get(partition);
+
+            if (group == null) {
+                group = new ArrayList<>();
+                partitions.put(partition, group);
+            }
+
+            group.add(sample);
+        }
+
+        final List<Pack<T>> packs = new ArrayList<>();
+
+        for (final Map.Entry<String, Map<Integer, List<T>>> topic : groups.entrySet()) {
+            for (final Map.Entry<Integer, List<T>> partition : topic.getValue().entrySet()) {
+                for (final List<T> pack : Lists.partition(partition.getValue(), packSize))
+                    packs.add(new Pack<T>(topic.getKey(), partition.getKey(), pack, packer));
+            }
+        }
+
+        return packs;
+    }
+
+    /**
+     * Number of partitions of the given topic, might block on metadata when the cached count is missing or stale.
+     */
+    private int partitions(final String topic) {
+        final long now = System.currentTimeMillis();
+        final Partitions cached = partitions.get(topic);
+
+        if (cached != null && now - cached.getUpdated() < PARTITIONS_TTL)
+            return cached.getCount();
+
+        final List<PartitionInfo> infos = producer.partitionsFor(topic);
+        partitions.put(topic, new Partitions(infos.size(), now));
+        return infos.size();
+    }
+
+    private final Callback logFailure = new Callback() {
+        @Override
+        public void onCompletion(final RecordMetadata metadata, final Exception e) {
+            if (e != null)
+                log.error("Failed to send record", e);
+        }
+    };
+
+    /**
+     * Sends buffered samples from the thread of the ring buffer, failures are logged per record.
+     */
+    final SampleRingBuffer.Drainer drainer = new SampleRingBuffer.Drainer() {
+        @Override
+        public void drain(final List<Object> batch) throws Exception {
+            final KafkaPartitioner batchPartitioner = nextBatch();
+
+            for (final Object sample : batch) {
+                final ProducerRecord<byte[], byte[]> record;
+
+                if (sample instanceof Metric) {
+                    record = metricConverter.toRecord((Metric) sample, batchPartitioner);
+                } else {
+                    record = eventConverter.toRecord((Event) sample, batchPartitioner);
+                }
+
+                producer.send(record, logFailure);
+            }
+        }
+    };
+
+    final Converter<Metric> metricConverter = new Converter<Metric>() {
+        @Override
+        public ProducerRecord<byte[], byte[]> toRecord(final Metric metric, final KafkaPartitioner partitioner)
+                throws Exception {
+            final String topic = router.route(metric);
+            final int partition = partitioner.partition(metric, partitions(topic));
+            final byte[] payload = serializer.serialize(metric);
+            return new ProducerRecord<byte[], byte[]>(topic, partition, null, payload);
+        }
+    };
+
+    final Converter<Event> eventConverter = new Converter<Event>() {
+        @Override
+        public ProducerRecord<byte[], byte[]> toRecord(final Event event, final KafkaPartitioner partitioner)
+                throws Exception {
+            final String topic = router.route(event);
+            final int partition = partitioner.partition(event, partitions(topic));
+            final byte[] payload = serializer.serialize(event);
+            return new ProducerRecord<byte[], byte[]>(topic, partition, null, payload);
+        }
+    };
+
+    final Converter<Pack<?>> packConverter = new Converter<Pack<?>>() {
+        @Override
+        public ProducerRecord<byte[], byte[]> toRecord(final Pack<?> pack, final KafkaPartitioner partitioner)
+                throws Exception {
+            return new ProducerRecord<byte[], byte[]>(pack.getTopic(), pack.getPartition(), null, pack.serialize());
+        }
+    };
+
+    final Packer<Metric> metricPacker = new Packer<Metric>() {
+        @Override
+        public String topic(final Metric metric) {
+            return router.route(metric);
+        }
+
+        @Override
+        public int partition(final Metric metric, final KafkaPartitioner partitioner, final int partitions) {
+            return partitioner.partition(metric, partitions);
+        }
+
+        @Override
+        public byte[] pack(final List<Metric> metrics) throws Exception {
+            return KafkaEnvelope.packMetrics(serializer, metrics);
+        }
+    };
+
+    final Packer<Event> eventPacker = new Packer<Event>() {
+        @Override
+        public String topic(final Event event) {
+            return router.route(event);
+        }
+
+        @Override
+        public int partition(final Event event, final KafkaPartitioner partitioner, final int partitions) {
+            return partitioner.partition(event, partitions);
+        }
+
+        @Override
+        public byte[] pack(final List<Event> events) throws Exception {
+            return KafkaEnvelope.packEvents(serializer, events);
+        }
+    };
+
+    static interface Converter<T> {
+        ProducerRecord<byte[], byte[]> toRecord(T object, KafkaPartitioner partitioner) throws Exception;
+    }
+
+    static interface Packer<T> {
+        String topic(T sample);
+
+        int partition(T sample, KafkaPartitioner partitioner, int partitions);
+
+        byte[] pack(List<T> samples) throws Exception;
+    }
+
+    @Data
+    static class Partitions {
+        private final int count;
+        private final long updated;
+    }
+
+    @Data
+    static class Pack<T> {
+        private final String topic;
+        private final int partition;
+        private final List<T> samples;
+        private final Packer<T> packer;
+
+        public byte[] serialize() throws Exception {
+            return packer.pack(samples);
+        }
+    }
+
+    /**
+     * Aggregates the acknowledgements of all records in a batch into a single future.
+     */
+    static class BatchCallback implements Callback {
+        private final ResolvableFuture<Void> future;
+        private final AtomicInteger pending;
+        private final AtomicBoolean failed = new AtomicBoolean();
+
+        public BatchCallback(final ResolvableFuture<Void> future, final int size) {
+            this.future = future;
+            this.pending = new AtomicInteger(size);
+        }
+
+        @Override
+        public void onCompletion(final RecordMetadata metadata, final Exception e) {
+            if (e != null && failed.compareAndSet(false, true))
+                future.fail(e);
+
+            if (pending.decrementAndGet() == 0 && !failed.get())
+                future.resolve(null);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.kafka;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.spotify.ffwd.model.Event;
+import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.serializer.BatchSerializer;
+import com.spotify.ffwd.serializer.Serializer;
+
+/**
+ * Envelope that packs many serialized samples into a single Kafka message.
+ *
+ * All integers are big-endian.
+ *
+ * <pre>
+ * | magic | version | count | offsets   | records |
+ * | 4     | 1       | 4     | 4 * count | *       |
+ * </pre>
+ *
+ * The magic is {@code 0x46465742} ("FFWB"), and the version is 1. Every offset is the end of a record, relative to the
+ * start of the records, so record {@code i} spans from offset {@code i - 1} (or 0) to offset {@code i}. Each record is
+ * a sample exactly as it would be encoded by the configured serializer on its own.
+ */
+public final class KafkaEnvelope {
+    public static final int MAGIC = 0x46465742;
+    public static final byte VERSION = 1;
+    public static final int HEADER_SIZE = 9;
+
+    private KafkaEnvelope() {
+    }
+
+    /**
+     * Pack the given metrics into an envelope.
+     */
+    public static byte[] packMetrics(final Serializer serializer, final List<Metric> metrics) throws Exception {
+        final ByteBuf buffer = begin(metrics.size());
+
+        try {
+            final int start = buffer.writerIndex();
+
+            if (serializer instanceof BatchSerializer) {
+                finish(buffer, start, ((BatchSerializer) serializer).serializeMetrics(metrics, buffer));
+            } else {
+                final int[] offsets = new int[metrics.size()];
+
+                for (int i = 0; i < offsets.length; i++) {
+                    buffer.writeBytes(serializer.serialize(metrics.get(i)));
+                    offsets[i] = buffer.writerIndex();
+                }
+
+                finish(buffer, start, offsets);
+            }
+
+            return toByteArray(buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Pack the given events into an envelope.
+     */
+    public static byte[] packEvents(final Serializer serializer, final List<Event> events) throws Exception {
+        final ByteBuf buffer = begin(events.size());
+
+        try {
+            final int start = buffer.writerIndex();
+
+            if (serializer instanceof BatchSerializer) {
+                finish(buffer, start, ((BatchSerializer) serializer).serializeEvents(events, buffer));
+            } else {
+                final int[] offsets = new int[events.size()];
+
+                for (int i = 0; i < offsets.length; i++) {
+                    buffer.writeBytes(serializer.serialize(events.get(i)));
+                    offsets[i] = buffer.writerIndex();
+                }
+
+                finish(buffer, start, offsets);
+            }
+
+            return toByteArray(buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Unpack the records of an envelope.
+     *
+     * @throws IllegalArgumentException If the message is not a valid envelope.
+     */
+    public static List<ByteBuffer> unpack(final byte[] message) {
+        final ByteBuffer b = ByteBuffer.wrap(message);
+
+        if (b.remaining() < HEADER_SIZE || b.getInt() != MAGIC)
+            throw new IllegalArgumentException("Not an envelope");
+
+        final byte version = b.get();
+
+        if (version != VERSION)
+            throw new IllegalArgumentException("Unsupported envelope version: " + version);
+
+        final int count = b.getInt();
+
+        // count * 4 could overflow for corrupt counts.
+        if (count < 0 || count > b.remaining() / 4)
+            throw new IllegalArgumentException("Invalid record count: " + count);
+
+        final int start = HEADER_SIZE + count * 4;
+        final List<ByteBuffer> records = new ArrayList<>(count);
+
+        int previous = 0;
+
+        for (int i = 0; i < count; i++) {
+            final int end = b.getInt(HEADER_SIZE + i * 4);
+
+            if (end < previous || (long) start + end > message.length)
+                throw new IllegalArgumentException("Invalid offset for record #" + i + ": " + end);
+
+            records.add(ByteBuffer.wrap(message, start + previous, end - previous).slice());
+            previous = end;
+        }
+
+        return records;
+    }
+
+    private static ByteBuf begin(final int count) {
+        final ByteBuf buffer = PooledByteBufAllocator.DEFAULT.heapBuffer();
+        buffer.writeInt(MAGIC);
+        buffer.writeByte(VERSION);
+        buffer.writeInt(count);
+        // reserve space for the offsets, they are written when the records are known.
+        buffer.writeZero(count * 4);
+        return buffer;
+    }
+
+    private static void finish(final ByteBuf buffer, final int start, final int[] offsets) {
+        for (int i = 0; i < offsets.length; i++)
+            buffer.setInt(HEADER_SIZE + i * 4, offsets[i] - start);
+    }
+
+    private static byte[] toByteArray(final ByteBuf buffer) {
+        final byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.getBytes(buffer.readerIndex(), bytes);
+        return bytes;
+    }
+}
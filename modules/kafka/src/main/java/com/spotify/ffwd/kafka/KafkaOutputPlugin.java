@@ -20,14 +20,19 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.inject.Key;
 import com.google.inject.Module;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
 import com.google.inject.name.Names;
+import com.spotify.ffwd.kafka.SampleRingBuffer.OverflowPolicy;
 import com.spotify.ffwd.output.BatchedPluginSink;
 import com.spotify.ffwd.output.FlushingPluginSink;
 import com.spotify.ffwd.output.OutputPlugin;
@@ -41,28 +46,58 @@ import kafka.producer.ProducerConfig;
 public class KafkaOutputPlugin implements OutputPlugin {
     public static final int DEFAULT_BATCH_SIZE = 1000;
     public static final boolean DEFAULT_COMPRESSION = true;
+    public static final Mode DEFAULT_MODE = Mode.LEGACY;
+    public static final long DEFAULT_LINGER_MS = 5;
+    public static final int DEFAULT_BATCH_BYTES = 64 * 1024;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 5;
+    public static final int DEFAULT_BUFFER_SIZE = 0;
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.DROP_OLDEST;
+    public static final int DEFAULT_PACK_SIZE = 0;
 
     private final KafkaRouter router;
     private final KafkaPartitioner partitioner;
     private final Map<String, String> properties;
     private final Long flushInterval;
+    private final int flushStripes;
     private final Serializer serializer;
     private final int batchSize;
     private final boolean compression;
+    private final Mode mode;
+    private final long lingerMs;
+    private final int batchBytes;
+    private final String compressionType;
+    private final int maxInFlight;
+    private final int bufferSize;
+    private final OverflowPolicy overflowPolicy;
+    private final int packSize;
 
     @JsonCreator
     public KafkaOutputPlugin(@JsonProperty("producer") Map<String, String> properties,
             @JsonProperty("flushInterval") Long flushInterval, @JsonProperty("router") KafkaRouter router,
             @JsonProperty("partitioner") KafkaPartitioner partitioner,
             @JsonProperty("serializer") Serializer serializer, @JsonProperty("batchSize") Integer batchSize,
-            @JsonProperty("compression") Boolean compression) {
+            @JsonProperty("compression") Boolean compression, @JsonProperty("flushStripes") Integer flushStripes,
+            @JsonProperty("mode") String mode, @JsonProperty("lingerMs") Long lingerMs,
+            @JsonProperty("batchBytes") Integer batchBytes, @JsonProperty("compressionType") String compressionType,
+            @JsonProperty("maxInFlight") Integer maxInFlight, @JsonProperty("bufferSize") Integer bufferSize,
+            @JsonProperty("overflowPolicy") String overflowPolicy, @JsonProperty("packSize") Integer packSize) {
         this.router = Optional.fromNullable(router).or(KafkaRouter.Tag.supplier());
         this.partitioner = Optional.fromNullable(partitioner).or(KafkaPartitioner.Host.supplier());
         this.flushInterval = Optional.fromNullable(flushInterval).orNull();
+        this.flushStripes = Optional.fromNullable(flushStripes).or(FlushingPluginSink.DEFAULT_STRIPES);
         this.properties = Optional.fromNullable(properties).or(new HashMap<String, String>());
         this.serializer = Optional.fromNullable(serializer).orNull();
         this.batchSize = Optional.fromNullable(batchSize).or(DEFAULT_BATCH_SIZE);
         this.compression = Optional.fromNullable(compression).or(DEFAULT_COMPRESSION);
+        this.mode = Optional.fromNullable(mode).transform(Mode.parse()).or(DEFAULT_MODE);
+        this.lingerMs = Optional.fromNullable(lingerMs).or(DEFAULT_LINGER_MS);
+        this.batchBytes = Optional.fromNullable(batchBytes).or(DEFAULT_BATCH_BYTES);
+        this.compressionType = Optional.fromNullable(compressionType).or(this.compression ? "gzip" : "none");
+        this.maxInFlight = Optional.fromNullable(maxInFlight).or(DEFAULT_MAX_IN_FLIGHT);
+        this.bufferSize = Optional.fromNullable(bufferSize).or(DEFAULT_BUFFER_SIZE);
+        this.overflowPolicy = Optional.fromNullable(overflowPolicy).transform(OverflowPolicy.parse())
+                .or(DEFAULT_OVERFLOW_POLICY);
+        this.packSize = Optional.fromNullable(packSize).or(DEFAULT_PACK_SIZE);
     }
 
     @Override
@@ -85,6 +120,19 @@ public class KafkaOutputPlugin implements OutputPlugin {
                 return new Producer<Integer, byte[]>(config);
             }
 
+            @Provides
+            @Singleton
+            public org.apache.kafka.clients.producer.Producer<byte[], byte[]> asyncProducer() {
+                final Properties props = new Properties();
+                props.putAll(properties);
+                props.put("linger.ms", Long.toString(lingerMs));
+                props.put("batch.size", Integer.toString(batchBytes));
+                props.put("compression.type", compressionType);
+                props.put("max.in.flight.requests.per.connection", Integer.toString(maxInFlight));
+
+                return new KafkaProducer<byte[], byte[]>(props, new ByteArraySerializer(), new ByteArraySerializer());
+            }
+
             @Override
             protected void configure() {
                 bind(KafkaRouter.class).toInstance(router);
@@ -98,10 +146,12 @@ public class KafkaOutputPlugin implements OutputPlugin {
                 }
 
                 if (flushInterval != null) {
-                    bind(BatchedPluginSink.class).toInstance(new KafkaPluginSink(batchSize));
-                    bind(key).toInstance(new FlushingPluginSink(flushInterval));
+                    bind(BatchedPluginSink.class).toInstance(sink());
+                    bind(key).toInstance(new FlushingPluginSink(flushInterval,
+                            FlushingPluginSink.DEFAULT_BATCH_SIZE_LIMIT, FlushingPluginSink.DEFAULT_MAX_PENDING_FLUSHES,
+                            flushStripes));
                 } else {
-                    bind(key).toInstance(new KafkaPluginSink(batchSize));
+                    bind(key).toInstance(sink());
                 }
 
                 expose(key);
@@ -109,6 +159,13 @@ public class KafkaOutputPlugin implements OutputPlugin {
         };
     }
 
+    private BatchedPluginSink sink() {
+        if (mode == Mode.ASYNC)
+            return new KafkaAsyncPluginSink(batchSize, bufferSize, overflowPolicy, packSize);
+
+        return new KafkaPluginSink(batchSize, bufferSize, overflowPolicy, packSize);
+    }
+
     @Override
     public String id(int index) {
         final String brokers = properties.get("metadata.broker.list");
@@ -116,6 +173,41 @@ public class KafkaOutputPlugin implements OutputPlugin {
         if (brokers != null)
             return brokers;
 
+        final String servers = properties.get("bootstrap.servers");
+
+        if (servers != null)
+            return servers;
+
         return Integer.toString(index);
     }
-}
\ No newline at end of file
+
+    /**
+     * Which producer implementation to use.
+     */
+    public static enum Mode {
+        /**
+         * Blocking producer, batches are sent from the async thread pool.
+         */
+        LEGACY,
+        /**
+         * Asynchronous producer, each batch completes when all of its records have been acknowledged.
+         */
+        ASYNC;
+
+        public static Function<String, Mode> parse() {
+            return new Function<String, Mode>() {
+                @Override
+                public Mode apply(final String input) {
+                    final String value = input.toUpperCase();
+
+                    for (final Mode mode : values()) {
+                        if (mode.name().equals(value))
+                            return mode;
+                    }
+
+                    throw new IllegalArgumentException("Invalid kafka producer mode: " + input);
+                }
+            };
+        }
+    }
+}
@@ -16,24 +16,54 @@
  **/
 package com.spotify.ffwd.kafka;
 
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
 import com.spotify.ffwd.model.Event;
 import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.model.SeriesKey;
 
+/**
+ * Selects the partition that a sample is sent to.
+ *
+ * {@link #partition(Metric)} returns a partition key, which the legacy producer maps to a partition through
+ * {@link IntegerPartitioner}. Sinks that know the number of partitions of the topic use
+ * {@link #partition(Metric, int)} instead.
+ */
 @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "type")
 @JsonSubTypes({ @JsonSubTypes.Type(value = KafkaPartitioner.Tag.class, name = "tag"),
     @JsonSubTypes.Type(value = KafkaPartitioner.Hashed.class, name = "static"),
-    @JsonSubTypes.Type(value = KafkaPartitioner.Host.class, name = "host")})
+    @JsonSubTypes.Type(value = KafkaPartitioner.Host.class, name = "host"),
+    @JsonSubTypes.Type(value = KafkaPartitioner.Series.class, name = "series"),
+    @JsonSubTypes.Type(value = KafkaPartitioner.Sticky.class, name = "sticky")})
 public interface KafkaPartitioner {
     public int partition(final Event event);
 
     public int partition(final Metric metric);
 
+    /**
+     * Select a partition for the given event.
+     *
+     * @param partitions Number of partitions of the topic.
+     * @return A partition between 0 (inclusive) and {@code partitions} (exclusive).
+     */
+    public int partition(final Event event, final int partitions);
+
+    /**
+     * Select a partition for the given metric.
+     *
+     * @param partitions Number of partitions of the topic.
+     * @return A partition between 0 (inclusive) and {@code partitions} (exclusive).
+     */
+    public int partition(final Metric metric, final int partitions);
+
     public static class Host implements KafkaPartitioner {
         @JsonCreator
         public Host() {
@@ -49,6 +79,16 @@ public interface KafkaPartitioner {
             return metric.getHost().hashCode();
         }
 
+        @Override
+        public int partition(final Event event, final int partitions) {
+            return Math.abs(partition(event) % partitions);
+        }
+
+        @Override
+        public int partition(final Metric metric, final int partitions) {
+            return Math.abs(partition(metric) % partitions);
+        }
+
         public static Supplier<KafkaPartitioner> supplier() {
             return new Supplier<KafkaPartitioner>() {
                 @Override
@@ -61,12 +101,15 @@ public interface KafkaPartitioner {
 
     public static class Tag implements KafkaPartitioner {
         private static final String DEFAULT_TAGKEY = "site";
+        private static final Fallback DEFAULT_FALLBACK = Fallback.SERIES;
 
         private final String tagKey;
+        private final Fallback fallback;
 
         @JsonCreator
-        public Tag(@JsonProperty("tag") final String tagKey) {
+        public Tag(@JsonProperty("tag") final String tagKey, @JsonProperty("fallback") final String fallback) {
             this.tagKey = Optional.fromNullable(tagKey).or(DEFAULT_TAGKEY);
+            this.fallback = Optional.fromNullable(fallback).transform(Fallback.parse()).or(DEFAULT_FALLBACK);
         }
 
         @Override
@@ -76,6 +119,9 @@ public interface KafkaPartitioner {
             if (tagValue != null)
                 return tagValue.hashCode();
 
+            if (fallback == Fallback.SERIES)
+                return Series.hash(Series.hash(event));
+
             throw new IllegalArgumentException(String.format("missing tag '%s' for event %s", tagKey, event));
         }
 
@@ -86,17 +132,60 @@ public interface KafkaPartitioner {
             if (tagValue != null)
                 return tagValue.hashCode();
 
+            if (fallback == Fallback.SERIES)
+                return Series.hash(metric.getSeries().hash());
+
             throw new IllegalArgumentException(String.format("missing tag '%s' for metric %s", tagKey, metric));
         }
 
+        @Override
+        public int partition(final Event event, final int partitions) {
+            return Math.abs(partition(event) % partitions);
+        }
+
+        @Override
+        public int partition(final Metric metric, final int partitions) {
+            return Math.abs(partition(metric) % partitions);
+        }
+
         public static Supplier<KafkaPartitioner> supplier() {
             return new Supplier<KafkaPartitioner>() {
                 @Override
                 public KafkaPartitioner get() {
-                    return new Tag(null);
+                    return new Tag(null, null);
                 }
             };
         }
+
+        /**
+         * What to do with samples that are missing the tag.
+         */
+        public static enum Fallback {
+            /**
+             * Partition on the series of the sample.
+             */
+            SERIES,
+            /**
+             * Fail to send the sample.
+             */
+            ERROR;
+
+            public static Function<String, Fallback> parse() {
+                return new Function<String, Fallback>() {
+                    @Override
+                    public Fallback apply(final String input) {
+                        final String value = input.toUpperCase();
+
+                        for (final Fallback fallback : values()) {
+                            if (fallback.name().equals(value))
+                                return fallback;
+                        }
+
+                        throw new IllegalArgumentException("Invalid fallback: " + input);
+                    }
+                };
+            }
+        }
     }
 
     public static class Hashed implements KafkaPartitioner {
@@ -111,7 +200,17 @@ public interface KafkaPartitioner {
 
         @Override
         public int partition(final Metric metric) {
-            return metric.hashCode();
+            return metric.getSeries().hashCode();
+        }
+
+        @Override
+        public int partition(final Event event, final int partitions) {
+            return Math.abs(partition(event) % partitions);
+        }
+
+        @Override
+        public int partition(final Metric metric, final int partitions) {
+            return Math.abs(partition(metric) % partitions);
         }
 
         public static Supplier<KafkaPartitioner> supplier() {
@@ -123,4 +222,190 @@ public interface KafkaPartitioner {
             };
         }
     }
+
+    /**
+     * Partitions on the 64-bit hash of the series of a sample.
+     *
+     * When the number of partitions is known, partitions are selected with a jump consistent hash, so that only a
+     * minimal number of series move when partitions are added.
+     */
+    public static class Series implements KafkaPartitioner {
+        @JsonCreator
+        public Series() {
+        }
+
+        @Override
+        public int partition(final Event event) {
+            return hash(hash(event));
+        }
+
+        @Override
+        public int partition(final Metric metric) {
+            return hash(metric.getSeries().hash());
+        }
+
+        @Override
+        public int partition(final Event event, final int partitions) {
+            return jump(hash(event), partitions);
+        }
+
+        @Override
+        public int partition(final Metric metric, final int partitions) {
+            return jump(metric.getSeries().hash(), partitions);
+        }
+
+        static long hash(final Event event) {
+            return new SeriesKey(event.getKey(), event.getRiemann_tags(), event.getTags()).hash();
+        }
+
+        static int hash(final long hash) {
+            return (int) (hash ^ (hash >>> 32));
+        }
+
+        /**
+         * Jump consistent hash, as described by Lamping and Veach.
+         */
+        static int jump(long key, final int buckets) {
+            long b = -1;
+            long j = 0;
+
+            while (j < buckets) {
+                b = j;
+                key = key * 2862933555777941757L + 1;
+                j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+            }
+
+            return (int) b;
+        }
+
+        public static Supplier<KafkaPartitioner> supplier() {
+            return new Supplier<KafkaPartitioner>() {
+                @Override
+                public KafkaPartitioner get() {
+                    return new Series();
+                }
+            };
+        }
+    }
+
+    /**
+     * Implemented by partitioners that select partitions per batch, rather than per sample.
+     */
+    public static interface BatchAware {
+        /**
+         * Get the partitioner for the samples of a new batch.
+         *
+         * Sinks call this once per batch, from the thread that partitions it. The returned partitioner is only used for
+         * that batch, so concurrent batches do not affect each other.
+         */
+        public KafkaPartitioner nextBatch();
+    }
+
+    /**
+     * Sends all samples of a batch to the same partition, then moves on to the next partition for the next batch.
+     *
+     * This gives fewer and larger produce requests, which also compress better, at the cost of samples of a series
+     * being spread over all partitions. A batch is never split over partitions. Samples that are not sent in batches
+     * move on to the next partition after {@code maxSamples} samples.
+     */
+    public static class Sticky implements KafkaPartitioner, BatchAware {
+        private static final int DEFAULT_MAX_SAMPLES = 1000;
+
+        private final int maxSamples;
+
+        private final AtomicInteger next = new AtomicInteger(new Random().nextInt(Integer.MAX_VALUE));
+
+        // partition of samples that are not sent in batches.
+        private final AtomicInteger current = new AtomicInteger(next.getAndIncrement());
+        private final AtomicInteger count = new AtomicInteger();
+
+        /**
+         * @param maxSamples Maximum number of samples that are not sent in batches to send to the same partition.
+         */
+        @JsonCreator
+        public Sticky(@JsonProperty("maxSamples") final Integer maxSamples) {
+            this.maxSamples = Optional.fromNullable(maxSamples).or(DEFAULT_MAX_SAMPLES);
+
+            if (this.maxSamples <= 0)
+                throw new IllegalArgumentException("maxSamples must be positive");
+        }
+
+        @Override
+        public KafkaPartitioner nextBatch() {
+            return new Pinned(next.getAndIncrement() & Integer.MAX_VALUE);
+        }
+
+        @Override
+        public int partition(final Event event) {
+            return current();
+        }
+
+        @Override
+        public int partition(final Metric metric) {
+            return current();
+        }
+
+        @Override
+        public int partition(final Event event, final int partitions) {
+            return current() % partitions;
+        }
+
+        @Override
+        public int partition(final Metric metric, final int partitions) {
+            return current() % partitions;
+        }
+
+        private int current() {
+            final int n = count.getAndIncrement();
+
+            // only the thread that reaches the limit selects the next partition.
+            if (n > 0 && n % maxSamples == 0) {
+                final int partition = next.getAndIncrement();
+                current.set(partition);
+                return partition & Integer.MAX_VALUE;
+            }
+
+            return current.get() & Integer.MAX_VALUE;
+        }
+
+        public static Supplier<KafkaPartitioner> supplier() {
+            return new Supplier<KafkaPartitioner>() {
+                @Override
+                public KafkaPartitioner get() {
+                    return new Sticky(null);
+                }
+            };
+        }
+    }
+
+    /**
+     * Sends all samples to a single partition, used by {@link Sticky} for the samples of one batch.
+     */
+    public static class Pinned implements KafkaPartitioner {
+        private final int partition;
+
+        public Pinned(final int partition) {
+            this.partition = partition;
+        }
+
+        @Override
+        public int partition(final Event event) {
+            return partition;
+        }
+
+        @Override
+        public int partition(final Metric metric) {
+            return partition;
+        }
+
+        @Override
+        public int partition(final Event event, final int partitions) {
+            return partition % partitions;
+        }
+
+        @Override
+        public int partition(final Metric metric, final int partitions) {
+            return partition % partitions;
+        }
+    }
 }
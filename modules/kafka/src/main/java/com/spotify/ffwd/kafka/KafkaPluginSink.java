@@ -18,24 +18,30 @@ package com.spotify.ffwd.kafka;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
+import com.google.common.base.Function;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.spotify.ffwd.model.Event;
 import com.spotify.ffwd.model.Metric;
 import com.spotify.ffwd.output.BatchedPluginSink;
 import com.spotify.ffwd.serializer.Serializer;
+import com.spotify.ffwd.statistics.OutputPluginStatistics;
 
 import eu.toolchain.async.AsyncFramework;
 import eu.toolchain.async.AsyncFuture;
 import kafka.javaapi.producer.Producer;
 import kafka.producer.KeyedMessage;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -55,10 +61,33 @@ public class KafkaPluginSink implements BatchedPluginSink {
     @Inject
     private Serializer serializer;
 
+    @Inject
+    private OutputPluginStatistics statistics;
+
     private final int batchSize;
+    private final int bufferSize;
+    private final SampleRingBuffer.OverflowPolicy overflowPolicy;
+    private final int packSize;
+
+    private volatile SampleRingBuffer buffer;
 
     public KafkaPluginSink(int batchSize) {
+        this(batchSize, 0, null, 0);
+    }
+
+    /**
+     * @param bufferSize If positive, single samples are put in a buffer of this size and sent in batches by a
+     *            dedicated thread.
+     * @param overflowPolicy What to do when the buffer is full.
+     * @param packSize If positive, batches are sent as {@link KafkaEnvelope}s of up to this many samples that share
+     *            the same topic and partition key.
+     */
+    public KafkaPluginSink(int batchSize, int bufferSize, SampleRingBuffer.OverflowPolicy overflowPolicy,
+            int packSize) {
         this.batchSize = batchSize;
+        this.bufferSize = bufferSize;
+        this.overflowPolicy = overflowPolicy;
+        this.packSize = packSize;
     }
 
     @Override
@@ -67,10 +96,17 @@ public class KafkaPluginSink implements BatchedPluginSink {
 
     @Override
     public void sendEvent(final Event event) {
+        final SampleRingBuffer buffer = this.buffer;
+
+        if (buffer != null) {
+            buffer.offer(event);
+            return;
+        }
+
         async.call(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
-                producer.send(eventConverter.toMessage(event));
+                producer.send(eventConverter.toMessage(event, partitioner));
                 return null;
             }
         });
@@ -78,10 +114,17 @@ public class KafkaPluginSink implements BatchedPluginSink {
 
     @Override
     public void sendMetric(final Metric metric) {
+        final SampleRingBuffer buffer = this.buffer;
+
+        if (buffer != null) {
+            buffer.offer(metric);
+            return;
+        }
+
         async.call(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
-                producer.send(metricConverter.toMessage(metric));
+                producer.send(metricConverter.toMessage(metric, partitioner));
                 return null;
             }
         });
@@ -89,7 +132,12 @@ public class KafkaPluginSink implements BatchedPluginSink {
 
     @Override
     public AsyncFuture<Void> sendEvents(final Collection<Event> events) {
-        return send(toBatches(iteratorFor(events, eventConverter)));
+        final KafkaPartitioner batchPartitioner = nextBatch();
+
+        if (packSize > 0)
+            return send(toBatches(packed(events, eventPacker, batchPartitioner)));
+
+        return send(toBatches(iteratorFor(events, eventConverter, batchPartitioner)));
     }
 
     private AsyncFuture<Void> send(final Iterator<List<KeyedMessage<Integer, byte[]>>> batches) {
@@ -116,11 +164,23 @@ public class KafkaPluginSink implements BatchedPluginSink {
 
     @Override
     public AsyncFuture<Void> sendMetrics(final Collection<Metric> metrics) {
-        return send(toBatches(iteratorFor(metrics, metricConverter)));
+        final KafkaPartitioner batchPartitioner = nextBatch();
+
+        if (packSize > 0)
+            return send(toBatches(packed(metrics, metricPacker, batchPartitioner)));
+
+        // the legacy producer needs a byte[] per record, so records are serialized into their own arrays rather than
+        // through a shared batch buffer, which would add a copy per record.
+        return send(toBatches(iteratorFor(metrics, metricConverter, batchPartitioner)));
     }
 
     @Override
     public AsyncFuture<Void> start() {
+        if (bufferSize > 0) {
+            buffer = new SampleRingBuffer(bufferSize, batchSize, overflowPolicy, drainer, statistics);
+            buffer.start();
+        }
+
         return async.resolved(null);
     }
 
@@ -129,12 +189,27 @@ public class KafkaPluginSink implements BatchedPluginSink {
         return async.call(new Callable<Void>() {
             @Override
             public Void call() throws Exception {
+                final SampleRingBuffer buffer = KafkaPluginSink.this.buffer;
+
+                if (buffer != null)
+                    buffer.stop();
+
                 producer.close();
                 return null;
             }
         });
     }
 
+    /**
+     * Get the partitioner for the samples of a new batch, which is captured once per batch.
+     */
+    private KafkaPartitioner nextBatch() {
+        if (partitioner instanceof KafkaPartitioner.BatchAware)
+            return ((KafkaPartitioner.BatchAware) partitioner).nextBatch();
+
+        return partitioner;
+    }
+
     @Override
     public boolean isReady() {
         // TODO: how to check that producer is ready?
@@ -153,9 +228,117 @@ public class KafkaPluginSink implements BatchedPluginSink {
         return Iterators.partition(iterator, batchSize);
     }
 
+    /**
+     * Group the given samples by topic and partition key, and pack every group into envelopes of at most packSize
+     * samples.
+     *
+     * Samples are grouped eagerly, but envelopes are only serialized when the returned iterator is consumed.
+     */
+    private <T> Iterator<KeyedMessage<Integer, byte[]>> packed(final Collection<T> samples, final Packer<T> packer,
+            final KafkaPartitioner partitioner) {
+        final Map<String, Map<Integer, List<T>>> groups = new HashMap<>();
+
+        for (final T sample : samples) {
+            final String topic = packer.topic(sample);
+            final int partition = packer.partition(sample, partitioner);
+
+            Map<Integer, List<T>> partitions = groups.get(topic);
+
+            if (partitions == null) {
+                partitions = new HashMap<>();
+                groups.put(topic, partitions);
+            }
+
+            List<T> group = partitions.get(partition);
+
+            if (group == null) {
+                group = new ArrayList<>();
+                partitions.put(partition, group);
+            }
+
+            group.add(sample);
+        }
+
+        final List<Pack<T>> packs = new ArrayList<>();
+
+        for (final Map.Entry<String, Map<Integer, List<T>>> topic : groups.entrySet()) {
+            for (final Map.Entry<Integer, List<T>> partition : topic.getValue().entrySet()) {
+                for (final List<T> pack : Lists.partition(partition.getValue(), packSize))
+                    packs.add(new Pack<T>(topic.getKey(), partition.getKey(), pack));
+            }
+        }
+
+        return Iterators.transform(packs.iterator(),
+                new Function<Pack<T>, KeyedMessage<Integer, byte[]>>() {
+                    @Override
+                    public KeyedMessage<Integer, byte[]> apply(final Pack<T> pack) {
+                        try {
+                            return new KeyedMessage<>(pack.getTopic(), pack.getPartition(),
+                                    packer.pack(pack.getSamples()));
+                        } catch (final Exception e) {
+                            throw new RuntimeException("Failed to pack samples", e);
+                        }
+                    }
+                });
+    }
+
+    final Packer<Metric> metricPacker = new Packer<Metric>() {
+        @Override
+        public String topic(final Metric metric) {
+            return router.route(metric);
+        }
+
+        @Override
+        public int partition(final Metric metric, final KafkaPartitioner partitioner) {
+            return partitioner.partition(metric);
+        }
+
+        @Override
+        public byte[] pack(final List<Metric> metrics) throws Exception {
+            return KafkaEnvelope.packMetrics(serializer, metrics);
+        }
+    };
+
+    final Packer<Event> eventPacker = new Packer<Event>() {
+        @Override
+        public String topic(final Event event) {
+            return router.route(event);
+        }
+
+        @Override
+        public int partition(final Event event, final KafkaPartitioner partitioner) {
+            return partitioner.partition(event);
+        }
+
+        @Override
+        public byte[] pack(final List<Event> events) throws Exception {
+            return KafkaEnvelope.packEvents(serializer, events);
+        }
+    };
+
+    final SampleRingBuffer.Drainer drainer = new SampleRingBuffer.Drainer() {
+        @Override
+        public void drain(final List<Object> batch) throws Exception {
+            final KafkaPartitioner batchPartitioner = nextBatch();
+
+            final List<KeyedMessage<Integer, byte[]>> messages = new ArrayList<>(batch.size());
+
+            for (final Object sample : batch) {
+                if (sample instanceof Metric) {
+                    messages.add(metricConverter.toMessage((Metric) sample, batchPartitioner));
+                } else {
+                    messages.add(eventConverter.toMessage((Event) sample, batchPartitioner));
+                }
+            }
+
+            producer.send(messages);
+        }
+    };
+
     final Converter<Metric> metricConverter = new Converter<Metric>() {
         @Override
-        public KeyedMessage<Integer, byte[]> toMessage(final Metric metric) throws Exception {
+        public KeyedMessage<Integer, byte[]> toMessage(final Metric metric, final KafkaPartitioner partitioner)
+                throws Exception {
             final String topic = router.route(metric);
             final int partition = partitioner.partition(metric);
             final byte[] payload = serializer.serialize(metric);
@@ -165,7 +348,8 @@ public class KafkaPluginSink implements BatchedPluginSink {
 
     final Converter<Event> eventConverter = new Converter<Event>() {
         @Override
-        public KeyedMessage<Integer, byte[]> toMessage(final Event event) throws Exception {
+        public KeyedMessage<Integer, byte[]> toMessage(final Event event, final KafkaPartitioner partitioner)
+                throws Exception {
             final String topic = router.route(event);
             final int partition = partitioner.partition(event);
             final byte[] payload = serializer.serialize(event);
@@ -173,7 +357,8 @@ public class KafkaPluginSink implements BatchedPluginSink {
         }
     };
 
-    final <T> Iterator<KeyedMessage<Integer, byte[]>> iteratorFor(Iterable<? extends T> iterable, final Converter<T> converter) {
+    final <T> Iterator<KeyedMessage<Integer, byte[]>> iteratorFor(Iterable<? extends T> iterable, final Converter<T> converter,
+            final KafkaPartitioner partitioner) {
         final Iterator<? extends T> iterator = iterable.iterator();
 
         return new Iterator<KeyedMessage<Integer, byte[]>>() {
@@ -185,7 +370,7 @@ public class KafkaPluginSink implements BatchedPluginSink {
             @Override
             public KeyedMessage<Integer, byte[]> next() {
                 try {
-                    return converter.toMessage(iterator.next());
+                    return converter.toMessage(iterator.next(), partitioner);
                 } catch (final Exception e) {
                     throw new RuntimeException("Failed to produce next element", e);
                 }
@@ -198,6 +383,21 @@ public class KafkaPluginSink implements BatchedPluginSink {
     }
 
     static interface Converter<T> {
-        KeyedMessage<Integer, byte[]> toMessage(T object) throws Exception;
+        KeyedMessage<Integer, byte[]> toMessage(T object, KafkaPartitioner partitioner) throws Exception;
+    }
+
+    static interface Packer<T> {
+        String topic(T sample);
+
+        int partition(T sample, KafkaPartitioner partitioner);
+
+        byte[] pack(List<T> samples) throws Exception;
+    }
+
+    @Data
+    static class Pack<T> {
+        private final String topic;
+        private final int partition;
+        private final List<T> samples;
     }
 }
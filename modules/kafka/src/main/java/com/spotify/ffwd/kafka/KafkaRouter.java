@@ -16,6 +16,11 @@
  **/
 package com.spotify.ffwd.kafka;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
@@ -27,7 +32,8 @@ import com.spotify.ffwd.model.Metric;
 
 @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "type")
 @JsonSubTypes({ @JsonSubTypes.Type(value = KafkaRouter.Tag.class, name = "tag"),
-        @JsonSubTypes.Type(value = KafkaRouter.Static.class, name = "static") })
+        @JsonSubTypes.Type(value = KafkaRouter.Static.class, name = "static"),
+        @JsonSubTypes.Type(value = KafkaRouter.Template.class, name = "template") })
 public interface KafkaRouter {
     public String route(final Event event);
 
@@ -43,39 +49,118 @@ public interface KafkaRouter {
         private final String metrics;
         private final String events;
 
+        private final TopicTemplate metricsTemplate;
+        private final TopicTemplate eventsTemplate;
+
+        // resolved topics by tag value.
+        private final ConcurrentMap<String, String> metricTopics = TopicTemplate.cache();
+        private final ConcurrentMap<String, String> eventTopics = TopicTemplate.cache();
+
         @JsonCreator
         public Tag(@JsonProperty("tag") final String tagKey, @JsonProperty("metrics") String metrics,
                    @JsonProperty("events") String events) {
             this.tagKey = Optional.fromNullable(tagKey).or(DEFAULT_TAGKEY);
             this.metrics = Optional.fromNullable(metrics).or(DEFAULT_METRICS);
             this.events = Optional.fromNullable(events).or(DEFAULT_EVENTS);
+            this.metricsTemplate = TopicTemplate.format(this.metrics);
+            this.eventsTemplate = TopicTemplate.format(this.events);
         }
 
         @Override
         public String route(final Event event) {
-            final String tagValue = event.getTags().get(tagKey);
+            return route(eventTopics, eventsTemplate, events, event.getTags());
+        }
+
+        @Override
+        public String route(final Metric metric) {
+            return route(metricTopics, metricsTemplate, metrics, metric.getTags());
+        }
+
+        private String route(final ConcurrentMap<String, String> topics, final TopicTemplate template,
+                final String format, final Map<String, String> tags) {
+            final String tagValue = tags.get(tagKey);
+            final String value = tagValue != null ? tagValue : DEFAULT;
+
+            final String topic = topics.get(value);
+
+            if (topic != null)
+                return topic;
+
+            // formats that can not be compiled are still supported, but only rendered once per tag value.
+            final String resolved = template != null ? template.render(value) : String.format(format, value);
+            final String existing = topics.putIfAbsent(value, resolved);
+            return existing != null ? existing : resolved;
+        }
+
+        public static Supplier<KafkaRouter> supplier() {
+            return new Supplier<KafkaRouter>() {
+                @Override
+                public KafkaRouter get() {
+                    return new Tag(null, null, null);
+                }
+            };
+        }
+    }
+
+    /**
+     * Routes using templates with named placeholders for tags, like {@code metrics-{site}-{role}}.
+     *
+     * Tags that are missing are replaced with {@code default}.
+     */
+    public static class Template implements KafkaRouter {
+        private static final String DEFAULT = "default";
+        private static final String DEFAULT_METRICS = "metrics-{site}";
+        private static final String DEFAULT_EVENTS = "events-{site}";
+
+        private final TopicTemplate metrics;
+        private final TopicTemplate events;
+
+        // resolved topics by the list of tag values.
+        private final ConcurrentMap<List<String>, String> metricTopics = TopicTemplate.cache();
+        private final ConcurrentMap<List<String>, String> eventTopics = TopicTemplate.cache();
 
-            if (tagValue != null)
-                return String.format(events, tagValue);
+        @JsonCreator
+        public Template(@JsonProperty("metrics") String metrics, @JsonProperty("events") String events) {
+            this.metrics = TopicTemplate.parse(Optional.fromNullable(metrics).or(DEFAULT_METRICS));
+            this.events = TopicTemplate.parse(Optional.fromNullable(events).or(DEFAULT_EVENTS));
+        }
 
-            return String.format(events, DEFAULT);
+        @Override
+        public String route(final Event event) {
+            return route(eventTopics, events, event.getTags());
         }
 
         @Override
         public String route(final Metric metric) {
-            final String tagValue = metric.getTags().get(tagKey);
+            return route(metricTopics, metrics, metric.getTags());
+        }
 
-            if (tagValue != null)
-                return String.format(metrics, tagValue);
+        private String route(final ConcurrentMap<List<String>, String> topics, final TopicTemplate template,
+                final Map<String, String> tags) {
+            final List<String> names = template.tags();
+            final String[] values = new String[names.size()];
 
-            return String.format(metrics, DEFAULT);
+            for (int i = 0; i < values.length; i++) {
+                final String value = tags.get(names.get(i));
+                values[i] = value != null ? value : DEFAULT;
+            }
+
+            final List<String> key = Arrays.asList(values);
+            final String topic = topics.get(key);
+
+            if (topic != null)
+                return topic;
+
+            final String resolved = template.render(values);
+            final String existing = topics.putIfAbsent(key, resolved);
+            return existing != null ? existing : resolved;
         }
 
         public static Supplier<KafkaRouter> supplier() {
             return new Supplier<KafkaRouter>() {
                 @Override
                 public KafkaRouter get() {
-                    return new Tag(null, null, null);
+                    return new Template(null, null);
                 }
             };
         }
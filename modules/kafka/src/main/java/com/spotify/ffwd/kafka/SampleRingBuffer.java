@@ -0,0 +1,219 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.kafka;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Function;
+import com.spotify.ffwd.statistics.OutputPluginStatistics;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bounded buffer of single samples, drained in batches by a dedicated thread.
+ *
+ * Used to coalesce samples sent one at a time into producer batches, without allocating a task per sample.
+ *
+ * Samples offered before the buffer is started are kept until the drainer starts, samples offered after it has been
+ * stopped are dropped and reported as such.
+ */
+@Slf4j
+public class SampleRingBuffer {
+    private static final long POLL_INTERVAL = 100;
+
+    private final ArrayBlockingQueue<Object> buffer;
+    private final int batchSize;
+    private final OverflowPolicy policy;
+    private final Drainer drainer;
+    private final OutputPluginStatistics statistics;
+
+    private volatile boolean running = false;
+    private volatile boolean stopped = false;
+    private Thread thread;
+
+    public SampleRingBuffer(final int capacity, final int batchSize, final OverflowPolicy policy,
+            final Drainer drainer, final OutputPluginStatistics statistics) {
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.policy = policy;
+        this.drainer = drainer;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Add a sample to the buffer, applying the overflow policy if it is full.
+     */
+    public void offer(final Object sample) {
+        if (stopped) {
+            statistics.reportDropped(1);
+            return;
+        }
+
+        if (buffer.offer(sample))
+            return;
+
+        switch (policy) {
+        case DROP_NEWEST:
+            statistics.reportDroppedByOverflow(1);
+            return;
+        case DROP_OLDEST:
+            do {
+                if (buffer.poll() != null)
+                    statistics.reportDroppedByOverflow(1);
+            } while (!buffer.offer(sample));
+
+            return;
+        case BLOCK:
+            try {
+                // wake up regularly, nothing will make room once the buffer has been stopped.
+                while (!buffer.offer(sample, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    if (stopped) {
+                        statistics.reportDropped(1);
+                        return;
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                statistics.reportDroppedByOverflow(1);
+            }
+
+            return;
+        default:
+            throw new IllegalStateException("Unsupported overflow policy: " + policy);
+        }
+    }
+
+    public synchronized void start() {
+        if (running)
+            return;
+
+        running = true;
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "ffwd-kafka-drainer");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the drainer thread, after the samples currently in the buffer have been drained.
+     *
+     * Any sample offered after this has been called is dropped.
+     */
+    public synchronized void stop() throws InterruptedException {
+        stopped = true;
+
+        if (!running)
+            return;
+
+        running = false;
+        thread.join();
+        thread = null;
+
+        // samples that raced with stopping the drainer.
+        final List<Object> remaining = new ArrayList<>();
+        buffer.drainTo(remaining);
+
+        if (!remaining.isEmpty())
+            statistics.reportDropped(remaining.size());
+    }
+
+    private void drainLoop() {
+        final List<Object> batch = new ArrayList<>(batchSize);
+
+        while (true) {
+            final Object first;
+
+            try {
+                first = buffer.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                log.warn("Drainer interrupted, stopping");
+                return;
+            }
+
+            if (first == null) {
+                if (!running)
+                    return;
+
+                continue;
+            }
+
+            batch.add(first);
+            buffer.drainTo(batch, batchSize - 1);
+
+            try {
+                drainer.drain(batch);
+            } catch (final Exception e) {
+                log.error("Failed to send batch of {} sample(s)", batch.size(), e);
+                statistics.reportDropped(batch.size());
+            }
+
+            batch.clear();
+        }
+    }
+
+    public static interface Drainer {
+        /**
+         * Send a batch of samples.
+         *
+         * @param batch Metrics and events, in the order that they were offered.
+         */
+        void drain(List<Object> batch) throws Exception;
+    }
+
+    /**
+     * What to do when a sample is offered to a full buffer.
+     */
+    public static enum OverflowPolicy {
+        /**
+         * Drop the oldest sample in the buffer to make room for the new one.
+         */
+        DROP_OLDEST,
+        /**
+         * Drop the new sample.
+         */
+        DROP_NEWEST,
+        /**
+         * Block the caller until there is room in the buffer.
+         */
+        BLOCK;
+
+        public static Function<String, OverflowPolicy> parse() {
+            return new Function<String, OverflowPolicy>() {
+                @Override
+                public OverflowPolicy apply(final String input) {
+                    final String value = input.toUpperCase().replace('-', '_');
+
+                    for (final OverflowPolicy policy : values()) {
+                        if (policy.name().equals(value))
+                            return policy;
+                    }
+
+                    throw new IllegalArgumentException("Invalid overflow policy: " + input);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,164 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.kafka;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A topic template, compiled once into literal parts and placeholders.
+ *
+ * Rendering a template only concatenates the literal parts with the given values, without parsing anything.
+ */
+public final class TopicTemplate {
+    public static final long DEFAULT_CACHE_SIZE = 10000;
+
+    // literal parts, one more than the number of placeholders.
+    private final String[] literals;
+    // name of the tag for every placeholder, or null for positional placeholders.
+    private final String[] tags;
+
+    private TopicTemplate(final List<String> literals, final List<String> tags) {
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.tags = tags.toArray(new String[tags.size()]);
+    }
+
+    /**
+     * Compile a template with named placeholders, like {@code metrics-{site}-{role}}.
+     *
+     * @throws IllegalArgumentException If a placeholder is not closed, or has no name.
+     */
+    public static TopicTemplate parse(final String template) {
+        final List<String> literals = new ArrayList<>();
+        final List<String> tags = new ArrayList<>();
+
+        int start = 0;
+
+        while (true) {
+            final int open = template.indexOf('{', start);
+
+            if (open < 0)
+                break;
+
+            final int close = template.indexOf('}', open);
+
+            if (close < 0)
+                throw new IllegalArgumentException("Unclosed placeholder in topic template: " + template);
+
+            if (close == open + 1)
+                throw new IllegalArgumentException("Empty placeholder in topic template: " + template);
+
+            literals.add(template.substring(start, open));
+            tags.add(template.substring(open + 1, close));
+            start = close + 1;
+        }
+
+        literals.add(template.substring(start));
+        return new TopicTemplate(literals, tags);
+    }
+
+    /**
+     * Compile a format string where every {@code %s} is a positional placeholder, and {@code %%} is a literal percent
+     * sign.
+     *
+     * @return The compiled template, or {@code null} if the format uses any other conversion.
+     */
+    public static TopicTemplate format(final String format) {
+        final List<String> literals = new ArrayList<>();
+        final List<String> tags = new ArrayList<>();
+
+        final StringBuilder literal = new StringBuilder();
+
+        for (int i = 0; i < format.length(); i++) {
+            final char c = format.charAt(i);
+
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+
+            if (i + 1 >= format.length())
+                return null;
+
+            final char next = format.charAt(++i);
+
+            if (next == '%') {
+                literal.append('%');
+                continue;
+            }
+
+            if (next != 's')
+                return null;
+
+            literals.add(literal.toString());
+            tags.add(null);
+            literal.setLength(0);
+        }
+
+        literals.add(literal.toString());
+        return new TopicTemplate(literals, tags);
+    }
+
+    /**
+     * Names of the tags referenced by the placeholders, in order.
+     */
+    public List<String> tags() {
+        return Arrays.asList(tags);
+    }
+
+    public int size() {
+        return tags.length;
+    }
+
+    /**
+     * Render the template using the given value for every placeholder.
+     */
+    public String render(final String value) {
+        final StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < tags.length; i++)
+            builder.append(literals[i]).append(value);
+
+        return builder.append(literals[tags.length]).toString();
+    }
+
+    /**
+     * Render the template, using one value per placeholder.
+     */
+    public String render(final String[] values) {
+        if (values.length != tags.length)
+            throw new IllegalArgumentException("Expected " + tags.length + " value(s), got " + values.length);
+
+        final StringBuilder builder = new StringBuilder();
+
+        for (int i = 0; i < tags.length; i++)
+            builder.append(literals[i]).append(values[i]);
+
+        return builder.append(literals[tags.length]).toString();
+    }
+
+    /**
+     * Bounded map suitable for caching rendered topics.
+     */
+    public static <K> ConcurrentMap<K, String> cache() {
+        return CacheBuilder.newBuilder().maximumSize(DEFAULT_CACHE_SIZE).<K, String> build().asMap();
+    }
+}
@@ -0,0 +1,209 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.kafka;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import kafka.admin.AdminUtils;
+import kafka.api.FetchRequestBuilder;
+import kafka.javaapi.FetchResponse;
+import kafka.javaapi.consumer.SimpleConsumer;
+import kafka.message.MessageAndOffset;
+import kafka.server.KafkaConfig;
+import kafka.server.KafkaServerStartable;
+import kafka.utils.ZKStringSerializer$;
+
+import org.I0Itec.zkclient.ZkClient;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.TypeLiteral;
+import com.spotify.ffwd.model.Event;
+import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.serializer.Serializer;
+import com.spotify.ffwd.statistics.NoopCoreStatistics;
+import com.spotify.ffwd.statistics.OutputPluginStatistics;
+
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.TinyAsync;
+
+/**
+ * Runs the asynchronous sink against an embedded zookeeper and kafka broker.
+ */
+public class KafkaAsyncPluginSinkTest {
+    private static final String TOPIC = "metrics";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private NIOServerCnxnFactory zookeeper;
+    private KafkaServerStartable broker;
+    private int port;
+
+    private KafkaAsyncPluginSink sink;
+
+    @Before
+    public void setup() throws Exception {
+        final File zkDir = folder.newFolder("zookeeper");
+        zookeeper = new NIOServerCnxnFactory();
+        zookeeper.configure(new InetSocketAddress("localhost", 0), 16);
+        zookeeper.startup(new ZooKeeperServer(zkDir, zkDir, 500));
+
+        final String zkConnect = "localhost:" + zookeeper.getLocalPort();
+
+        port = freePort();
+
+        final Properties props = new Properties();
+        props.put("broker.id", "0");
+        props.put("host.name", "localhost");
+        props.put("port", Integer.toString(port));
+        props.put("log.dirs", folder.newFolder("kafka").getAbsolutePath());
+        props.put("zookeeper.connect", zkConnect);
+
+        broker = new KafkaServerStartable(new KafkaConfig(props));
+        broker.startup();
+
+        final ZkClient zkClient = new ZkClient(zkConnect, 10000, 10000, ZKStringSerializer$.MODULE$);
+
+        try {
+            AdminUtils.createTopic(zkClient, TOPIC, 1, 1, new Properties());
+        } finally {
+            zkClient.close();
+        }
+
+        final Properties producerProps = new Properties();
+        producerProps.put("bootstrap.servers", "localhost:" + port);
+        producerProps.put("linger.ms", "5");
+
+        final AsyncFramework async = TinyAsync.builder().executor(executor).build();
+        final Producer<byte[], byte[]> producer = new KafkaProducer<byte[], byte[]>(producerProps,
+                new ByteArraySerializer(), new ByteArraySerializer());
+
+        sink = new KafkaAsyncPluginSink();
+
+        Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(AsyncFramework.class).toInstance(async);
+                bind(new TypeLiteral<Producer<byte[], byte[]>>() {
+                }).toInstance(producer);
+                bind(KafkaRouter.class).toInstance(new KafkaRouter.Static(TOPIC, null));
+                bind(KafkaPartitioner.class).toInstance(new KafkaPartitioner.Hashed());
+                bind(Serializer.class).toInstance(new KeySerializer());
+                bind(OutputPluginStatistics.class).toInstance(NoopCoreStatistics.get().newOutputPlugin("kafka"));
+            }
+        }).injectMembers(sink);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (sink != null)
+            sink.stop().get();
+
+        if (broker != null) {
+            broker.shutdown();
+            broker.awaitShutdown();
+        }
+
+        if (zookeeper != null)
+            zookeeper.shutdown();
+
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test(timeout = 60000)
+    public void testSendMetrics() throws Exception {
+        final List<Metric> metrics = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            metrics.add(new Metric("key-" + i, i, System.currentTimeMillis(), "host", ImmutableSet.<String> of(),
+                    ImmutableMap.<String, String> of(), null));
+        }
+
+        sink.sendMetrics(metrics).get();
+
+        final List<String> received = fetch();
+
+        assertEquals(100, received.size());
+        assertEquals("key-0", received.get(0));
+        assertEquals("key-99", received.get(99));
+    }
+
+    private List<String> fetch() {
+        final SimpleConsumer consumer = new SimpleConsumer("localhost", port, 10000, 1024 * 1024, "test");
+
+        try {
+            final FetchResponse response = consumer.fetch(new FetchRequestBuilder().clientId("test")
+                    .addFetch(TOPIC, 0, 0L, 1024 * 1024).build());
+
+            final List<String> keys = new ArrayList<>();
+
+            for (final MessageAndOffset m : response.messageSet(TOPIC, 0)) {
+                final byte[] payload = new byte[m.message().payload().remaining()];
+                m.message().payload().get(payload);
+                keys.add(new String(payload));
+            }
+
+            return keys;
+        } finally {
+            consumer.close();
+        }
+    }
+
+    private static int freePort() throws Exception {
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static class KeySerializer implements Serializer {
+        @Override
+        public byte[] serialize(final Event event) throws Exception {
+            return event.getKey().getBytes();
+        }
+
+        @Override
+        public byte[] serialize(final Metric metric) throws Exception {
+            return metric.getKey().getBytes();
+        }
+    }
+}
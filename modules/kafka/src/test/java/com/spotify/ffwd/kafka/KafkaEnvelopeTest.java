@@ -0,0 +1,142 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.kafka;
+
+import static org.junit.Assert.assertEquals;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.spotify.ffwd.model.Event;
+import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.serializer.BatchSerializer;
+import com.spotify.ffwd.serializer.Serializer;
+
+public class KafkaEnvelopeTest {
+    private final List<Metric> metrics = ImmutableList.of(metric("a"), metric("bb"), metric(""), metric("dddd"));
+
+    @Test
+    public void testPackSingle() throws Exception {
+        assertRecords(KafkaEnvelope.unpack(KafkaEnvelope.packMetrics(new KeySerializer(), metrics)));
+    }
+
+    @Test
+    public void testPackBatch() throws Exception {
+        assertRecords(KafkaEnvelope.unpack(KafkaEnvelope.packMetrics(new BatchKeySerializer(), metrics)));
+    }
+
+    @Test
+    public void testPackEmpty() throws Exception {
+        final byte[] message = KafkaEnvelope.packMetrics(new KeySerializer(), ImmutableList.<Metric> of());
+        assertEquals(KafkaEnvelope.HEADER_SIZE, message.length);
+        assertEquals(0, KafkaEnvelope.unpack(message).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnpackInvalid() {
+        KafkaEnvelope.unpack("not an envelope".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnpackTruncated() throws Exception {
+        final byte[] message = KafkaEnvelope.packMetrics(new KeySerializer(), metrics);
+        final byte[] truncated = new byte[message.length - 1];
+        System.arraycopy(message, 0, truncated, 0, truncated.length);
+        KafkaEnvelope.unpack(truncated);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnpackOverflowingCount() {
+        // count * 4 overflows to 4, which used to pass the bounds check.
+        final ByteBuffer message = ByteBuffer.allocate(KafkaEnvelope.HEADER_SIZE + 4);
+        message.putInt(KafkaEnvelope.MAGIC).put(KafkaEnvelope.VERSION).putInt(0x40000001).putInt(0);
+        KafkaEnvelope.unpack(message.array());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnpackOverflowingOffset() {
+        // start + end overflows to a negative number, which used to pass the bounds check.
+        final ByteBuffer message = ByteBuffer.allocate(KafkaEnvelope.HEADER_SIZE + 4);
+        message.putInt(KafkaEnvelope.MAGIC).put(KafkaEnvelope.VERSION).putInt(1).putInt(Integer.MAX_VALUE);
+        KafkaEnvelope.unpack(message.array());
+    }
+
+    private void assertRecords(final List<ByteBuffer> records) {
+        assertEquals(metrics.size(), records.size());
+
+        for (int i = 0; i < metrics.size(); i++) {
+            final ByteBuffer record = records.get(i);
+            final byte[] bytes = new byte[record.remaining()];
+            record.get(bytes);
+            assertEquals(metrics.get(i).getKey(), new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    private Metric metric(final String key) {
+        return new Metric(key, 42.0d, System.currentTimeMillis(), "host", ImmutableSet.<String> of(),
+                ImmutableMap.<String, String> of(), null);
+    }
+
+    private static class KeySerializer implements Serializer {
+        @Override
+        public byte[] serialize(final Event event) throws Exception {
+            return event.getKey().getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public byte[] serialize(final Metric metric) throws Exception {
+            return metric.getKey().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static class BatchKeySerializer extends KeySerializer implements BatchSerializer {
+        @Override
+        public int[] serializeEvents(final Collection<Event> events, final ByteBuf buffer) throws Exception {
+            final int[] offsets = new int[events.size()];
+            int i = 0;
+
+            for (final Event event : events) {
+                buffer.writeBytes(serialize(event));
+                offsets[i++] = buffer.writerIndex();
+            }
+
+            return offsets;
+        }
+
+        @Override
+        public int[] serializeMetrics(final Collection<Metric> metrics, final ByteBuf buffer) throws Exception {
+            final int[] offsets = new int[metrics.size()];
+            int i = 0;
+
+            for (final Metric metric : metrics) {
+                buffer.writeBytes(serialize(metric));
+                offsets[i++] = buffer.writerIndex();
+            }
+
+            return offsets;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.spotify.ffwd.model.Metric;
+
+public class KafkaPartitionerTest {
+    @Test
+    public void testJump() {
+        final int[] counts = new int[10];
+
+        for (long key = 0; key < 10000; key++) {
+            final int p = KafkaPartitioner.Series.jump(key * 0x9e3779b97f4a7c15L, 10);
+            assertTrue(p >= 0 && p < 10);
+            counts[p]++;
+
+            // growing the number of partitions only moves keys to the new partition.
+            final int grown = KafkaPartitioner.Series.jump(key * 0x9e3779b97f4a7c15L, 11);
+            assertTrue(grown == p || grown == 10);
+        }
+
+        for (final int count : counts)
+            assertTrue(count > 800 && count < 1200);
+    }
+
+    @Test
+    public void testSeries() {
+        final KafkaPartitioner partitioner = new KafkaPartitioner.Series();
+
+        final Metric a = metric("a", ImmutableMap.of("site", "lon"));
+        final Metric b = metric("a", ImmutableMap.of("site", "lon"));
+
+        assertEquals(partitioner.partition(a, 16), partitioner.partition(b, 16));
+    }
+
+    @Test
+    public void testTagFallback() {
+        final KafkaPartitioner partitioner = new KafkaPartitioner.Tag(null, null);
+        final Metric m = metric("a", ImmutableMap.<String, String> of());
+
+        final int p = partitioner.partition(m, 16);
+        assertTrue(p >= 0 && p < 16);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTagFallbackError() {
+        new KafkaPartitioner.Tag(null, "error").partition(metric("a", ImmutableMap.<String, String> of()));
+    }
+
+    @Test
+    public void testSticky() {
+        final KafkaPartitioner.Sticky partitioner = new KafkaPartitioner.Sticky(10);
+
+        final KafkaPartitioner first = partitioner.nextBatch();
+        final KafkaPartitioner second = partitioner.nextBatch();
+
+        final int p = first.partition(metric("a", ImmutableMap.<String, String> of()), 16);
+
+        // batches are never split over partitions, regardless of maxSamples.
+        for (int i = 0; i < 100; i++)
+            assertEquals(p, first.partition(metric("key-" + i, ImmutableMap.<String, String> of()), 16));
+
+        // concurrent batches do not affect each other.
+        assertEquals((p + 1) % 16, second.partition(metric("a", ImmutableMap.<String, String> of()), 16));
+        assertEquals(p, first.partition(metric("b", ImmutableMap.<String, String> of()), 16));
+    }
+
+    @Test
+    public void testStickyMaxSamples() {
+        final KafkaPartitioner partitioner = new KafkaPartitioner.Sticky(10);
+
+        final int first = partitioner.partition(metric("a", ImmutableMap.<String, String> of()), 16);
+
+        for (int i = 1; i < 10; i++)
+            assertEquals(first, partitioner.partition(metric("key-" + i, ImmutableMap.<String, String> of()), 16));
+
+        assertEquals((first + 1) % 16, partitioner.partition(metric("b", ImmutableMap.<String, String> of()), 16));
+    }
+
+    private Metric metric(final String key, final Map<String, String> tags) {
+        return new Metric(key, 42.0d, System.currentTimeMillis(), "host", ImmutableSet.<String> of(), tags, null);
+    }
+}
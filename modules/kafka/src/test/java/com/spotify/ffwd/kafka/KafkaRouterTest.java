@@ -0,0 +1,82 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.spotify.ffwd.model.Metric;
+
+public class KafkaRouterTest {
+    @Test
+    public void testFormat() {
+        assertEquals("metrics-foo", TopicTemplate.format("metrics-%s").render("foo"));
+        assertEquals("100%-foo-foo", TopicTemplate.format("100%%-%s-%s").render("foo"));
+        assertNull(TopicTemplate.format("metrics-%d"));
+    }
+
+    @Test
+    public void testParse() {
+        final TopicTemplate template = TopicTemplate.parse("metrics-{site}-{role}");
+
+        assertEquals(ImmutableList.of("site", "role"), template.tags());
+        assertEquals("metrics-lon-db", template.render(new String[] { "lon", "db" }));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseUnclosed() {
+        TopicTemplate.parse("metrics-{site");
+    }
+
+    @Test
+    public void testTag() {
+        final KafkaRouter router = new KafkaRouter.Tag(null, null, null);
+
+        final String first = router.route(metric(ImmutableMap.of("site", "lon")));
+        final String second = router.route(metric(ImmutableMap.of("site", "lon")));
+
+        assertEquals("metrics-lon", first);
+        assertSame(first, second);
+        assertEquals("metrics-default", router.route(metric(ImmutableMap.<String, String> of())));
+    }
+
+    @Test
+    public void testTagUncompiledFormat() {
+        final KafkaRouter router = new KafkaRouter.Tag(null, "metrics-%S", null);
+        assertEquals("metrics-LON", router.route(metric(ImmutableMap.of("site", "lon"))));
+    }
+
+    @Test
+    public void testTemplate() {
+        final KafkaRouter router = new KafkaRouter.Template("metrics-{site}-{role}", null);
+
+        assertEquals("metrics-lon-db", router.route(metric(ImmutableMap.of("site", "lon", "role", "db"))));
+        assertEquals("metrics-lon-default", router.route(metric(ImmutableMap.of("site", "lon"))));
+    }
+
+    private Metric metric(final Map<String, String> tags) {
+        return new Metric("key", 42.0d, System.currentTimeMillis(), "host", ImmutableSet.<String> of(), tags, null);
+    }
+}
@@ -0,0 +1,145 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.kafka;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.spotify.ffwd.kafka.SampleRingBuffer.OverflowPolicy;
+import com.spotify.ffwd.statistics.OutputPluginStatistics;
+
+public class SampleRingBufferTest {
+    private final AtomicInteger overflow = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final List<List<Object>> batches = new ArrayList<>();
+
+    private final OutputPluginStatistics statistics = new OutputPluginStatistics() {
+        @Override
+        public void reportDropped(int dropped) {
+            SampleRingBufferTest.this.dropped.addAndGet(dropped);
+        }
+
+        @Override
+        public void reportDroppedByOverflow(int dropped) {
+            overflow.addAndGet(dropped);
+        }
+
+        @Override
+        public void reportDroppedBySize(int dropped) {
+        }
+    };
+
+    private final SampleRingBuffer.Drainer drainer = new SampleRingBuffer.Drainer() {
+        @Override
+        public void drain(List<Object> batch) throws Exception {
+            synchronized (batches) {
+                batches.add(new ArrayList<>(batch));
+            }
+        }
+    };
+
+    @Test
+    public void testDropOldest() throws Exception {
+        final SampleRingBuffer buffer = new SampleRingBuffer(2, 10, OverflowPolicy.DROP_OLDEST, drainer, statistics);
+
+        buffer.offer("a");
+        buffer.offer("b");
+        buffer.offer("c");
+
+        buffer.start();
+        buffer.stop();
+
+        assertEquals(1, overflow.get());
+        assertEquals(ImmutableList.of(ImmutableList.of("b", "c")), batches);
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        final SampleRingBuffer buffer = new SampleRingBuffer(2, 10, OverflowPolicy.DROP_NEWEST, drainer, statistics);
+
+        buffer.offer("a");
+        buffer.offer("b");
+        buffer.offer("c");
+
+        buffer.start();
+        buffer.stop();
+
+        assertEquals(1, overflow.get());
+        assertEquals(ImmutableList.of(ImmutableList.of("a", "b")), batches);
+    }
+
+    @Test
+    public void testBatches() throws Exception {
+        final SampleRingBuffer buffer = new SampleRingBuffer(10, 2, OverflowPolicy.BLOCK, drainer, statistics);
+
+        for (int i = 0; i < 5; i++)
+            buffer.offer(i);
+
+        buffer.start();
+        buffer.stop();
+
+        assertEquals(0, overflow.get());
+        assertEquals(ImmutableList.of(ImmutableList.of(0, 1), ImmutableList.of(2, 3), ImmutableList.of(4)), batches);
+    }
+
+    @Test(timeout = 10000)
+    public void testOfferAfterStop() throws Exception {
+        final SampleRingBuffer buffer = new SampleRingBuffer(1, 10, OverflowPolicy.BLOCK, drainer, statistics);
+
+        buffer.start();
+        buffer.stop();
+
+        // would block forever on the full buffer if it was accepted.
+        buffer.offer("a");
+        buffer.offer("b");
+
+        assertEquals(2, dropped.get());
+        assertEquals(0, batches.size());
+    }
+
+    @Test(timeout = 10000)
+    public void testBlockedOfferIsReleasedByStop() throws Exception {
+        final SampleRingBuffer buffer = new SampleRingBuffer(1, 10, OverflowPolicy.BLOCK, drainer, statistics);
+
+        buffer.offer("a");
+
+        final Thread blocked = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                buffer.offer("b");
+            }
+        });
+
+        blocked.start();
+        buffer.stop();
+        blocked.join();
+
+        assertEquals(1, dropped.get());
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals(OverflowPolicy.DROP_OLDEST, OverflowPolicy.parse().apply("drop-oldest"));
+        assertEquals(OverflowPolicy.BLOCK, OverflowPolicy.parse().apply("block"));
+    }
+}
@@ -27,5 +27,6 @@ public class ProtobufModule implements FastForwardModule {
     @Override
     public void setup() throws Exception {
         context.registerInput("protobuf", ProtobufInputPlugin.class);
+        context.registerSerializer("protobuf", ProtobufSerializer.class);
     }
 }
@@ -0,0 +1,195 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.protobuf;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.google.protobuf250.CodedOutputStream;
+import com.spotify.ffwd.model.Event;
+import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.protocol0.Protocol0;
+import com.spotify.ffwd.serializer.BatchSerializer;
+
+/**
+ * Serializes samples as version 0 protobuf frames, the same frames that are accepted by the protobuf input.
+ *
+ * Every frame has a header of two unsigned 32-bit integers, the version and the total length of the frame, followed by
+ * a {@link Protocol0.Message}.
+ */
+@JsonTypeName("protobuf")
+public class ProtobufSerializer implements BatchSerializer {
+    public static final int VERSION = 0;
+    public static final int HEADER_SIZE = 8;
+
+    @JsonCreator
+    public ProtobufSerializer() {
+    }
+
+    @Override
+    public byte[] serialize(final Event event) throws Exception {
+        return frame(Protocol0.Message.newBuilder().setEvent(encodeEvent(event)).build());
+    }
+
+    @Override
+    public byte[] serialize(final Metric metric) throws Exception {
+        return frame(encodeMetric(metric));
+    }
+
+    @Override
+    public int[] serializeEvents(final Collection<Event> events, final ByteBuf buffer) throws Exception {
+        final int[] offsets = new int[events.size()];
+        final CodedOutputStream output = CodedOutputStream.newInstance(new ByteBufOutputStream(buffer));
+
+        int i = 0;
+
+        for (final Event event : events) {
+            writeFrame(output, Protocol0.Message.newBuilder().setEvent(encodeEvent(event)).build());
+            offsets[i++] = buffer.writerIndex();
+        }
+
+        return offsets;
+    }
+
+    @Override
+    public int[] serializeMetrics(final Collection<Metric> metrics, final ByteBuf buffer) throws Exception {
+        final int[] offsets = new int[metrics.size()];
+        final CodedOutputStream output = CodedOutputStream.newInstance(new ByteBufOutputStream(buffer));
+
+        int i = 0;
+
+        for (final Metric metric : metrics) {
+            writeFrame(output, encodeMetric(metric));
+            offsets[i++] = buffer.writerIndex();
+        }
+
+        return offsets;
+    }
+
+    private void writeFrame(final CodedOutputStream output, final Protocol0.Message message) throws IOException {
+        writeInt(output, VERSION);
+        writeInt(output, HEADER_SIZE + message.getSerializedSize());
+        message.writeTo(output);
+
+        // flush to make the writer index of the buffer reflect the end of the frame.
+        output.flush();
+    }
+
+    private byte[] frame(final Protocol0.Message message) throws IOException {
+        final int size = message.getSerializedSize();
+        final byte[] frame = new byte[HEADER_SIZE + size];
+
+        writeInt(frame, 0, VERSION);
+        writeInt(frame, 4, frame.length);
+
+        final CodedOutputStream output = CodedOutputStream.newInstance(frame, HEADER_SIZE, size);
+        message.writeTo(output);
+        output.checkNoSpaceLeft();
+        return frame;
+    }
+
+    private Protocol0.Message encodeMetric(final Metric metric) {
+        final Protocol0.Metric.Builder b = Protocol0.Metric.newBuilder();
+
+        if (metric.getKey() != null)
+            b.setKey(metric.getKey());
+
+        b.setValue(metric.getValue());
+
+        if (metric.hasTime())
+            b.setTime(metric.getTimestamp());
+
+        if (metric.getHost() != null)
+            b.setHost(metric.getHost());
+
+        if (metric.getProc() != null)
+            b.setProc(metric.getProc());
+
+        if (metric.getRiemann_tags() != null) {
+            for (final String tag : metric.getRiemann_tags())
+                b.addTags(tag);
+        }
+
+        if (metric.getTags() != null) {
+            for (final Map.Entry<String, String> e : metric.getTags().entrySet()) {
+                // attributes without a value can not be represented.
+                if (e.getKey() != null && e.getValue() != null)
+                    b.addAttributes(Protocol0.Attribute.newBuilder().setKey(e.getKey()).setValue(e.getValue()));
+            }
+        }
+
+        return Protocol0.Message.newBuilder().setMetric(b).build();
+    }
+
+    private Protocol0.Event encodeEvent(final Event event) {
+        final Protocol0.Event.Builder b = Protocol0.Event.newBuilder();
+
+        if (event.getKey() != null)
+            b.setKey(event.getKey());
+
+        b.setValue(event.getValue());
+
+        if (event.getTime() != null)
+            b.setTime(event.getTime().getTime());
+
+        if (event.getTtl() != 0)
+            b.setTtl(event.getTtl());
+
+        if (event.getState() != null)
+            b.setState(event.getState());
+
+        if (event.getDescription() != null)
+            b.setDescription(event.getDescription());
+
+        if (event.getHost() != null)
+            b.setHost(event.getHost());
+
+        if (event.getRiemann_tags() != null) {
+            for (final String tag : event.getRiemann_tags())
+                b.addTags(tag);
+        }
+
+        if (event.getTags() != null) {
+            for (final Map.Entry<String, String> e : event.getTags().entrySet()) {
+                if (e.getKey() != null && e.getValue() != null)
+                    b.addAttributes(Protocol0.Attribute.newBuilder().setKey(e.getKey()).setValue(e.getValue()));
+            }
+        }
+
+        return b.build();
+    }
+
+    private static void writeInt(final byte[] b, final int offset, final int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+    private static void writeInt(final CodedOutputStream output, final int value) throws IOException {
+        output.writeRawByte((byte) (value >>> 24));
+        output.writeRawByte((byte) (value >>> 16));
+        output.writeRawByte((byte) (value >>> 8));
+        output.writeRawByte((byte) value);
+    }
+}
@@ -0,0 +1,443 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.protobuf;
+
+import com.google.protobuf250.InvalidProtocolBufferException;
+import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.model.MetricInterner;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Reads version 0 protobuf messages straight from a buffer.
+ *
+ * This is a reader for the small {@code Protocol0} schema that works on the buffer in place, instead of parsing a
+ * {@code Protocol0.Message} through an input stream. Strings are decoded from the buffer and interned, and tags are
+ * collected into reusable per-thread arrays, so no intermediate messages or collections are built.
+ *
+ * Like protobuf, a sub-message that occurs more than once is merged, and unknown fields are skipped.
+ */
+public class Protocol0Reader {
+    // Message
+    private static final int MESSAGE_METRIC = 1;
+    private static final int MESSAGE_EVENT = 2;
+
+    // Metric
+    private static final int METRIC_PROC = 1;
+    private static final int METRIC_TIME = 2;
+    private static final int METRIC_KEY = 3;
+    private static final int METRIC_VALUE = 4;
+    private static final int METRIC_HOST = 5;
+    private static final int METRIC_TAGS = 6;
+    private static final int METRIC_ATTRIBUTES = 7;
+
+    // Event
+    private static final int EVENT_TIME = 1;
+    private static final int EVENT_KEY = 2;
+    private static final int EVENT_VALUE = 3;
+    private static final int EVENT_HOST = 4;
+    private static final int EVENT_STATE = 5;
+    private static final int EVENT_DESCRIPTION = 6;
+    private static final int EVENT_TTL = 7;
+    private static final int EVENT_TAGS = 8;
+    private static final int EVENT_ATTRIBUTES = 9;
+
+    // Attribute
+    private static final int ATTRIBUTE_KEY = 1;
+    private static final int ATTRIBUTE_VALUE = 2;
+
+    private static final int WIRETYPE_VARINT = 0;
+    private static final int WIRETYPE_FIXED64 = 1;
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+    private static final int WIRETYPE_FIXED32 = 5;
+
+    private final MetricInterner interner;
+
+    private final ThreadLocal<Fields[]> fields = new ThreadLocal<Fields[]>() {
+        @Override
+        protected Fields[] initialValue() {
+            return new Fields[] { new Fields(), new Fields() };
+        }
+    };
+
+    public Protocol0Reader() {
+        this(MetricInterner.get());
+    }
+
+    public Protocol0Reader(final MetricInterner interner) {
+        this.interner = interner;
+    }
+
+    /**
+     * Read a single message.
+     *
+     * @param buffer Buffer to read from, its indexes are not modified.
+     * @param index Index of the first byte of the message.
+     * @param length Length of the message.
+     * @return The decoded event or metric, or null if the message contains neither.
+     * @throws InvalidProtocolBufferException If the message is malformed.
+     */
+    public Object read(final ByteBuf buffer, final int index, final int length) throws InvalidProtocolBufferException {
+        final Fields[] fields = this.fields.get();
+        final Fields metric = fields[0];
+        final Fields event = fields[1];
+
+        metric.reset();
+        event.reset();
+
+        final Input in = new Input(buffer, index, index + length);
+
+        while (in.hasRemaining()) {
+            final int tag = in.readTag();
+
+            switch (tag >>> 3) {
+            case MESSAGE_METRIC:
+                readMetric(in, tag, metric);
+                break;
+            case MESSAGE_EVENT:
+                readEvent(in, tag, event);
+                break;
+            default:
+                in.skip(tag);
+                break;
+            }
+        }
+
+        if (event.present)
+            return buildEvent(event);
+
+        if (metric.present)
+            return buildMetric(metric);
+
+        return null;
+    }
+
+    private void readMetric(final Input in, final int tag, final Fields metric) throws InvalidProtocolBufferException {
+        final int limit = in.pushLimit(tag);
+        metric.present = true;
+
+        while (in.hasRemaining()) {
+            final int field = in.readTag();
+
+            switch (field >>> 3) {
+            case METRIC_PROC:
+                metric.proc = in.readString(field);
+                break;
+            case METRIC_TIME:
+                metric.time = in.readVarint64(field);
+                metric.hasTime = true;
+                break;
+            case METRIC_KEY:
+                metric.key = in.readString(field);
+                break;
+            case METRIC_VALUE:
+                metric.value = in.readDouble(field);
+                break;
+            case METRIC_HOST:
+                metric.host = in.readString(field);
+                break;
+            case METRIC_TAGS:
+                metric.addTag(in.readString(field));
+                break;
+            case METRIC_ATTRIBUTES:
+                readAttribute(in, field, metric);
+                break;
+            default:
+                in.skip(field);
+                break;
+            }
+        }
+
+        in.popLimit(limit);
+    }
+
+    private void readEvent(final Input in, final int tag, final Fields event) throws InvalidProtocolBufferException {
+        final int limit = in.pushLimit(tag);
+        event.present = true;
+
+        while (in.hasRemaining()) {
+            final int field = in.readTag();
+
+            switch (field >>> 3) {
+            case EVENT_TIME:
+                event.time = in.readVarint64(field);
+                event.hasTime = true;
+                break;
+            case EVENT_KEY:
+                event.key = in.readString(field);
+                break;
+            case EVENT_VALUE:
+                event.value = in.readDouble(field);
+                break;
+            case EVENT_HOST:
+                event.host = in.readString(field);
+                break;
+            case EVENT_STATE:
+                event.state = in.readString(field);
+                break;
+            case EVENT_DESCRIPTION:
+                event.description = in.readString(field);
+                break;
+            case EVENT_TTL:
+                event.ttl = in.readVarint64(field);
+                break;
+            case EVENT_TAGS:
+                event.addTag(in.readString(field));
+                break;
+            case EVENT_ATTRIBUTES:
+                readAttribute(in, field, event);
+                break;
+            default:
+                in.skip(field);
+                break;
+            }
+        }
+
+        in.popLimit(limit);
+    }
+
+    private void readAttribute(final Input in, final int tag, final Fields fields)
+            throws InvalidProtocolBufferException {
+        final int limit = in.pushLimit(tag);
+
+        // missing fields have the protobuf default value.
+        String key = "";
+        String value = "";
+
+        while (in.hasRemaining()) {
+            final int field = in.readTag();
+
+            switch (field >>> 3) {
+            case ATTRIBUTE_KEY:
+                key = in.readString(field);
+                break;
+            case ATTRIBUTE_VALUE:
+                value = in.readString(field);
+                break;
+            default:
+                in.skip(field);
+                break;
+            }
+        }
+
+        in.popLimit(limit);
+        fields.addAttribute(key, value);
+    }
+
+    private Object buildMetric(final Fields metric) {
+        final long time = metric.hasTime ? metric.time : Metric.NO_TIME;
+
+        return interner.metric(metric.key, metric.value, time, metric.host,
+                interner.riemannTags(metric.tags, metric.tagsSize),
+                interner.tags(metric.attributes, metric.attributesSize), metric.proc);
+    }
+
+    private Object buildEvent(final Fields event) {
+        final Date time = event.hasTime ? new Date(event.time) : null;
+
+        return interner.event(event.key, event.value, time, event.ttl, event.state, event.description, event.host,
+                interner.riemannTags(event.tags, event.tagsSize),
+                interner.tags(event.attributes, event.attributesSize));
+    }
+
+    /**
+     * A bounded view of the buffer being read.
+     */
+    private static class Input {
+        private final ByteBuf buffer;
+        private int limit;
+        private int position;
+
+        private Input(final ByteBuf buffer, final int position, final int limit) {
+            this.buffer = buffer;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        private boolean hasRemaining() {
+            return position < limit;
+        }
+
+        private int readTag() throws InvalidProtocolBufferException {
+            final int tag = (int) readRawVarint64();
+
+            if ((tag >>> 3) == 0)
+                throw new InvalidProtocolBufferException("Invalid tag: " + tag);
+
+            return tag;
+        }
+
+        private long readVarint64(final int tag) throws InvalidProtocolBufferException {
+            expect(tag, WIRETYPE_VARINT);
+            return readRawVarint64();
+        }
+
+        private double readDouble(final int tag) throws InvalidProtocolBufferException {
+            expect(tag, WIRETYPE_FIXED64);
+            require(8);
+            // protobuf is little-endian.
+            final long bits = Long.reverseBytes(buffer.getLong(position));
+            position += 8;
+            return Double.longBitsToDouble(bits);
+        }
+
+        private String readString(final int tag) throws InvalidProtocolBufferException {
+            expect(tag, WIRETYPE_LENGTH_DELIMITED);
+            final int length = readLength();
+            final String value = buffer.toString(position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        /**
+         * Limit reading to the embedded message that follows.
+         *
+         * @return The previous limit, which should be restored with {@link #popLimit(int)} once the message has been
+         *         read.
+         */
+        private int pushLimit(final int tag) throws InvalidProtocolBufferException {
+            expect(tag, WIRETYPE_LENGTH_DELIMITED);
+            final int length = readLength();
+            final int previous = limit;
+            limit = position + length;
+            return previous;
+        }
+
+        private void popLimit(final int previous) {
+            limit = previous;
+        }
+
+        private void skip(final int tag) throws InvalidProtocolBufferException {
+            switch (tag & 0x7) {
+            case WIRETYPE_VARINT:
+                readRawVarint64();
+                break;
+            case WIRETYPE_FIXED64:
+                skipRaw(8);
+                break;
+            case WIRETYPE_LENGTH_DELIMITED:
+                skipRaw(readLength());
+                break;
+            case WIRETYPE_FIXED32:
+                skipRaw(4);
+                break;
+            default:
+                throw new InvalidProtocolBufferException("Unsupported wire type: " + (tag & 0x7));
+            }
+        }
+
+        private void skipRaw(final int size) throws InvalidProtocolBufferException {
+            require(size);
+            position += size;
+        }
+
+        private int readLength() throws InvalidProtocolBufferException {
+            final long length = readRawVarint64();
+
+            if (length < 0 || length > limit - position)
+                throw new InvalidProtocolBufferException("Invalid length: " + length);
+
+            return (int) length;
+        }
+
+        private long readRawVarint64() throws InvalidProtocolBufferException {
+            long result = 0;
+
+            for (int shift = 0; shift < 64; shift += 7) {
+                require(1);
+                final byte b = buffer.getByte(position++);
+                result |= (long) (b & 0x7f) << shift;
+
+                if ((b & 0x80) == 0)
+                    return result;
+            }
+
+            throw new InvalidProtocolBufferException("Malformed varint");
+        }
+
+        private void expect(final int tag, final int wireType) throws InvalidProtocolBufferException {
+            if ((tag & 0x7) != wireType)
+                throw new InvalidProtocolBufferException("Unexpected wire type for field " + (tag >>> 3) + ": "
+                        + (tag & 0x7));
+        }
+
+        private void require(final int size) throws InvalidProtocolBufferException {
+            if (limit - position < size)
+                throw new InvalidProtocolBufferException("Truncated message");
+        }
+    }
+
+    /**
+     * Fields of the metric or event being read.
+     */
+    private static class Fields {
+        private boolean present;
+        private String key;
+        private double value;
+        private long time;
+        private boolean hasTime;
+        private long ttl;
+        private String state;
+        private String description;
+        private String host;
+        private String proc;
+
+        private String[] tags = new String[8];
+        private int tagsSize;
+
+        // alternating keys and values.
+        private String[] attributes = new String[16];
+        private int attributesSize;
+
+        private void reset() {
+            present = false;
+            key = null;
+            value = Double.NaN;
+            time = 0;
+            hasTime = false;
+            ttl = 0;
+            state = null;
+            description = null;
+            host = null;
+            proc = null;
+
+            Arrays.fill(tags, 0, tagsSize, null);
+            tagsSize = 0;
+
+            Arrays.fill(attributes, 0, attributesSize, null);
+            attributesSize = 0;
+        }
+
+        private void addTag(final String tag) {
+            if (tagsSize == tags.length)
+                tags = Arrays.copyOf(tags, tags.length * 2);
+
+            tags[tagsSize++] = tag;
+        }
+
+        private void addAttribute(final String key, final String value) {
+            if (attributesSize == attributes.length)
+                attributes = Arrays.copyOf(attributes, attributes.length * 2);
+
+            attributes[attributesSize++] = key;
+            attributes[attributesSize++] = value;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.protobuf;
+
+import static org.junit.Assert.assertEquals;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.spotify.ffwd.model.Event;
+import com.spotify.ffwd.model.Metric;
+
+public class ProtobufSerializerTest {
+    private final ProtobufSerializer serializer = new ProtobufSerializer();
+    private final ProtobufDecoder decoder = new ProtobufDecoder();
+
+    @Test
+    public void testMetric() throws Exception {
+        final Metric metric = metric("key");
+        final List<Object> out = decode(Unpooled.wrappedBuffer(serializer.serialize(metric)));
+
+        assertEquals(1, out.size());
+
+        final Metric decoded = (Metric) out.get(0);
+        assertEquals(metric, decoded);
+        assertEquals(metric.getTimestamp(), decoded.getTimestamp());
+        assertEquals(metric.getHost(), decoded.getHost());
+        assertEquals(metric.getValue(), decoded.getValue(), 0.0d);
+    }
+
+    @Test
+    public void testEvent() throws Exception {
+        final Event event = new Event("key", 42.0d, new Date(1000), 10L, "ok", "description", "host",
+                ImmutableSet.of("a"), ImmutableMap.of("what", "foo"));
+        final List<Object> out = decode(Unpooled.wrappedBuffer(serializer.serialize(event)));
+
+        assertEquals(1, out.size());
+
+        final Event decoded = (Event) out.get(0);
+        assertEquals(event, decoded);
+        assertEquals(event.getTime(), decoded.getTime());
+        assertEquals(event.getTtl(), decoded.getTtl());
+        assertEquals(event.getState(), decoded.getState());
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        final ByteBuf buffer = Unpooled.buffer();
+        final int[] offsets = serializer.serializeMetrics(ImmutableList.of(metric("a"), metric("b")), buffer);
+
+        assertEquals(2, offsets.length);
+        assertEquals(serializer.serialize(metric("a")).length, offsets[0]);
+        assertEquals(buffer.writerIndex(), offsets[1]);
+
+        final List<Object> out = decode(buffer);
+
+        assertEquals(ImmutableList.of(metric("a"), metric("b")), out);
+    }
+
+    private List<Object> decode(final ByteBuf buffer) throws Exception {
+        final List<Object> out = new ArrayList<>();
+        decoder.decode(null, buffer, out);
+        return out;
+    }
+
+    private Metric metric(final String key) {
+        return new Metric(key, 42.0d, 1000L, "host", ImmutableSet.of("a"), ImmutableMap.of("what", "foo"), "proc");
+    }
+}
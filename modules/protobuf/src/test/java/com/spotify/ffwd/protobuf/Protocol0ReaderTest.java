@@ -0,0 +1,148 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.protobuf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf250.InvalidProtocolBufferException;
+import com.spotify.ffwd.model.Event;
+import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.protocol0.Protocol0;
+
+public class Protocol0ReaderTest {
+    private final Protocol0Reader reader = new Protocol0Reader();
+
+    @Test
+    public void testMetric() throws Exception {
+        final Protocol0.Metric metric = Protocol0.Metric.newBuilder().setKey("key").setValue(4.2d).setTime(1000L)
+                .setHost("host").setProc("proc").addTags("b").addTags("a")
+                .addAttributes(attribute("what", "foo")).addAttributes(Protocol0.Attribute.newBuilder().setKey("x"))
+                .build();
+
+        final Metric m = (Metric) read(Protocol0.Message.newBuilder().setMetric(metric).build().toByteArray());
+
+        assertEquals("key", m.getKey());
+        assertEquals(4.2d, m.getValue(), 0.0d);
+        assertEquals(1000L, m.getTimestamp());
+        assertEquals("host", m.getHost());
+        assertEquals("proc", m.getProc());
+        assertEquals(ImmutableSet.of("a", "b"), m.getRiemann_tags());
+        assertEquals(ImmutableMap.of("what", "foo", "x", ""), m.getTags());
+    }
+
+    @Test
+    public void testMetricDefaults() throws Exception {
+        final Metric m = (Metric) read(Protocol0.Message.newBuilder().setMetric(Protocol0.Metric.newBuilder())
+                .build().toByteArray());
+
+        assertNull(m.getKey());
+        assertTrue(Double.isNaN(m.getValue()));
+        assertFalse(m.hasTime());
+        assertTrue(m.getTags().isEmpty());
+    }
+
+    @Test
+    public void testEvent() throws Exception {
+        final Protocol0.Event event = Protocol0.Event.newBuilder().setKey("key").setValue(1.5d).setTime(1000L)
+                .setTtl(30L).setState("ok").setDescription("d").setHost("host").addTags("a")
+                .addAttributes(attribute("what", "foo")).build();
+
+        final Event e = (Event) read(Protocol0.Message.newBuilder().setEvent(event).build().toByteArray());
+
+        assertEquals("key", e.getKey());
+        assertEquals(1.5d, e.getValue(), 0.0d);
+        assertEquals(1000L, e.getTime().getTime());
+        assertEquals(30L, e.getTtl());
+        assertEquals("ok", e.getState());
+        assertEquals("d", e.getDescription());
+        assertEquals("host", e.getHost());
+        assertEquals(ImmutableSet.of("a"), e.getRiemann_tags());
+        assertEquals(ImmutableMap.of("what", "foo"), e.getTags());
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        final byte[] first = Protocol0.Message.newBuilder()
+                .setMetric(Protocol0.Metric.newBuilder().setKey("a").addTags("x")).build().toByteArray();
+        final byte[] second = Protocol0.Message.newBuilder()
+                .setMetric(Protocol0.Metric.newBuilder().setKey("b").addTags("y")).build().toByteArray();
+
+        final Metric m = (Metric) read(concat(first, second));
+
+        assertEquals(Protocol0.Message.parseFrom(concat(first, second)).getMetric().getKey(), m.getKey());
+        assertEquals(ImmutableSet.of("x", "y"), m.getRiemann_tags());
+    }
+
+    @Test
+    public void testUnknownFields() throws Exception {
+        final byte[] metric = Protocol0.Message.newBuilder().setMetric(Protocol0.Metric.newBuilder().setKey("a"))
+                .build().toByteArray();
+        // field 15, varint 300; field 14, fixed32; field 13, length delimited "ab".
+        final byte[] unknown = new byte[] { 15 << 3, (byte) 0xac, 0x02, (14 << 3) | 5, 1, 2, 3, 4, (13 << 3) | 2, 2,
+                'a', 'b' };
+
+        assertEquals("a", ((Metric) read(concat(unknown, metric))).getKey());
+        assertNull(read(unknown));
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void testTruncated() throws Exception {
+        final byte[] message = Protocol0.Message.newBuilder()
+                .setMetric(Protocol0.Metric.newBuilder().setKey("key").setValue(1.0d)).build().toByteArray();
+        final byte[] truncated = new byte[message.length - 1];
+        System.arraycopy(message, 0, truncated, 0, truncated.length);
+        read(truncated);
+    }
+
+    @Test
+    public void testOffset() throws Exception {
+        final byte[] message = Protocol0.Message.newBuilder().setMetric(Protocol0.Metric.newBuilder().setKey("key"))
+                .build().toByteArray();
+        final ByteBuf buffer = Unpooled.directBuffer();
+        buffer.writeBytes(new byte[] { 1, 2, 3 });
+        buffer.writeBytes(message);
+        buffer.writeBytes(new byte[] { 4, 5, 6 });
+
+        assertEquals("key", ((Metric) reader.read(buffer, 3, message.length)).getKey());
+        buffer.release();
+    }
+
+    private Object read(final byte[] message) throws Exception {
+        return reader.read(Unpooled.wrappedBuffer(message), 0, message.length);
+    }
+
+    private Protocol0.Attribute attribute(final String key, final String value) {
+        return Protocol0.Attribute.newBuilder().setKey(key).setValue(value).build();
+    }
+
+    private byte[] concat(final byte[] a, final byte[] b) {
+        final byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
@@ -40,18 +40,21 @@ import com.spotify.ffwd.protocol.RetryPolicy;
 public class RiemannInputPlugin implements InputPlugin {
     private static final ProtocolType DEFAULT_PROTOCOL = ProtocolType.TCP;
     private static final int DEFAULT_PORT = 5555;
+    private static final RiemannResponder.Mode DEFAULT_ACK_MODE = RiemannResponder.Mode.IMMEDIATE;
 
     private final Protocol protocol;
     private final Class<? extends ProtocolServer> protocolServer;
     private final RetryPolicy retry;
+    private final RiemannResponder.Mode ackMode;
 
     @JsonCreator
     public RiemannInputPlugin(@JsonProperty("protocol") ProtocolFactory protocol,
-            @JsonProperty("retry") RetryPolicy retry) {
+            @JsonProperty("retry") RetryPolicy retry, @JsonProperty("ackMode") String ackMode) {
         this.protocol = Optional.fromNullable(protocol).or(ProtocolFactory.defaultFor())
                 .protocol(DEFAULT_PROTOCOL, DEFAULT_PORT);
         this.protocolServer = parseProtocolServer();
         this.retry = Optional.fromNullable(retry).or(new RetryPolicy.Exponential());
+        this.ackMode = Optional.fromNullable(ackMode).transform(RiemannResponder.Mode.parse()).or(DEFAULT_ACK_MODE);
     }
 
     private Class<? extends ProtocolServer> parseProtocolServer() {
@@ -73,7 +76,7 @@ public class RiemannInputPlugin implements InputPlugin {
                 bind(Protocol.class).toInstance(protocol);
 
                 bind(RiemannFrameDecoder.class);
-                bind(RiemannResponder.class).in(Scopes.SINGLETON);
+                bind(RiemannResponder.class).toInstance(new RiemannResponder(ackMode));
                 bind(RiemannDatagramDecoder.class).in(Scopes.SINGLETON);
                 bind(RiemannMessageDecoder.class).in(Scopes.SINGLETON);
                 bind(Logger.class).toInstance(log);
@@ -35,6 +35,7 @@ import com.spotify.ffwd.protocol.Protocol;
 import com.spotify.ffwd.protocol.ProtocolClient;
 import com.spotify.ffwd.protocol.ProtocolFactory;
 import com.spotify.ffwd.protocol.ProtocolPluginSink;
+import com.spotify.ffwd.protocol.ProtocolPool;
 import com.spotify.ffwd.protocol.ProtocolType;
 import com.spotify.ffwd.protocol.RetryPolicy;
 
@@ -49,29 +50,41 @@ public class RiemannOutputPlugin implements OutputPlugin {
 
     private final Filter filter;
     private final Long flushInterval;
+    private final int flushStripes;
     private final Protocol protocol;
-    private final Class<? extends ProtocolClient> protocolClient;
+    private final ProtocolClient protocolClient;
     private final RetryPolicy retry;
     private final Set<String> riemann_tags;
+    private final ProtocolPool pool;
 
     @JsonCreator
     public RiemannOutputPlugin(@JsonProperty("filter") Filter filter,
                                @JsonProperty("flushInterval") Long flushInterval,
                                @JsonProperty("protocol") ProtocolFactory protocol,
                                @JsonProperty("retry") RetryPolicy retry,
-                               @JsonProperty("riemann_tags") Set<String> riemann_tags) {
+                               @JsonProperty("riemann_tags") Set<String> riemann_tags,
+                               @JsonProperty("flushStripes") Integer flushStripes,
+                               @JsonProperty("maxInFlight") Integer maxInFlight,
+                               @JsonProperty("maxQueued") Integer maxQueued,
+                               @JsonProperty("ackTimeout") Long ackTimeout,
+                               @JsonProperty("pool") ProtocolPool pool) {
         this.filter = Optional.fromNullable(filter).or(TrueFilter.supplier());
         this.flushInterval = Optional.fromNullable(flushInterval).or(DEFAULT_FLUSH_INTERVAL);
+        this.flushStripes = Optional.fromNullable(flushStripes).or(FlushingPluginSink.DEFAULT_STRIPES);
         this.protocol = Optional.fromNullable(protocol).or(ProtocolFactory.defaultFor())
                 .protocol(DEFAULT_PROTOCOL, DEFAULT_PORT);
-        this.protocolClient = parseProtocolClient();
+        this.protocolClient = parseProtocolClient(
+                Optional.fromNullable(maxInFlight).or(RiemannTCPProtocolClient.DEFAULT_MAX_IN_FLIGHT),
+                Optional.fromNullable(maxQueued).or(RiemannTCPProtocolClient.DEFAULT_MAX_QUEUED),
+                Optional.fromNullable(ackTimeout).or(RiemannTCPProtocolClient.DEFAULT_ACK_TIMEOUT));
         this.retry = Optional.fromNullable(retry).or(new RetryPolicy.Exponential());
         this.riemann_tags = Optional.fromNullable(riemann_tags).or(DEFAULT_TAGS);
+        this.pool = pool;
     }
 
-    private Class<? extends ProtocolClient> parseProtocolClient() {
+    private ProtocolClient parseProtocolClient(int maxInFlight, int maxQueued, long ackTimeout) {
         if (protocol.getType() == ProtocolType.TCP)
-            return RiemannTCPProtocolClient.class;
+            return new RiemannTCPProtocolClient(maxInFlight, maxQueued, ackTimeout);
 
         throw new IllegalArgumentException("Protocol not supported: " + protocol.getType());
     }
@@ -83,16 +96,18 @@ public class RiemannOutputPlugin implements OutputPlugin {
             protected void configure() {
                 bind(Protocol.class).toInstance(protocol);
                 bind(RiemannMessageDecoder.class).in(Scopes.SINGLETON);
-                bind(ProtocolClient.class).to(protocolClient).in(Scopes.SINGLETON);
+                bind(ProtocolClient.class).toInstance(protocolClient);
                 bind(RiemannSerialization.class).toInstance(new RiemannSerialization(riemann_tags));
 
                 if (flushInterval != null && flushInterval > 0) {
                     bind(Key.get(Filter.class, Names.named("flushing"))).toInstance(filter);
-                    bind(BatchedPluginSink.class).toInstance(new ProtocolPluginSink(retry));
-                    bind(key).toInstance(new FlushingPluginSink(flushInterval));
+                    bind(BatchedPluginSink.class).toInstance(new ProtocolPluginSink(retry, pool));
+                    bind(key).toInstance(new FlushingPluginSink(flushInterval,
+                            FlushingPluginSink.DEFAULT_BATCH_SIZE_LIMIT, FlushingPluginSink.DEFAULT_MAX_PENDING_FLUSHES,
+                            flushStripes));
                 } else {
                     bind(Filter.class).toInstance(filter);
-                    bind(key).toInstance(new ProtocolPluginSink(retry));
+                    bind(key).toInstance(new ProtocolPluginSink(retry, pool));
                 }
 
                 expose(key);
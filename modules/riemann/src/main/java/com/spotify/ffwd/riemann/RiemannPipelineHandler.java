@@ -0,0 +1,239 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.riemann;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import com.aphyr.riemann.Proto;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pipelines messages to riemann, and completes the promise of every write once riemann has acknowledged it.
+ *
+ * Riemann acknowledges every message on a connection in order, so the promises of written messages are kept in a
+ * queue and completed one by one as acknowledgements arrive. At most {@code maxInFlight} messages are unacknowledged
+ * at any time, further writes are queued until a slot frees up. At most {@code maxQueued} writes are queued, further
+ * writes fail right away so that a slow riemann server does not make the client buffer without bounds.
+ *
+ * If the oldest unacknowledged message has not been acknowledged within {@code ackTimeout} milliseconds, the channel is
+ * closed. When the channel is closed, all unacknowledged and queued writes fail with a
+ * {@link ClosedChannelException}.
+ *
+ * This handler keeps per-channel state, and must not be shared.
+ */
+@Slf4j
+public class RiemannPipelineHandler extends ChannelDuplexHandler {
+    private final RiemannSerialization serializer;
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final long ackTimeout;
+
+    private final Deque<InFlight> inFlight = new ArrayDeque<>();
+    private final Deque<Queued> queued = new ArrayDeque<>();
+
+    private ScheduledFuture<?> ackCheck;
+
+    public RiemannPipelineHandler(RiemannSerialization serializer, int maxInFlight, int maxQueued, long ackTimeout) {
+        this.serializer = serializer;
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.ackTimeout = ackTimeout;
+    }
+
+    @Override
+    public void channelActive(final ChannelHandlerContext ctx) throws Exception {
+        if (ackTimeout > 0) {
+            final long interval = Math.max(1, ackTimeout / 4);
+
+            ackCheck = ctx.executor().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    checkAck(ctx);
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+
+        ctx.fireChannelActive();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        final boolean sendNow = inFlight.size() < maxInFlight && queued.isEmpty();
+
+        // checked before encoding, a rejected message should not cost anything.
+        if (!sendNow && queued.size() >= maxQueued) {
+            promise.tryFailure(new IOException("Too many messages waiting for riemann (max: " + maxQueued + ")"));
+            return;
+        }
+
+        final ByteBuf buf;
+
+        if (msg instanceof Collection) {
+            buf = serializer.encodeAll0(ctx.alloc(), (Collection<Object>) msg);
+        } else {
+            buf = serializer.encode0(ctx.alloc(), msg);
+        }
+
+        if (sendNow) {
+            send(ctx, buf, promise);
+            return;
+        }
+
+        queued.add(new Queued(buf, promise));
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        final Proto.Msg ack;
+
+        final ByteBuf frame = (ByteBuf) msg;
+
+        try {
+            // skip the length prefix.
+            frame.skipBytes(4);
+            ack = serializer.parse0(frame);
+        } catch (final IOException e) {
+            log.error("Invalid acknowledgement, closing connection", e);
+            ctx.close();
+            return;
+        } finally {
+            frame.release();
+        }
+
+        final InFlight head = inFlight.poll();
+
+        if (head == null) {
+            log.warn("Received acknowledgement without a message in flight");
+            return;
+        }
+
+        final ChannelPromise promise = head.getPromise();
+
+        if (ack.getOk()) {
+            promise.trySuccess();
+        } else {
+            promise.tryFailure(new IOException("Message rejected by riemann: " + ack.getError()));
+        }
+
+        sendQueued(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (ackCheck != null) {
+            ackCheck.cancel(false);
+            ackCheck = null;
+        }
+
+        final ClosedChannelException cause = new ClosedChannelException();
+
+        InFlight head;
+
+        while ((head = inFlight.poll()) != null)
+            head.getPromise().tryFailure(cause);
+
+        Queued q;
+
+        while ((q = queued.poll()) != null) {
+            q.getBuffer().release();
+            q.getPromise().tryFailure(cause);
+        }
+
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        log.error("Error in connection to riemann, closing", cause);
+        ctx.close();
+    }
+
+    /**
+     * Close the channel if riemann has not acknowledged the oldest message in flight in time, which fails all
+     * messages in flight.
+     */
+    private void checkAck(final ChannelHandlerContext ctx) {
+        final InFlight head = inFlight.peek();
+
+        if (head == null)
+            return;
+
+        final long waited = System.nanoTime() - head.getSent();
+
+        if (waited < TimeUnit.MILLISECONDS.toNanos(ackTimeout))
+            return;
+
+        log.error("No acknowledgement from riemann in {}ms, closing connection",
+                TimeUnit.NANOSECONDS.toMillis(waited));
+        ctx.close();
+    }
+
+    private void sendQueued(ChannelHandlerContext ctx) {
+        if (queued.isEmpty())
+            return;
+
+        Queued q;
+
+        while (inFlight.size() < maxInFlight && (q = queued.poll()) != null)
+            send(ctx, q.getBuffer(), q.getPromise());
+
+        ctx.flush();
+    }
+
+    private void send(final ChannelHandlerContext ctx, final ByteBuf buf, final ChannelPromise promise) {
+        inFlight.add(new InFlight(promise, System.nanoTime()));
+
+        ctx.write(buf).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (future.isSuccess())
+                    return;
+
+                // acknowledgements can no longer be correlated, the promise will fail when the channel is closed.
+                log.error("Failed to write message, closing connection", future.cause());
+                ctx.close();
+            }
+        });
+    }
+
+    @Data
+    private static class InFlight {
+        private final ChannelPromise promise;
+        private final long sent;
+    }
+
+    @Data
+    private static class Queued {
+        private final ByteBuf buffer;
+        private final ChannelPromise promise;
+    }
+}
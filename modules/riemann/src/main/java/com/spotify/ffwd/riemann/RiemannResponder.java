@@ -17,46 +17,91 @@
 package com.spotify.ffwd.riemann;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufOutputStream;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 
-import java.io.IOException;
-
 import com.aphyr.riemann.Proto;
+import com.google.common.base.Function;
 
+/**
+ * Acknowledges every received message.
+ *
+ * The acknowledgements are constant, so they are encoded once and shared between all channels.
+ */
 @Sharable
 public class RiemannResponder extends ChannelInboundHandlerAdapter {
+    private static final ByteBuf OK = frame(true);
+    private static final ByteBuf ERROR = frame(false);
+
+    private final Mode mode;
+
+    public RiemannResponder(Mode mode) {
+        this.mode = mode;
+    }
+
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        ctx.channel().writeAndFlush(ack(true));
+        if (mode == Mode.BATCHED) {
+            ctx.channel().write(OK.duplicate());
+        } else {
+            ctx.channel().writeAndFlush(OK.duplicate());
+        }
+
         ctx.fireChannelRead(msg);
     }
 
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        if (mode == Mode.BATCHED)
+            ctx.channel().flush();
+
+        ctx.fireChannelReadComplete();
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-        ctx.channel().writeAndFlush(ack(false));
+        ctx.channel().writeAndFlush(ERROR.duplicate());
     }
 
-    private ByteBuf ack(boolean ok) throws IOException {
-        final Proto.Msg m = Proto.Msg.newBuilder().setOk(ok).build();
+    /**
+     * Build a length-prefixed acknowledgement, which is read-only and can not be released.
+     */
+    private static ByteBuf frame(boolean ok) {
+        final byte[] message = Proto.Msg.newBuilder().setOk(ok).build().toByteArray();
+
+        final ByteBuf buffer = Unpooled.directBuffer(4 + message.length);
+        buffer.writeInt(message.length);
+        buffer.writeBytes(message);
 
-        final ByteBuf b = Unpooled.buffer();
+        return Unpooled.unreleasableBuffer(Unpooled.unmodifiableBuffer(buffer));
+    }
 
-        try (final ByteBufOutputStream output = new ByteBufOutputStream(b)) {
-            m.writeTo(output);
+    public static enum Mode {
+        /**
+         * Flush every acknowledgement as soon as it has been written.
+         */
+        IMMEDIATE,
+        /**
+         * Flush all acknowledgements written during a read once it has completed.
+         */
+        BATCHED;
 
-            final ByteBuf frame = output.buffer();
-            final ByteBuf buffer = Unpooled.buffer(4 + frame.readableBytes());
+        public static Function<String, Mode> parse() {
+            return new Function<String, Mode>() {
+                @Override
+                public Mode apply(final String input) {
+                    final String value = input.toUpperCase();
 
-            buffer.writeInt(frame.readableBytes());
-            buffer.writeBytes(frame);
+                    for (final Mode mode : values()) {
+                        if (mode.name().equals(value))
+                            return mode;
+                    }
 
-            return buffer;
-        } finally {
-            b.release();
+                    throw new IllegalArgumentException("Invalid riemann ack mode: " + input);
+                }
+            };
         }
     }
-}
\ No newline at end of file
+}
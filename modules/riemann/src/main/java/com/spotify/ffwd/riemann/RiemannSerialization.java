@@ -17,9 +17,9 @@
 package com.spotify.ffwd.riemann;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.ByteBufInputStream;
 import io.netty.buffer.ByteBufOutputStream;
-import io.netty.buffer.Unpooled;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -31,21 +31,37 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 import com.aphyr.riemann.Proto;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.spotify.ffwd.model.CompactTagSet;
+import com.spotify.ffwd.model.CompactTags;
 import com.spotify.ffwd.model.Event;
 import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.model.MetricInterner;
+import com.spotify.ffwd.protobuf250.CodedOutputStream;
 import com.spotify.ffwd.protobuf250.InvalidProtocolBufferException;
 
 public class RiemannSerialization {
+    public static final long DEFAULT_CACHE_SIZE = 10000;
+
+    private final MetricInterner interner = MetricInterner.get();
     private final Set<String> riemann_tags;
+    private final List<String> staticTags;
+
+    // keyed by identity, interned tags are released when no sample refers to them anymore.
+    private final ConcurrentMap<Map<String, String>, List<Proto.Attribute>> attributes = CacheBuilder.newBuilder()
+            .weakKeys().maximumSize(DEFAULT_CACHE_SIZE).<Map<String, String>, List<Proto.Attribute>> build().asMap();
+    private final ConcurrentMap<Set<String>, List<String>> mergedTags = CacheBuilder.newBuilder().weakKeys()
+            .maximumSize(DEFAULT_CACHE_SIZE).<Set<String>, List<String>> build().asMap();
 
     public RiemannSerialization(Set<String> riemann_tags) {
         this.riemann_tags = riemann_tags;
+        this.staticTags = ImmutableList.copyOf(riemann_tags);
     }
 
-
     public Proto.Msg parse0(ByteBuf buffer) throws IOException {
         final InputStream inputStream = new ByteBufInputStream(buffer);
 
@@ -70,11 +86,17 @@ public class RiemannSerialization {
         return events;
     }
 
-    public ByteBuf encode0(Object msg) throws IOException {
-        return encodeAll0(ImmutableList.of(msg));
+    public ByteBuf encode0(ByteBufAllocator alloc, Object msg) throws IOException {
+        return encodeAll0(alloc, ImmutableList.of(msg));
     }
 
-    public ByteBuf encodeAll0(Collection<Object> messages) throws IOException {
+    /**
+     * Encode the given samples into a single length-prefixed message.
+     *
+     * The size of the message is computed up front, so that the length prefix and the message are written into a
+     * single buffer from the given allocator.
+     */
+    public ByteBuf encodeAll0(ByteBufAllocator alloc, Collection<Object> messages) throws IOException {
         final Proto.Msg.Builder builder = Proto.Msg.newBuilder();
 
         for (final Object d : messages) {
@@ -86,21 +108,30 @@ public class RiemannSerialization {
         }
 
         final Proto.Msg m = builder.build();
+        final int size = m.getSerializedSize();
 
-        final ByteBuf work = Unpooled.buffer();
-
-        try (final ByteBufOutputStream output = new ByteBufOutputStream(work)) {
-            m.writeTo(output);
+        final ByteBuf result = alloc.ioBuffer(4 + size);
 
-            final ByteBuf result = Unpooled.buffer();
-
-            result.writeInt(work.writerIndex());
-            result.writeBytes(work);
-
-            return result;
-        } finally {
-            work.release();
+        try {
+            result.writeInt(size);
+
+            if (result.hasArray()) {
+                final int offset = result.arrayOffset() + result.writerIndex();
+                final CodedOutputStream output = CodedOutputStream.newInstance(result.array(), offset, size);
+                m.writeTo(output);
+                output.checkNoSpaceLeft();
+                result.writerIndex(result.writerIndex() + size);
+            } else {
+                try (final ByteBufOutputStream output = new ByteBufOutputStream(result)) {
+                    m.writeTo(output);
+                }
+            }
+        } catch (final IOException e) {
+            result.release();
+            throw e;
         }
+
+        return result;
     }
 
     private Proto.Event.Builder encodeMetric0(final Metric d) {
@@ -113,13 +144,11 @@ public class RiemannSerialization {
             b.setHost(d.getHost());
 
         b.setMetricD(d.getValue());
-        b.addAllAttributes(convertTags0(d.getTags()));
-
-        final Set<String> riemann_tags = new HashSet<>(this.riemann_tags);
-        riemann_tags.addAll(d.getRiemann_tags());
+        b.addAllAttributes(attributes(d.getTags()));
+        b.addAllTags(tags(d.getRiemann_tags()));
 
-        b.addAllTags(riemann_tags);
-        b.setTime(toRiemannTime(d.getTime()));
+        if (d.hasTime())
+            b.setTime(toRiemannTime(d.getTimestamp()));
 
         return b;
     }
@@ -133,13 +162,11 @@ public class RiemannSerialization {
             b.setHost(d.getHost());
 
         b.setMetricD(d.getValue());
-        b.addAllAttributes(convertTags0(d.getTags()));
+        b.addAllAttributes(attributes(d.getTags()));
+        b.addAllTags(tags(d.getRiemann_tags()));
 
-        final Set<String> riemann_tags = new HashSet<>(this.riemann_tags);
-        riemann_tags.addAll(d.getRiemann_tags());
-
-        b.addAllTags(riemann_tags);
-        b.setTime(toRiemannTime(d.getTime()));
+        if (d.getTime() != null)
+            b.setTime(toRiemannTime(d.getTime()));
 
         if (d.getDescription() != null)
             b.setDescription(d.getDescription());
@@ -152,13 +179,61 @@ public class RiemannSerialization {
         return b;
     }
 
-    private Iterable<? extends Proto.Attribute> convertTags0(Map<String, String> tags) {
-        final List<Proto.Attribute> attributes = new ArrayList<>();
+    /**
+     * Attributes for the given tags.
+     *
+     * Interned tags are shared by all samples of a series, so their attributes are cached. Tags merged with the
+     * global tags are interned per series by the output manager, so they are cached as well.
+     */
+    private List<Proto.Attribute> attributes(final Map<String, String> tags) {
+        if (!(tags instanceof CompactTags))
+            return convertTags0(tags);
+
+        final List<Proto.Attribute> cached = attributes.get(tags);
+
+        if (cached != null)
+            return cached;
+
+        final List<Proto.Attribute> converted = convertTags0(tags);
+        attributes.put(tags, converted);
+        return converted;
+    }
+
+    /**
+     * The configured riemann tags merged with the given ones.
+     *
+     * Interned tags are shared by all samples of a series, so the merged tags are cached.
+     */
+    private List<String> tags(final Set<String> tags) {
+        if (tags.isEmpty())
+            return staticTags;
+
+        if (!(tags instanceof CompactTagSet))
+            return mergeTags0(tags);
+
+        final List<String> cached = mergedTags.get(tags);
+
+        if (cached != null)
+            return cached;
+
+        final List<String> merged = mergeTags0(tags);
+        mergedTags.put(tags, merged);
+        return merged;
+    }
+
+    private List<String> mergeTags0(final Set<String> tags) {
+        final Set<String> merged = new HashSet<>(this.riemann_tags);
+        merged.addAll(tags);
+        return ImmutableList.copyOf(merged);
+    }
+
+    private List<Proto.Attribute> convertTags0(Map<String, String> tags) {
+        final ImmutableList.Builder<Proto.Attribute> attributes = ImmutableList.builder();
 
         for (final Map.Entry<String, String> tag : tags.entrySet())
             attributes.add(Proto.Attribute.newBuilder().setKey(tag.getKey()).setValue(tag.getValue()).build());
 
-        return attributes;
+        return attributes.build();
     }
 
     private Map<String, String> convertTags0(List<Proto.Attribute> attributesList) {
@@ -190,12 +265,12 @@ public class RiemannSerialization {
         final String state = event.hasState() ? event.getState() : null;
         final String description = event.hasDescription() ? event.getDescription() : null;
         final String host = event.hasHost() ? event.getHost() : null;
-        final Set<String> riemann_tags = new HashSet<>(event.getTagsList());
+        final List<String> riemann_tags = event.getTagsList();
         final Map<String, String> tags = convertTags0(event.getAttributesList());
 
         final double value = convertValue0(event);
 
-        return new Event(service, value, time, ttl, state, description, host, riemann_tags, tags);
+        return interner.event(service, value, time, ttl, state, description, host, riemann_tags, tags);
     }
 
     private Date fromRiemannTime(long time) {
@@ -203,6 +278,10 @@ public class RiemannSerialization {
     }
 
     private long toRiemannTime(Date d) {
-        return d.getTime() / 1000L;
+        return toRiemannTime(d.getTime());
+    }
+
+    private long toRiemannTime(long time) {
+        return time / 1000L;
     }
 }
@@ -16,76 +16,50 @@
  **/
 package com.spotify.ffwd.riemann;
 
-import java.util.Collection;
-import java.util.concurrent.atomic.AtomicInteger;
-
 import com.google.inject.Inject;
 import com.spotify.ffwd.protocol.ProtocolClient;
 
-import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.ChannelOutboundHandlerAdapter;
-import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
-import lombok.extern.slf4j.Slf4j;
 
-@Slf4j
+/**
+ * TCP client for riemann that pipelines messages, and completes writes once they have been acknowledged.
+ *
+ * @see RiemannPipelineHandler
+ */
 public class RiemannTCPProtocolClient implements ProtocolClient {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 32;
+    public static final int DEFAULT_MAX_QUEUED = 1024;
+    public static final long DEFAULT_ACK_TIMEOUT = 30000;
+
     private static final int MAX_LENGTH = 0xffffff;
-    private static final int WARNING_ACK_THRESHOLD = 100;
 
     @Inject
     private RiemannSerialization serializer;
 
-    private final AtomicInteger pending = new AtomicInteger();
-
-    private final ChannelInboundHandlerAdapter receiver = new ChannelInboundHandlerAdapter() {
-        @Override
-        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-            final int p = pending.decrementAndGet();
-
-            log.debug("Decrementing pending acks (current: {})", p);
-
-            if (p > WARNING_ACK_THRESHOLD)
-                log.warn("number of pending acks are high ({})", p);
-        }
-
-        @Override
-        public boolean isSharable() {
-            return true;
-        };
-    };
-
-    private final ChannelOutboundHandlerAdapter sender = new ChannelOutboundHandlerAdapter() {
-        @SuppressWarnings("unchecked")
-        @Override
-        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
-            final ByteBuf buf;
-
-            if (msg instanceof Collection) {
-                buf = serializer.encodeAll0((Collection<Object>) msg);
-            } else {
-                buf = serializer.encode0(msg);
-            }
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final long ackTimeout;
 
-            log.debug("Incrementing pending acks (current: {})", pending.incrementAndGet());
-
-            ctx.write(buf, promise);
-        };
+    public RiemannTCPProtocolClient() {
+        this(DEFAULT_MAX_IN_FLIGHT);
+    }
 
-        @Override
-        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-            log.error("error when sending");
-        }
+    public RiemannTCPProtocolClient(int maxInFlight) {
+        this(maxInFlight, DEFAULT_MAX_QUEUED, DEFAULT_ACK_TIMEOUT);
+    }
 
-        @Override
-        public boolean isSharable() {
-            return true;
-        };
-    };
+    /**
+     * @param maxInFlight Maximum number of unacknowledged messages.
+     * @param maxQueued Maximum number of messages waiting for a free slot, further messages are failed.
+     * @param ackTimeout Milliseconds to wait for an acknowledgement before reconnecting, or 0 to wait forever.
+     */
+    public RiemannTCPProtocolClient(int maxInFlight, int maxQueued, long ackTimeout) {
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.ackTimeout = ackTimeout;
+    }
 
     @Override
     public ChannelInitializer<Channel> initializer() {
@@ -93,8 +67,9 @@ public class RiemannTCPProtocolClient implements ProtocolClient {
             @Override
             protected void initChannel(Channel ch) throws Exception {
                 final LengthFieldBasedFrameDecoder lengthPrefix = new LengthFieldBasedFrameDecoder(MAX_LENGTH, 0, 4);
-                ch.pipeline().addLast(lengthPrefix, receiver, sender);
+                ch.pipeline().addLast(lengthPrefix, new RiemannPipelineHandler(serializer, maxInFlight, maxQueued,
+                        ackTimeout));
             }
         };
     }
-}
\ No newline at end of file
+}
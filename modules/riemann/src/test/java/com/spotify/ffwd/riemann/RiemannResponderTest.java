@@ -0,0 +1,110 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.riemann;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class RiemannResponderTest {
+    private final RiemannSerialization serialization = new RiemannSerialization(ImmutableSet.<String> of());
+
+    @Test
+    public void testImmediate() throws Exception {
+        final AtomicInteger flushes = new AtomicInteger();
+        final EmbeddedChannel channel = channel(RiemannResponder.Mode.IMMEDIATE, flushes);
+
+        channel.pipeline().fireChannelRead("a");
+        channel.pipeline().fireChannelRead("b");
+
+        assertEquals(2, flushes.get());
+        assertAck(true, channel.readOutbound());
+        assertAck(true, channel.readOutbound());
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void testBatched() throws Exception {
+        final AtomicInteger flushes = new AtomicInteger();
+        final EmbeddedChannel channel = channel(RiemannResponder.Mode.BATCHED, flushes);
+
+        channel.pipeline().fireChannelRead("a");
+        channel.pipeline().fireChannelRead("b");
+        channel.pipeline().fireChannelRead("c");
+
+        assertEquals(0, flushes.get());
+        assertNull(channel.readOutbound());
+
+        channel.pipeline().fireChannelReadComplete();
+
+        assertEquals(1, flushes.get());
+        assertAck(true, channel.readOutbound());
+        assertAck(true, channel.readOutbound());
+        assertAck(true, channel.readOutbound());
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void testError() throws Exception {
+        final EmbeddedChannel channel = channel(RiemannResponder.Mode.BATCHED, new AtomicInteger());
+
+        channel.pipeline().fireExceptionCaught(new Exception("invalid frame"));
+
+        assertAck(false, channel.readOutbound());
+    }
+
+    @Test
+    public void testParseMode() {
+        assertEquals(RiemannResponder.Mode.IMMEDIATE, RiemannResponder.Mode.parse().apply("immediate"));
+        assertEquals(RiemannResponder.Mode.BATCHED, RiemannResponder.Mode.parse().apply("batched"));
+    }
+
+    private EmbeddedChannel channel(final RiemannResponder.Mode mode, final AtomicInteger flushes) {
+        final ChannelOutboundHandlerAdapter counter = new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void flush(ChannelHandlerContext ctx) throws Exception {
+                flushes.incrementAndGet();
+                ctx.flush();
+            }
+        };
+
+        return new EmbeddedChannel(counter, new RiemannResponder(mode));
+    }
+
+    private void assertAck(final boolean ok, final Object outbound) throws Exception {
+        assertTrue(outbound instanceof ByteBuf);
+
+        final ByteBuf frame = (ByteBuf) outbound;
+
+        try {
+            assertEquals(frame.readableBytes() - 4, frame.readInt());
+            assertEquals(ok, serialization.parse0(frame).getOk());
+        } finally {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.riemann;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.aphyr.riemann.Proto;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.model.MetricInterner;
+
+public class RiemannSerializationTest {
+    private final RiemannSerialization serialization = new RiemannSerialization(ImmutableSet.of("ffwd"));
+    private final MetricInterner interner = new MetricInterner();
+
+    @Test
+    public void testEncodeDirect() throws Exception {
+        assertEncoded(serialization.encodeAll0(PooledByteBufAllocator.DEFAULT, samples()));
+    }
+
+    @Test
+    public void testEncodeHeap() throws Exception {
+        assertEncoded(serialization.encodeAll0(new UnpooledByteBufAllocator(false), samples()));
+    }
+
+    @Test
+    public void testRepeatedSeries() throws Exception {
+        final Proto.Msg a = decode(serialization.encode0(PooledByteBufAllocator.DEFAULT, metric("a")));
+        final Proto.Msg b = decode(serialization.encode0(PooledByteBufAllocator.DEFAULT, metric("b")));
+
+        assertEquals(a.getEvents(0).getTagsList(), b.getEvents(0).getTagsList());
+        assertEquals(a.getEvents(0).getAttributesList(), b.getEvents(0).getAttributesList());
+    }
+
+    @Test
+    public void testNoTime() throws Exception {
+        final Metric metric = interner.metric("a", 42.0d, Metric.NO_TIME, "host", ImmutableSet.<String> of(),
+                ImmutableMap.<String, String> of(), null);
+
+        final Proto.Msg message = decode(serialization.encode0(PooledByteBufAllocator.DEFAULT, metric));
+        assertFalse(message.getEvents(0).hasTime());
+    }
+
+    private void assertEncoded(final ByteBuf buffer) throws Exception {
+        final Proto.Msg message;
+
+        try {
+            assertEquals(buffer.readableBytes() - 4, buffer.getInt(buffer.readerIndex()));
+            message = decode(buffer.retain());
+        } finally {
+            buffer.release();
+        }
+
+        assertEquals(2, message.getEventsCount());
+
+        final Proto.Event event = message.getEvents(0);
+        assertEquals("a", event.getService());
+        assertEquals(42.0d, event.getMetricD(), 0.0d);
+        assertEquals(1L, event.getTime());
+        assertEquals(ImmutableSet.of("ffwd", "x"), ImmutableSet.copyOf(event.getTagsList()));
+        assertEquals(1, event.getAttributesCount());
+        assertEquals("what", event.getAttributes(0).getKey());
+        assertEquals("foo", event.getAttributes(0).getValue());
+
+        assertEquals("b", message.getEvents(1).getService());
+    }
+
+    private Proto.Msg decode(final ByteBuf buffer) throws Exception {
+        try {
+            buffer.skipBytes(4);
+            return serialization.parse0(buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private List<Object> samples() {
+        return ImmutableList.<Object> of(metric("a"), metric("b"));
+    }
+
+    private Metric metric(final String key) {
+        return interner.metric(key, 42.0d, 1000L, "host", ImmutableSet.of("x"), ImmutableMap.of("what", "foo"), null);
+    }
+}
@@ -0,0 +1,292 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.riemann;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.util.HashedWheelTimer;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import com.aphyr.riemann.Proto;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.spotify.ffwd.model.Metric;
+import com.spotify.ffwd.protocol.ProtocolChannelSetup;
+import com.spotify.ffwd.protocol.RetryPolicy;
+import com.spotify.ffwd.protocol.RetryingProtocolConnection;
+
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.AsyncFuture;
+import eu.toolchain.async.TinyAsync;
+
+/**
+ * Runs the client against a stub riemann server, that acknowledges messages when told to.
+ */
+public class RiemannTCPProtocolClientTest {
+    private static final long TIMEOUT = 10;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final EventLoopGroup group = new NioEventLoopGroup(2);
+    private final HashedWheelTimer timer = new HashedWheelTimer();
+    private final RiemannSerialization serialization = new RiemannSerialization(ImmutableSet.<String> of());
+
+    private final BlockingQueue<Proto.Msg> received = new LinkedBlockingQueue<>();
+    private final BlockingQueue<ChannelHandlerContext> connections = new LinkedBlockingQueue<>();
+    private final AtomicInteger dropConnections = new AtomicInteger();
+
+    private AsyncFramework async;
+    private Channel server;
+    private RetryingProtocolConnection connection;
+
+    @Before
+    public void setup() throws Exception {
+        async = TinyAsync.builder().executor(executor).build();
+
+        final ServerBootstrap b = new ServerBootstrap();
+        b.group(group).channel(NioServerSocketChannel.class);
+        b.childHandler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) throws Exception {
+                ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(0xffffff, 0, 4, 0, 4),
+                        new ChannelInboundHandlerAdapter() {
+                            @Override
+                            public void channelActive(ChannelHandlerContext ctx) throws Exception {
+                                connections.add(ctx);
+                            }
+
+                            @Override
+                            public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                                final ByteBuf frame = (ByteBuf) msg;
+
+                                try {
+                                    received.add(serialization.parse0(frame));
+                                } finally {
+                                    frame.release();
+                                }
+
+                                if (dropConnections.getAndDecrement() > 0)
+                                    ctx.close();
+                            }
+                        });
+            }
+        });
+
+        server = b.bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (connection != null)
+            connection.stop().get(TIMEOUT, TimeUnit.SECONDS);
+
+        server.close().sync();
+        group.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+        timer.stop();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testResolvedOnAck() throws Exception {
+        connect(RiemannTCPProtocolClient.DEFAULT_MAX_IN_FLIGHT);
+
+        final AsyncFuture<Void> future = connection.sendAll(ImmutableList.of(metric("a"), metric("b")));
+
+        final Proto.Msg message = received.poll(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals(2, message.getEventsCount());
+        assertFalse(future.isDone());
+
+        ack(connections.peek(), true);
+        future.get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testFailedOnError() throws Exception {
+        connect(RiemannTCPProtocolClient.DEFAULT_MAX_IN_FLIGHT);
+
+        final AsyncFuture<Void> future = connection.sendAll(ImmutableList.of(metric("a")));
+        received.poll(TIMEOUT, TimeUnit.SECONDS);
+        ack(connections.peek(), false);
+
+        try {
+            future.get(TIMEOUT, TimeUnit.SECONDS);
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("rejected"));
+            return;
+        }
+
+        throw new AssertionError("expected future to fail");
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        connect(1);
+
+        final AsyncFuture<Void> first = connection.sendAll(ImmutableList.of(metric("a")));
+        final AsyncFuture<Void> second = connection.sendAll(ImmutableList.of(metric("b")));
+
+        assertEquals("a", received.poll(TIMEOUT, TimeUnit.SECONDS).getEvents(0).getService());
+        assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+
+        ack(connections.peek(), true);
+        first.get(TIMEOUT, TimeUnit.SECONDS);
+
+        assertEquals("b", received.poll(TIMEOUT, TimeUnit.SECONDS).getEvents(0).getService());
+        assertFalse(second.isDone());
+
+        ack(connections.peek(), true);
+        second.get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testRetryAfterReconnect() throws Exception {
+        dropConnections.set(1);
+        connect(RiemannTCPProtocolClient.DEFAULT_MAX_IN_FLIGHT);
+
+        final AsyncFuture<Void> future = connection.sendAll(ImmutableList.of(metric("a")));
+
+        // first attempt is dropped with the connection, without an acknowledgement.
+        assertEquals("a", received.poll(TIMEOUT, TimeUnit.SECONDS).getEvents(0).getService());
+        connections.take();
+
+        assertEquals("a", received.poll(TIMEOUT, TimeUnit.SECONDS).getEvents(0).getService());
+        assertFalse(future.isDone());
+
+        ack(connections.poll(TIMEOUT, TimeUnit.SECONDS), true);
+        future.get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testQueueLimit() throws Exception {
+        connect(1, 1, 0);
+
+        final AsyncFuture<Void> first = connection.sendAll(ImmutableList.of(metric("a")));
+        final AsyncFuture<Void> second = connection.sendAll(ImmutableList.of(metric("b")));
+        final AsyncFuture<Void> third = connection.sendAll(ImmutableList.of(metric("c")));
+
+        try {
+            third.get(TIMEOUT, TimeUnit.SECONDS);
+            throw new AssertionError("expected future to fail");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("Too many"));
+        }
+
+        received.poll(TIMEOUT, TimeUnit.SECONDS);
+        ack(connections.peek(), true);
+        first.get(TIMEOUT, TimeUnit.SECONDS);
+
+        assertEquals("b", received.poll(TIMEOUT, TimeUnit.SECONDS).getEvents(0).getService());
+        ack(connections.peek(), true);
+        second.get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testAckTimeout() throws Exception {
+        connect(RiemannTCPProtocolClient.DEFAULT_MAX_IN_FLIGHT, RiemannTCPProtocolClient.DEFAULT_MAX_QUEUED, 200);
+
+        final AsyncFuture<Void> future = connection.sendAll(ImmutableList.of(metric("a")));
+
+        // never acknowledged, the client gives up on the connection and sends the batch again.
+        assertEquals("a", received.poll(TIMEOUT, TimeUnit.SECONDS).getEvents(0).getService());
+        connections.take();
+
+        assertEquals("a", received.poll(TIMEOUT, TimeUnit.SECONDS).getEvents(0).getService());
+        assertFalse(future.isDone());
+
+        ack(connections.poll(TIMEOUT, TimeUnit.SECONDS), true);
+        future.get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    private void connect(final int maxInFlight) throws Exception {
+        connect(maxInFlight, RiemannTCPProtocolClient.DEFAULT_MAX_QUEUED, RiemannTCPProtocolClient.DEFAULT_ACK_TIMEOUT);
+    }
+
+    private void connect(final int maxInFlight, final int maxQueued, final long ackTimeout) throws Exception {
+        final RiemannTCPProtocolClient client = new RiemannTCPProtocolClient(maxInFlight, maxQueued, ackTimeout);
+
+        Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(RiemannSerialization.class).toInstance(serialization);
+            }
+        }).injectMembers(client);
+
+        final Bootstrap b = new Bootstrap();
+        b.group(group).channel(NioSocketChannel.class).handler(client.initializer());
+
+        final InetSocketAddress address = (InetSocketAddress) server.localAddress();
+
+        connection = new RetryingProtocolConnection(async, timer, LoggerFactory.getLogger(getClass()),
+                new RetryPolicy.Constant(10L), new ProtocolChannelSetup() {
+                    @Override
+                    public ChannelFuture setup() {
+                        return b.connect(address);
+                    }
+                });
+
+        connection.getInitialFuture().get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    private void ack(final ChannelHandlerContext ctx, final boolean ok) throws Exception {
+        final Proto.Msg.Builder ack = Proto.Msg.newBuilder().setOk(ok);
+
+        if (!ok)
+            ack.setError("no");
+
+        final byte[] bytes = ack.build().toByteArray();
+        final ByteBuf buf = ctx.alloc().buffer(4 + bytes.length);
+        buf.writeInt(bytes.length);
+        buf.writeBytes(bytes);
+        ctx.writeAndFlush(buf).sync();
+    }
+
+    private Metric metric(final String key) {
+        return new Metric(key, 42.0d, 1000L, "host", ImmutableSet.<String> of(), ImmutableMap.<String, String> of(),
+                null);
+    }
+}
@@ -20,15 +20,28 @@ import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageEncoder;
 
+import java.util.Collection;
 import java.util.List;
 
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Encodes every sample as a line, the samples of a batch are encoded as separate lines.
+ *
+ * Separate lines let datagram clients pack a batch into as many datagrams as it needs.
+ */
 @Slf4j
 @Sharable
 public class TemplateOutputEncoder extends MessageToMessageEncoder<Object> {
     @Override
     protected void encode(ChannelHandlerContext ctx, Object msg, List<Object> out) throws Exception {
+        if (msg instanceof Collection) {
+            for (final Object sample : (Collection<?>) msg)
+                out.add(sample.toString() + "\n");
+
+            return;
+        }
+
         out.add(msg.toString() + "\n");
     }
 }
\ No newline at end of file
@@ -16,50 +16,69 @@
  **/
 package com.spotify.ffwd.template;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Optional;
 import com.google.inject.Key;
 import com.google.inject.Module;
-import com.google.inject.PrivateModule;
+import com.spotify.ffwd.output.BatchedPluginSink;
+import com.spotify.ffwd.output.FlushingPluginSink;
 import com.spotify.ffwd.output.OutputPlugin;
+import com.spotify.ffwd.output.OutputPluginModule;
 import com.spotify.ffwd.output.PluginSink;
 import com.spotify.ffwd.protocol.Protocol;
 import com.spotify.ffwd.protocol.ProtocolClient;
 import com.spotify.ffwd.protocol.ProtocolFactory;
 import com.spotify.ffwd.protocol.ProtocolPluginSink;
+import com.spotify.ffwd.protocol.ProtocolPool;
 import com.spotify.ffwd.protocol.ProtocolType;
 import com.spotify.ffwd.protocol.RetryPolicy;
 
+/**
+ * Line based output.
+ *
+ * With a positive {@code flushInterval}, samples are sent in batches, which UDP connections pack into as few
+ * datagrams as possible. UDP outputs are flushed every {@value #DEFAULT_UDP_FLUSH_INTERVAL}ms unless configured
+ * otherwise, other outputs send every sample as it arrives.
+ */
 public class TemplateOutputPlugin implements OutputPlugin {
     private static final ProtocolType DEFAULT_PROTOCOL = ProtocolType.TCP;
     private static final int DEFAULT_PORT = 8910;
+    public static final long DEFAULT_UDP_FLUSH_INTERVAL = 100;
 
     private final Protocol protocol;
     private final RetryPolicy retry;
+    private final ProtocolPool pool;
+    private final long flushInterval;
 
     @JsonCreator
     public TemplateOutputPlugin(@JsonProperty("protocol") final ProtocolFactory protocol,
-            @JsonProperty("retry") final RetryPolicy retry) {
+            @JsonProperty("retry") final RetryPolicy retry, @JsonProperty("pool") final ProtocolPool pool,
+            @JsonProperty("flushInterval") final Long flushInterval) {
         this.protocol = Optional.fromNullable(protocol).or(ProtocolFactory.defaultFor())
                 .protocol(DEFAULT_PROTOCOL, DEFAULT_PORT);
         this.retry = Optional.fromNullable(retry).or(new RetryPolicy.Exponential());
+        this.pool = pool;
+        this.flushInterval = Optional.fromNullable(flushInterval).or(
+                this.protocol.getType() == ProtocolType.UDP ? DEFAULT_UDP_FLUSH_INTERVAL : 0L);
     }
 
     @Override
     public Module module(final Key<PluginSink> key, final String id) {
-        return new PrivateModule() {
+        return new OutputPluginModule(id) {
             @Override
             protected void configure() {
-                bind(Logger.class).toInstance(LoggerFactory.getLogger(id));
                 bind(TemplateOutputEncoder.class).toInstance(new TemplateOutputEncoder());
                 bind(Protocol.class).toInstance(protocol);
                 bind(ProtocolClient.class).toInstance(new TemplateOutputProtocolClient());
 
-                bind(key).toInstance(new ProtocolPluginSink(retry));
+                if (flushInterval > 0) {
+                    bind(BatchedPluginSink.class).toInstance(new ProtocolPluginSink(retry, pool));
+                    bind(key).toInstance(new FlushingPluginSink(flushInterval));
+                } else {
+                    bind(key).toInstance(new ProtocolPluginSink(retry, pool));
+                }
+
                 expose(key);
             }
         };
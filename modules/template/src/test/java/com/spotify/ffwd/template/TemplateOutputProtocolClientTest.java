@@ -0,0 +1,139 @@
+// $LICENSE
+/**
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+package com.spotify.ffwd.template;
+
+import static org.junit.Assert.assertEquals;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.name.Names;
+import com.spotify.ffwd.protocol.Protocol;
+import com.spotify.ffwd.protocol.ProtocolClientsImpl;
+import com.spotify.ffwd.protocol.ProtocolConnection;
+import com.spotify.ffwd.protocol.ProtocolType;
+import com.spotify.ffwd.protocol.RetryPolicy;
+import com.spotify.ffwd.protocol.RetryingProtocolConnection;
+import com.spotify.ffwd.statistics.NoopCoreStatistics;
+
+import eu.toolchain.async.AsyncFramework;
+import eu.toolchain.async.TinyAsync;
+
+/**
+ * Sends batches through the template client over UDP, and checks how they are packed into datagrams.
+ */
+public class TemplateOutputProtocolClientTest {
+    private static final long TIMEOUT = 10;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final EventLoopGroup worker = new NioEventLoopGroup(1);
+    private final HashedWheelTimer timer = new HashedWheelTimer();
+
+    private DatagramSocket server;
+    private Injector injector;
+    private ProtocolConnection connection;
+
+    @Before
+    public void setup() throws Exception {
+        server = new DatagramSocket(new InetSocketAddress("127.0.0.1", 0));
+        server.setSoTimeout((int) TimeUnit.MILLISECONDS.convert(TIMEOUT, TimeUnit.SECONDS));
+
+        final AsyncFramework async = TinyAsync.builder().executor(executor).build();
+
+        injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(AsyncFramework.class).toInstance(async);
+                bind(Key.get(EventLoopGroup.class, Names.named("worker"))).toInstance(worker);
+                bind(Timer.class).toInstance(timer);
+                bind(TemplateOutputEncoder.class).toInstance(new TemplateOutputEncoder());
+            }
+        });
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (connection != null)
+            connection.stop().get(TIMEOUT, TimeUnit.SECONDS);
+
+        server.close();
+        worker.shutdownGracefully(0, 0, TimeUnit.SECONDS).sync();
+        timer.stop();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testBatchInOneDatagram() throws Exception {
+        connect(null);
+
+        connection.sendAll(ImmutableList.of("a", "b", "c")).get(TIMEOUT, TimeUnit.SECONDS);
+
+        assertEquals("a\nb\nc\n", receive());
+    }
+
+    @Test
+    public void testBatchLargerThanDatagram() throws Exception {
+        // room for four bytes of payload after the IPv4 and UDP headers.
+        connect(28 + 4);
+
+        connection.sendAll(ImmutableList.of("a", "b", "c")).get(TIMEOUT, TimeUnit.SECONDS);
+
+        assertEquals("a\nb\n", receive());
+        assertEquals("c\n", receive());
+    }
+
+    private void connect(Integer mtu) throws Exception {
+        final InetSocketAddress address = new InetSocketAddress(InetAddress.getByName("127.0.0.1"),
+                server.getLocalPort());
+        final Protocol protocol = new Protocol(ProtocolType.UDP, address, null, mtu);
+
+        final ProtocolClientsImpl clients = injector.getInstance(ProtocolClientsImpl.class);
+        final TemplateOutputProtocolClient client = injector.getInstance(TemplateOutputProtocolClient.class);
+
+        connection = clients.connect(LoggerFactory.getLogger(getClass()), protocol, client,
+                new RetryPolicy.Constant(10L), NoopCoreStatistics.get().newOutputPlugin("test")).get();
+
+        ((RetryingProtocolConnection) connection).getInitialFuture().get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    private String receive() throws Exception {
+        final DatagramPacket packet = new DatagramPacket(new byte[0xffff], 0xffff);
+        server.receive(packet);
+        return new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+    }
+}